@@ -0,0 +1,928 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Нагрузочный и длительный прогон против запущенного приложения: только JDK, без сборки.
+ *
+ * <pre>
+ * java -Dfile.encoding=UTF-8 perf/LoadHarness.java perf/scenarios/dashboards.properties --dashboards=200
+ * </pre>
+ *
+ * Сценарий — файл properties, любой ключ переопределяется аргументом --key=value. Участники:
+ * <ul>
+ *   <li>панели (dashboards) — ведут себя как app.js: GET /routes раз в dashboard.poll-ms, держат /ws/routes,
+ *   подписываются на показанные строки и перечитывают страницу при routes_changed;</li>
+ *   <li>писатели (writers) — смесь операций из writer.mix: create/update/patch/delete и специальные запросы.</li>
+ * </ul>
+ * Каждые report.interval.seconds печатаются перцентили задержки и доля ошибок по эндпоинтам, задержка доставки
+ * WebSocket (от отправки записи до получения изменения каждой панелью) и занятость пула БД из /api/metrics.
+ * В конце — сводка за всё время после прогрева; код выхода 1, если доля ошибок выше max-error-rate.
+ * <p>
+ * Все виртуальные клиенты приходят с одного адреса, поэтому каждый получает свой X-Forwarded-For: с
+ * routes.admission.trust-forwarded-for=true лимиты контроля входа применяются к ним как к разным клиентам.
+ */
+public class LoadHarness {
+
+    private static final String[] DEFAULT_MIX = {
+            "create:25", "update:10", "patch:20", "delete:10", "get:10", "search:5", "between:5",
+            "shortest:4", "nearest:4", "within:3", "analytics:2", "recent:2"};
+
+    private final Properties config;
+    private final String base;
+    private final HttpClient http;
+    private final Duration timeout;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Stats wsLag = new Stats("ws delivery lag");
+    private final DeliveryTracker deliveries = new DeliveryTracker();
+    private final PoolSampler pool = new PoolSampler();
+    private final AtomicLong wsMessages = new AtomicLong();
+    private final AtomicLong wsErrors = new AtomicLong();
+
+    private final List<Long> knownIds = new CopyOnWriteArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Properties config = new Properties();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) config.setProperty(arg.substring(2), "true");
+                else config.setProperty(arg.substring(2, eq), arg.substring(eq + 1));
+            } else {
+                Properties file = new Properties();
+                try (Reader in = Files.newBufferedReader(Path.of(arg), StandardCharsets.UTF_8)) {
+                    file.load(in);
+                }
+                // аргументы командной строки важнее файла, независимо от порядка
+                file.forEach(config::putIfAbsent);
+            }
+        }
+        System.exit(new LoadHarness(config).run());
+    }
+
+    LoadHarness(Properties config) {
+        this.config = config;
+        this.base = str("base.url", "http://localhost:25501/IS-lab1").replaceAll("/+$", "");
+        this.timeout = Duration.ofMillis(num("http.timeout-ms", 10_000));
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    int run() throws Exception {
+        int dashboards = (int) num("dashboards", 50);
+        int writers = (int) num("writers", 4);
+        long duration = num("duration.seconds", 120);
+        long warmup = num("warmup.seconds", 10);
+        long interval = Math.max(1, num("report.interval.seconds", 10));
+        System.out.printf(Locale.ROOT, "Target %s: %d dashboards, %d writers, %d s (+%d s warm-up)%n",
+                base, dashboards, writers, duration, warmup);
+
+        seed((int) num("seed.routes", 200));
+
+        start("metrics-sampler", this::sampleMetrics);
+        for (int i = 0; i < dashboards; i++) {
+            int n = i;
+            start("dashboard-" + i, () -> dashboard(n));
+            // не открываем сотни WebSocket в одну миллисекунду
+            Thread.sleep(Math.max(1, num("dashboard.ramp-ms", 5000) / Math.max(1, dashboards)));
+        }
+        List<WeightedOp> mix = parseMix(str("writer.mix", String.join(",", DEFAULT_MIX)));
+        for (int i = 0; i < writers; i++) {
+            int n = i;
+            start("writer-" + i, () -> writer(n, mix));
+        }
+
+        sleepSeconds(warmup);
+        resetAll();
+        System.out.println("Warm-up done, measuring");
+
+        PrintWriter csv = csvWriter();
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(duration);
+        while (System.nanoTime() < deadline) {
+            sleepSeconds(Math.min(interval, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadline - System.nanoTime()))));
+            report("interval", false, (System.nanoTime() - started) / 1e9, csv);
+        }
+        running.set(false);
+        for (Thread t : threads) t.interrupt();
+        for (Thread t : threads) t.join(2000);
+        if (csv != null) csv.close();
+
+        double errorRate = report("total", true, (System.nanoTime() - started) / 1e9, null);
+        double maxErrorRate = Double.parseDouble(str("max-error-rate", "1"));
+        if (errorRate > maxErrorRate) {
+            System.out.printf(Locale.ROOT, "FAILED: error rate %.4f above %.4f%n", errorRate, maxErrorRate);
+            return 1;
+        }
+        return 0;
+    }
+
+    // --- участники
+
+    private void seed(int routes) {
+        List<Long> existing = idsOf(send("seed", get("/api/routes?page=0&size=" + Math.max(1, routes), 0)));
+        knownIds.addAll(existing);
+        for (int i = existing.size(); i < routes; i++) {
+            HttpResponse<String> resp = send("seed", post("/api/routes", routeJson("seed-" + i), 0));
+            Long id = idOf(resp);
+            if (id != null) knownIds.add(id);
+        }
+        System.out.println("Seeded, " + knownIds.size() + " routes known");
+    }
+
+    private void dashboard(int n) {
+        int client = 1000 + n;
+        int pages = (int) Math.max(1, num("dashboard.pages", 1));
+        int size = (int) num("dashboard.page-size", 10);
+        long poll = num("dashboard.poll-ms", 5000);
+        String filter = ThreadLocalRandom.current().nextInt(100) < num("dashboard.filter-percent", 10) ? "seed-1" : null;
+        int page = ThreadLocalRandom.current().nextInt(pages);
+        Object wake = new Object();
+        AtomicBoolean dirty = new AtomicBoolean();
+
+        WebSocket ws = null;
+        if (bool("dashboard.websocket", true)) {
+            ws = openSocket(client, () -> {
+                if (bool("dashboard.reload-on-change", true)) {
+                    dirty.set(true);
+                    synchronized (wake) {
+                        wake.notify();
+                    }
+                }
+            });
+        }
+        try {
+            while (running.get()) {
+                String path = "/api/routes?page=" + page + "&size=" + size
+                        + (filter != null ? "&name=" + filter : "");
+                HttpResponse<String> resp = send("GET /routes", get(path, client));
+                if (ws != null && resp != null && resp.statusCode() == 200) {
+                    List<Long> shown = idsOf(resp);
+                    // как subscribeChanges() в app.js
+                    StringBuilder msg = new StringBuilder("{\"type\":\"subscribe\"");
+                    if (filter != null) msg.append(",\"name\":\"").append(filter).append('"');
+                    if (shown.size() >= size) msg.append(",\"ids\":").append(shown);
+                    try {
+                        ws.sendText(msg.append('}').toString(), true).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                    } catch (Exception e) {
+                        wsErrors.incrementAndGet();
+                    }
+                }
+                synchronized (wake) {
+                    if (!dirty.get()) wake.wait(poll);
+                }
+                dirty.set(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ws != null) ws.abort();
+        }
+    }
+
+    private void writer(int n, List<WeightedOp> mix) {
+        int client = 100 + n;
+        long think = num("writer.think-ms", 200);
+        int total = mix.stream().mapToInt(o -> o.weight).sum();
+        try {
+            while (running.get()) {
+                int pick = ThreadLocalRandom.current().nextInt(total);
+                for (WeightedOp op : mix) {
+                    if ((pick -= op.weight) < 0) {
+                        write(op.name, client);
+                        break;
+                    }
+                }
+                if (think > 0) Thread.sleep(ThreadLocalRandom.current().nextLong(think / 2, think * 3 / 2 + 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(String op, int client) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Long id = randomId(rnd);
+        String a = location(rnd.nextInt(locations()));
+        String b = location(rnd.nextInt(locations()));
+        switch (op) {
+            case "create": {
+                long started = System.nanoTime();
+                Long created = idOf(send("POST /routes", post("/api/routes", routeJson("load-" + rnd.nextInt(1_000_000)), client)));
+                if (created != null) {
+                    knownIds.add(created);
+                    deliveries.written(created + ":created", started);
+                }
+                break;
+            }
+            case "update":
+                if (id == null) return;
+                deliveries.written(id + ":updated", System.nanoTime());
+                send("PUT /routes/{id}", request("/api/routes/" + id, client)
+                        .PUT(HttpRequest.BodyPublishers.ofString(routeJson("upd-" + rnd.nextInt(1_000_000))))
+                        .header("Content-Type", "application/json"));
+                break;
+            case "patch":
+                if (id == null) return;
+                deliveries.written(id + ":updated", System.nanoTime());
+                send("PATCH /routes/{id}", request("/api/routes/" + id, client)
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"rating\":" + (1 + rnd.nextInt(10)) + "}"))
+                        .header("Content-Type", "application/merge-patch+json"));
+                break;
+            case "delete":
+                // удаляем только созданное нагрузкой, чтобы панели не опустели
+                if (knownIds.size() <= num("seed.routes", 200)) return;
+                Long victim;
+                try {
+                    victim = knownIds.remove(knownIds.size() - 1);
+                } catch (IndexOutOfBoundsException e) {
+                    return; // другой писатель успел раньше
+                }
+                deliveries.written(victim + ":deleted", System.nanoTime());
+                send("DELETE /routes/{id}", request("/api/routes/" + victim, client).DELETE());
+                break;
+            case "get":
+                if (id != null) send("GET /routes/{id}", get("/api/routes/" + id, client));
+                break;
+            case "search":
+                send("GET /routes/search", get("/api/routes/search?name=load-" + rnd.nextInt(10), client));
+                break;
+            case "between":
+                send("GET /routes/between", get("/api/routes/between?from=" + a + "&to=" + b, client));
+                break;
+            case "shortest":
+                send("GET /routes/shortest", get("/api/routes/shortest?from=" + a + "&to=" + b, client));
+                break;
+            case "nearest":
+                send("GET /routes/nearest", get("/api/routes/nearest?x=" + rnd.nextInt(100) + "&y=" + rnd.nextInt(100) + "&k=10", client));
+                break;
+            case "within":
+                send("GET /routes/within", get("/api/routes/within?minX=0&minY=0&maxX=" + rnd.nextInt(10, 100)
+                        + "&maxY=" + rnd.nextInt(10, 100), client));
+                break;
+            case "analytics":
+                send("GET /routes/analytics", get("/api/routes/analytics", client));
+                break;
+            case "recent":
+                send("GET /routes/recent", get("/api/routes/recent?limit=20", client));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown writer operation: " + op);
+        }
+    }
+
+    private Long randomId(ThreadLocalRandom rnd) {
+        try {
+            int n = knownIds.size();
+            return n == 0 ? null : knownIds.get(rnd.nextInt(n));
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private void sampleMetrics() {
+        long every = num("metrics.interval-ms", 1000);
+        try {
+            while (running.get()) {
+                try {
+                    HttpResponse<String> resp = http.send(get("/api/metrics", 1).build(), HttpResponse.BodyHandlers.ofString());
+                    if (resp.statusCode() == 200) pool.sample(Json.parseObject(resp.body()));
+                } catch (IOException | RuntimeException e) {
+                    pool.failures.incrementAndGet();
+                }
+                Thread.sleep(every);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private WebSocket openSocket(int client, Runnable onChange) {
+        URI ws = URI.create(base.replaceFirst("^http", "ws") + "/ws/routes");
+        try {
+            return http.newWebSocketBuilder()
+                    .header("X-Forwarded-For", forwardedFor(client))
+                    .connectTimeout(timeout)
+                    .buildAsync(ws, new WebSocket.Listener() {
+                        private final StringBuilder partial = new StringBuilder();
+
+                        @Override
+                        public CompletionStage<?> onText(WebSocket socket, CharSequence data, boolean last) {
+                            partial.append(data);
+                            if (last) {
+                                long received = System.nanoTime();
+                                String text = partial.toString();
+                                partial.setLength(0);
+                                wsMessages.incrementAndGet();
+                                onMessage(text, received);
+                                onChange.run();
+                            }
+                            socket.request(1);
+                            return null;
+                        }
+
+                        @Override
+                        public void onError(WebSocket socket, Throwable error) {
+                            if (running.get()) wsErrors.incrementAndGet();
+                        }
+                    }).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            wsErrors.incrementAndGet();
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onMessage(String text, long received) {
+        Map<String, Object> msg;
+        try {
+            msg = Json.parseObject(text);
+        } catch (RuntimeException e) {
+            wsErrors.incrementAndGet();
+            return;
+        }
+        if (!"routes_changed".equals(msg.get("type"))) return;
+        for (Object c : (List<Object>) msg.getOrDefault("changes", List.of())) {
+            Map<String, Object> change = (Map<String, Object>) c;
+            deliveries.delivered(((Number) change.get("id")).longValue() + ":" + change.get("op"), received);
+        }
+    }
+
+    // --- HTTP
+
+    private HttpRequest.Builder request(String path, int client) {
+        return HttpRequest.newBuilder(uri(path)).header("X-Forwarded-For", forwardedFor(client));
+    }
+
+    private HttpRequest.Builder get(String path, int client) {
+        return request(path, client).GET();
+    }
+
+    private HttpRequest.Builder post(String path, String json, int client) {
+        return request(path, client)
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json");
+    }
+
+    private HttpResponse<String> send(String endpoint, HttpRequest.Builder request) {
+        Stats s = stats.computeIfAbsent(endpoint, Stats::new);
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> resp = http.send(request.timeout(timeout).build(), HttpResponse.BodyHandlers.ofString());
+            s.record(System.nanoTime() - started, resp.statusCode());
+            return resp;
+        } catch (IOException e) {
+            s.record(System.nanoTime() - started, -1);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private String forwardedFor(int client) {
+        return bool("clients.distinct-forwarded-for", true)
+                ? "10.77." + (client >> 8 & 0xff) + "." + (client & 0xff)
+                : "127.0.0.1";
+    }
+
+    private URI uri(String path) {
+        return URI.create(base + path);
+    }
+
+    private String routeJson(String name) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int from = rnd.nextInt(locations());
+        int to = rnd.nextInt(locations());
+        return "{\"name\":\"" + name + "\",\"coordinates\":{\"x\":" + rnd.nextInt(100) + ",\"y\":" + rnd.nextInt(100) + "},"
+                + "\"from\":" + locationJson(from) + ",\"to\":" + (rnd.nextInt(10) == 0 ? "null" : locationJson(to)) + ","
+                + "\"distance\":" + rnd.nextInt(2, 10_000) + ",\"rating\":" + rnd.nextInt(1, 11) + "}";
+    }
+
+    // фиксированный набор локаций, чтобы between/shortest находили маршруты
+    private int locations() {
+        return (int) Math.max(1, num("locations", 50));
+    }
+
+    private static String location(int i) {
+        return "L" + i;
+    }
+
+    private static String locationJson(int i) {
+        return "{\"x\":" + (i * 7 % 100) + ",\"y\":" + (i * 13 % 100) + ",\"name\":\"" + location(i) + "\"}";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> idsOf(HttpResponse<String> resp) {
+        List<Long> ids = new ArrayList<>();
+        if (resp == null || resp.statusCode() != 200) return ids;
+        Object body = Json.parse(resp.body());
+        if (body instanceof Map) body = ((Map<String, Object>) body).get("content");
+        if (body instanceof List) {
+            for (Object o : (List<Object>) body) {
+                if (o instanceof Map && ((Map<String, Object>) o).get("id") instanceof Number) {
+                    ids.add(((Number) ((Map<String, Object>) o).get("id")).longValue());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static Long idOf(HttpResponse<String> resp) {
+        if (resp == null || resp.statusCode() / 100 != 2) return null;
+        Object id = Json.parseObject(resp.body()).get("id");
+        return id instanceof Number ? ((Number) id).longValue() : null;
+    }
+
+    // --- отчёт
+
+    private void resetAll() {
+        stats.values().forEach(Stats::reset);
+        wsLag.reset();
+        wsMessages.set(0);
+        wsErrors.set(0);
+        pool.reset();
+    }
+
+    private double report(String title, boolean total, double elapsedSeconds, PrintWriter csv) {
+        Map<String, Stats> sorted = new TreeMap<>(stats);
+        sorted.remove("seed");
+        System.out.printf(Locale.ROOT, "%n== %s at %.0f s ==%n", title, elapsedSeconds);
+        System.out.printf(Locale.ROOT, "%-24s %9s %8s %7s %7s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "rps", "err%", "429/503", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        long requests = 0;
+        long errors = 0;
+        for (Stats s : sorted.values()) {
+            Snapshot snap = s.snapshot(total);
+            if (snap.count == 0) continue;
+            requests += snap.count;
+            errors += snap.errors;
+            double window = total ? elapsedSeconds : snap.seconds;
+            System.out.printf(Locale.ROOT, "%-24s %9d %8.1f %7.2f %7d %9.1f %9.1f %9.1f %9.1f%n",
+                    s.name, snap.count, snap.count / window, 100.0 * snap.errors / snap.count, snap.rejected,
+                    snap.percentile(50), snap.percentile(90), snap.percentile(99), snap.max());
+            if (csv != null) {
+                csv.printf(Locale.ROOT, "%.0f,%s,%d,%d,%d,%.2f,%.2f,%.2f,%.2f%n", elapsedSeconds, s.name, snap.count,
+                        snap.errors, snap.rejected, snap.percentile(50), snap.percentile(90), snap.percentile(99), snap.max());
+            }
+        }
+        Snapshot lag = wsLag.snapshot(total);
+        System.out.printf(Locale.ROOT, "websocket: %d messages, %d errors, delivery lag p50 %.1f / p99 %.1f / max %.1f ms (%d samples)%n",
+                wsMessages.get(), wsErrors.get(), lag.percentile(50), lag.percentile(99), lag.max(), lag.count);
+        System.out.println(pool.describe(total));
+        if (csv != null) {
+            csv.printf(Locale.ROOT, "%.0f,ws-lag,%d,0,0,%.2f,%.2f,%.2f,%.2f%n", elapsedSeconds, lag.count,
+                    lag.percentile(50), lag.percentile(90), lag.percentile(99), lag.max());
+            csv.flush();
+        }
+        double errorRate = requests == 0 ? 0 : (double) errors / requests;
+        System.out.printf(Locale.ROOT, "all endpoints: %d requests, error rate %.4f%n", requests, errorRate);
+        return errorRate;
+    }
+
+    private PrintWriter csvWriter() throws IOException {
+        String path = str("csv", "");
+        if (path.isEmpty()) return null;
+        PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(path), StandardCharsets.UTF_8));
+        out.println("elapsed_s,endpoint,requests,errors,rejected,p50_ms,p90_ms,p99_ms,max_ms");
+        return out;
+    }
+
+    // --- конфигурация и потоки
+
+    private String str(String key, String def) {
+        return config.getProperty(key, def).trim();
+    }
+
+    private long num(String key, long def) {
+        return Long.parseLong(str(key, Long.toString(def)));
+    }
+
+    private boolean bool(String key, boolean def) {
+        return Boolean.parseBoolean(str(key, Boolean.toString(def)));
+    }
+
+    private static List<WeightedOp> parseMix(String mix) {
+        List<WeightedOp> ops = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split(":");
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            if (weight > 0) ops.add(new WeightedOp(kv[0].trim(), weight));
+        }
+        if (ops.isEmpty()) throw new IllegalArgumentException("writer.mix is empty");
+        return ops;
+    }
+
+    private void start(String name, Runnable body) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+    }
+
+    private static void sleepSeconds(long seconds) throws InterruptedException {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    private static final class WeightedOp {
+        final String name;
+        final int weight;
+
+        WeightedOp(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Сопоставляет записи с сообщениями WebSocket по ключу "id:op". Сообщение о создании может прийти
+     * раньше ответа на POST (id ещё неизвестен) — тогда время получения ждёт в early, пока писатель не назовёт id.
+     */
+    private final class DeliveryTracker {
+        private final Map<String, Long> writes = new ConcurrentHashMap<>();
+        private final Map<String, Queue<Long>> early = new ConcurrentHashMap<>();
+        private final AtomicLong lastPurge = new AtomicLong(System.nanoTime());
+
+        void written(String key, long startedNanos) {
+            writes.put(key, startedNanos);
+            Queue<Long> pending = early.remove(key);
+            if (pending != null) {
+                for (Long received : pending) wsLag.recordLatency(Math.max(0, received - startedNanos));
+            }
+            purge();
+        }
+
+        void delivered(String key, long receivedNanos) {
+            early.compute(key, (k, queue) -> {
+                Long started = writes.get(k);
+                if (started != null) {
+                    wsLag.recordLatency(Math.max(0, receivedNanos - started));
+                    return queue;
+                }
+                Queue<Long> q = queue != null ? queue : new ConcurrentLinkedQueue<>();
+                q.add(receivedNanos);
+                return q;
+            });
+        }
+
+        // записи старше минуты уже никто не доставит; early без пары — изменения не от этого прогона
+        private void purge() {
+            long now = System.nanoTime();
+            long last = lastPurge.get();
+            if (now - last < TimeUnit.SECONDS.toNanos(10) || !lastPurge.compareAndSet(last, now)) return;
+            long cutoff = now - TimeUnit.MINUTES.toNanos(1);
+            writes.values().removeIf(t -> t < cutoff);
+            early.values().removeIf(q -> q.isEmpty() || q.peek() < cutoff);
+        }
+    }
+
+    /**
+     * Максимумы из /api/metrics за интервал и за весь прогон
+     */
+    private static final class PoolSampler {
+        final AtomicLong failures = new AtomicLong();
+        private final AtomicReference<long[]> interval = new AtomicReference<>(new long[6]);
+        private final AtomicReference<long[]> overall = new AtomicReference<>(new long[6]);
+        private volatile long poolSize;
+        private volatile long rejectedAtStart = -1;
+        private volatile long rejected;
+        private volatile double avgAcquireMs;
+
+        // [0] занято, [1] пик, [2] read, [3] search, [4] write, [5] ws-сессии
+        @SuppressWarnings("unchecked")
+        void sample(Map<String, Object> m) {
+            Map<String, Object> db = (Map<String, Object>) m.get("db");
+            Map<String, Object> primary = (Map<String, Object>) db.get("primary");
+            Map<String, Object> admission = (Map<String, Object>) m.get("admission");
+            Map<String, Object> inFlight = (Map<String, Object>) admission.get("inFlight");
+            long[] v = {
+                    asLong(primary.get("inUse")), asLong(primary.get("peakInUse")),
+                    asLong(inFlight.get("read")), asLong(inFlight.get("search")), asLong(inFlight.get("write")),
+                    asLong(((Map<String, Object>) m.get("websocket")).get("sessions"))};
+            poolSize = asLong(primary.get("size"));
+            avgAcquireMs = ((Number) primary.get("avgAcquireMs")).doubleValue();
+            long r = asLong(admission.get("rejectedByRate")) + asLong(admission.get("rejectedByConcurrency"));
+            if (rejectedAtStart < 0) rejectedAtStart = r;
+            rejected = r - rejectedAtStart;
+            interval.accumulateAndGet(v, PoolSampler::max);
+            overall.accumulateAndGet(v, PoolSampler::max);
+        }
+
+        void reset() {
+            interval.set(new long[6]);
+            overall.set(new long[6]);
+            // следующая выборка станет новой точкой отсчёта отказов
+            rejectedAtStart = -1;
+            rejected = 0;
+        }
+
+        String describe(boolean total) {
+            long[] v = total ? overall.get() : interval.getAndSet(new long[6]);
+            return String.format(Locale.ROOT,
+                    "db pool: max in use %d (peak %d) of %s, avg acquire %.2f ms | in flight max read %d search %d write %d"
+                            + " | ws sessions %d | admission rejections %d | metrics failures %d",
+                    v[0], v[1], poolSize > 0 ? Long.toString(poolSize) : "?", avgAcquireMs, v[2], v[3], v[4], v[5],
+                    rejected, failures.get());
+        }
+
+        private static long[] max(long[] a, long[] b) {
+            long[] r = a.clone();
+            for (int i = 0; i < r.length; i++) r[i] = Math.max(a[i], b[i]);
+            return r;
+        }
+
+        private static long asLong(Object o) {
+            return o instanceof Number ? ((Number) o).longValue() : 0;
+        }
+    }
+
+    /**
+     * Счётчики эндпоинта: гистограмма за интервал и за весь прогон. Ошибка — статус не 2xx/304 или сбой соединения;
+     * 429/503 от контроля входа считаются ошибками и отдельно.
+     */
+    private static final class Stats {
+        final String name;
+        private volatile Histogram interval = new Histogram();
+        private volatile Histogram overall = new Histogram();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, int status) {
+            boolean error = !(status / 100 == 2 || status == 304);
+            boolean rejected = status == 429 || status == 503;
+            interval.record(nanos, error, rejected);
+            overall.record(nanos, error, rejected);
+        }
+
+        void recordLatency(long nanos) {
+            record(nanos, 200);
+        }
+
+        void reset() {
+            interval = new Histogram();
+            overall = new Histogram();
+        }
+
+        Snapshot snapshot(boolean total) {
+            if (total) return overall.snapshot();
+            Histogram h = interval;
+            interval = new Histogram();
+            return h.snapshot();
+        }
+    }
+
+    /**
+     * Лог-линейная гистограмма микросекунд: 32 корзины на каждую степень двойки, погрешность ~3%
+     */
+    private static final class Histogram {
+        private static final int SUB = 32;
+        private final AtomicLongArray buckets = new AtomicLongArray(2 * SUB + 40 * SUB);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final long created = System.nanoTime();
+
+        void record(long nanos, boolean error, boolean reject) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(index(micros));
+            count.incrementAndGet();
+            maxMicros.accumulateAndGet(micros, Math::max);
+            if (error) errors.incrementAndGet();
+            if (reject) rejected.incrementAndGet();
+        }
+
+        static int index(long v) {
+            if (v < 2 * SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int shift = exp - 5;
+            return (int) Math.min(2 * SUB + 40L * SUB - 1, 2 * SUB + (long) (exp - 6) * SUB + ((v >> shift) - SUB));
+        }
+
+        static long upperBound(int idx) {
+            if (idx < 2 * SUB) return idx;
+            int exp = (idx - 2 * SUB) / SUB + 6;
+            long mantissa = (idx - 2 * SUB) % SUB + SUB;
+            return ((mantissa + 1) << (exp - 5)) - 1;
+        }
+
+        Snapshot snapshot() {
+            long[] copy = new long[buckets.length()];
+            for (int i = 0; i < copy.length; i++) copy[i] = buckets.get(i);
+            return new Snapshot(copy, count.get(), errors.get(), rejected.get(), maxMicros.get(),
+                    (System.nanoTime() - created) / 1e9);
+        }
+    }
+
+    private static final class Snapshot {
+        final long[] buckets;
+        final long count;
+        final long errors;
+        final long rejected;
+        final long maxMicros;
+        final double seconds;
+
+        Snapshot(long[] buckets, long count, long errors, long rejected, long maxMicros, double seconds) {
+            this.buckets = buckets;
+            this.count = count;
+            this.errors = errors;
+            this.rejected = rejected;
+            this.maxMicros = maxMicros;
+            this.seconds = Math.max(seconds, 1e-3);
+        }
+
+        double percentile(double p) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * p / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return Math.min(Histogram.upperBound(i), maxMicros) / 1000.0;
+            }
+            return max();
+        }
+
+        double max() {
+            return maxMicros / 1000.0;
+        }
+    }
+
+    /**
+     * Минимальный разбор JSON в Map/List/String/Number/Boolean/null — harness запускается без зависимостей
+     */
+    static final class Json {
+        private final String s;
+        private int pos;
+
+        private Json(String s) {
+            this.s = s;
+        }
+
+        static Object parse(String text) {
+            Json p = new Json(text);
+            Object value = p.value();
+            p.skipSpace();
+            if (p.pos != text.length()) throw p.error("trailing data");
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> parseObject(String text) {
+            Object value = parse(text);
+            if (!(value instanceof Map)) throw new IllegalArgumentException("JSON object expected");
+            return (Map<String, Object>) value;
+        }
+
+        private Object value() {
+            skipSpace();
+            if (pos >= s.length()) throw error("unexpected end");
+            char c = s.charAt(pos);
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': return literal("true", Boolean.TRUE);
+                case 'f': return literal("false", Boolean.FALSE);
+                case 'n': return literal("null", null);
+                default: return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipSpace();
+                String key = string();
+                skipSpace();
+                expect(':');
+                map.put(key, value());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipSpace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= s.length()) throw error("unterminated string");
+                char c = s.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private Number number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+            String n = s.substring(start, pos);
+            if (n.isEmpty()) throw error("unexpected character");
+            if (n.indexOf('.') >= 0 || n.indexOf('e') >= 0 || n.indexOf('E') >= 0) return Double.parseDouble(n);
+            return Long.parseLong(n);
+        }
+
+        private Object literal(String word, Object value) {
+            if (!s.startsWith(word, pos)) throw error("unexpected literal");
+            pos += word.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) throw error("expected '" + c + "'");
+            pos++;
+        }
+
+        private char peek() {
+            return pos < s.length() ? s.charAt(pos) : '\0';
+        }
+
+        private void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Bad JSON at " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import backend.api.RouteJsonEncoder;
+import backend.entities.Coordinates;
+import backend.entities.Location;
+import backend.entities.Route;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Сравнение сериализации страниц маршрутов: JSON-B (Yasson, как в контейнере) против RouteJsonEncoder.
+ * Для каждого размера страницы — пропускная способность (страниц и МБ в секунду) и байты в куче на страницу
+ * (ThreadMXBean.getThreadAllocatedBytes). Сначала проверяется, что оба дают одинаковые байты.
+ *
+ * <pre>
+ * java -Dfile.encoding=UTF-8 -cp &lt;классы приложения&gt;:jakarta.json.bind-api.jar:jakarta.json-api.jar:yasson.jar:parsson.jar \
+ *     perf/RouteJsonBenchmark.java [--sizes=10,100,1000] [--seconds=3]
+ * </pre>
+ */
+public class RouteJsonBenchmark {
+
+    private interface Serializer {
+        void write(List<Route> page, OutputStream out) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10, 100, 1000};
+        double seconds = 3;
+        for (String arg : args) {
+            if (arg.startsWith("--sizes=")) {
+                sizes = Arrays.stream(arg.substring(8).split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = Double.parseDouble(arg.substring(10));
+            }
+        }
+
+        // не try-with-resources: Jsonb.close() объявлен с throws Exception, а не только IOException
+        Jsonb jsonb = JsonbBuilder.create();
+        try {
+            Serializer reflective = (page, out) -> jsonb.toJson(page, out);
+            Serializer encoder = (page, out) -> {
+                RouteJsonEncoder e = new RouteJsonEncoder(out);
+                e.writeRoutes(page);
+                e.flush();
+            };
+
+            System.out.printf(Locale.ROOT, "%-8s %6s %14s %10s %16s%n", "writer", "size", "pages/s", "MB/s", "alloc B/page");
+            for (int size : sizes) {
+                List<Route> page = routes(size);
+                byte[] expected = bytes(reflective, page);
+                if (!Arrays.equals(expected, bytes(encoder, page))) {
+                    throw new IllegalStateException("Encoder output differs from JSON-B for size " + size);
+                }
+                run("jsonb", reflective, page, expected.length, seconds);
+                run("encoder", encoder, page, expected.length, seconds);
+            }
+        } finally {
+            jsonb.close();
+        }
+    }
+
+    private static void run(String name, Serializer serializer, List<Route> page, int pageBytes, double seconds)
+            throws IOException {
+        // JSON-B закрывает поток после значения, поэтому сток не закрывается
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        // прогрев, затем замер
+        long warmupEnd = System.nanoTime() + (long) (seconds * 0.5e9);
+        while (System.nanoTime() < warmupEnd) serializer.write(page, sink);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long started = System.nanoTime();
+        long end = started + (long) (seconds * 1e9);
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 16; i++) serializer.write(page, sink);
+            ops += 16;
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf(Locale.ROOT, "%-8s %6d %14.0f %10.1f %16d%n", name, page.size(), ops / elapsed,
+                ops * (double) pageBytes / elapsed / (1 << 20), allocated / ops);
+    }
+
+    private static byte[] bytes(Serializer serializer, List<Route> page) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(page, out);
+        return out.toByteArray();
+    }
+
+    // похожие на реальные строки: кириллица в названиях, дробные координаты, дата с микросекундами
+    private static List<Route> routes(int n) {
+        Random rnd = new Random(n);
+        ZonedDateTime base = ZonedDateTime.of(2026, 10, 19, 12, 0, 0, 0, ZoneId.of("Etc/UTC"));
+        List<Route> routes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Route r = new Route("Маршрут " + i, new Coordinates(rnd.nextInt(2000) - 1000 + rnd.nextInt(100) / 100.0,
+                    rnd.nextInt(500)), new Location(rnd.nextInt(1000), rnd.nextInt(1000), "Склад " + rnd.nextInt(50)),
+                    rnd.nextBoolean() ? new Location(rnd.nextInt(1000), null, "Hub " + rnd.nextInt(50)) : null,
+                    2 + rnd.nextInt(10_000), 1L + rnd.nextInt(100));
+            r.setId(1L + rnd.nextInt(1_000_000));
+            r.setCreationDate(base.minusNanos(rnd.nextInt(1_000_000_000) * 1000L));
+            routes.add(r);
+        }
+        return routes;
+    }
+}
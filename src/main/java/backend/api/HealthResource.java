@@ -0,0 +1,109 @@
+package backend.api;
+
+import backend.config.AppSettings;
+import backend.repository.ReplicaRouter;
+import backend.repository.RouteRepository;
+import backend.repository.TrackedDataSource;
+import backend.service.StartupWarmup;
+import backend.websocket.RouteWebSocket;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Пробы для балансировщика: live — процесс жив и отвечает, ready — прогрев закончен, БД доступна
+ * и пул не исчерпан. Пока ready отвечает 503, трафик на узел не идёт.
+ */
+@Path("/health")
+@Produces(MediaType.APPLICATION_JSON)
+public class HealthResource {
+
+    private static final String UP = "UP";
+    private static final String DOWN = "DOWN";
+
+    @Inject
+    private StartupWarmup warmup;
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private ReplicaRouter replicaRouter;
+
+    @Inject
+    private AppSettings settings;
+
+    @GET
+    @Path("/live")
+    public Response live() {
+        return noCache(Response.ok(Json.createObjectBuilder().add("status", UP).build())).build();
+    }
+
+    @GET
+    @Path("/ready")
+    public Response ready() {
+        boolean ready = true;
+        JsonObjectBuilder checks = Json.createObjectBuilder();
+
+        JsonObjectBuilder warm = Json.createObjectBuilder()
+                .add("status", warmup.isReady() ? UP : DOWN)
+                .add("phase", warmup.getPhase().name().toLowerCase())
+                .add("millis", warmup.getWarmupMillis());
+        if (warmup.getFailure() != null) warm.add("error", warmup.getFailure());
+        checks.add("warmup", warm);
+        ready &= warmup.isReady();
+
+        // до конца прогрева в БД не ходим: первый getDataSource() держит монитор, проба бы на нём повисла
+        if (warmup.isReady()) {
+            long started = System.nanoTime();
+            String error = routeRepository.ping(settings.getInt("routes.health.db-timeout-seconds", 2));
+            long latency = (System.nanoTime() - started) / 1_000_000;
+            JsonObjectBuilder db = Json.createObjectBuilder()
+                    .add("status", error == null ? UP : DOWN)
+                    .add("latencyMs", latency);
+            if (error != null) db.add("error", error);
+            checks.add("db", db);
+            ready &= error == null;
+
+            TrackedDataSource pool = routeRepository.getPrimaryPool();
+            if (pool != null) {
+                int size = settings.getInt("routes.metrics.primary-pool-size", 0);
+                boolean saturated = size > 0 && pool.getInUse() >= size;
+                checks.add("pool", Json.createObjectBuilder()
+                        .add("status", saturated ? DOWN : UP)
+                        .add("inUse", pool.getInUse())
+                        .add("size", size)
+                        .add("failed", pool.getFailed()));
+                ready &= !saturated;
+            }
+        }
+
+        if (replicaRouter.getReplicaPool() != null) {
+            // без реплики чтение идёт с основной БД, узел от этого не становится неготовым
+            checks.add("replica", Json.createObjectBuilder()
+                    .add("status", replicaRouter.isUsable() ? UP : DOWN)
+                    .add("lagMs", replicaRouter.getReplicaLagMs()));
+        }
+        checks.add("websocket", Json.createObjectBuilder()
+                .add("status", UP)
+                .add("sessions", RouteWebSocket.getSessionCount()));
+
+        return noCache(Response.status(ready ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+                .entity(Json.createObjectBuilder()
+                        .add("status", ready ? UP : DOWN)
+                        .add("checks", checks)
+                        .build())).build();
+    }
+
+    private static Response.ResponseBuilder noCache(Response.ResponseBuilder builder) {
+        CacheControl cc = new CacheControl();
+        cc.setNoStore(true);
+        return builder.cacheControl(cc);
+    }
+}
@@ -0,0 +1,132 @@
+package backend.api;
+
+import backend.api.dto.JobRequest;
+import backend.jobs.Job;
+import backend.jobs.JobManager;
+import backend.jobs.RouteJobs;
+import jakarta.inject.Inject;
+import jakarta.validation.Valid;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriInfo;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Фоновые задачи: POST ставит задачу и сразу отвечает 202 с её id, состояние — GET /jobs/{id},
+ * результат (JSON-массив) — GET /jobs/{id}/result, отмена — DELETE /jobs/{id}.
+ * Задачи живут в памяти узла, который их принял.
+ */
+@Path("/jobs")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class JobResource {
+
+    @Inject
+    private JobManager jobManager;
+
+    @Inject
+    private RouteJobs routeJobs;
+
+    @POST
+    public Response submit(@Context UriInfo uriInfo, @Valid JobRequest request) {
+        try {
+            Job.Priority priority = request.getPriority() == null
+                    ? Job.Priority.NORMAL
+                    : Job.Priority.valueOf(request.getPriority().toUpperCase(Locale.ROOT));
+            Job job;
+            switch (request.getType()) {
+                case RouteJobs.EXPORT:
+                    job = routeJobs.export(priority);
+                    break;
+                case RouteJobs.BETWEEN:
+                    if (request.getFrom() == null || request.getTo() == null) {
+                        return badRequest("between requires from and to");
+                    }
+                    job = routeJobs.between(request.getFrom(), request.getTo(), priority);
+                    break;
+                case RouteJobs.REASSIGN:
+                    if (request.getLocation() == null || request.getReplacement() == null) {
+                        return badRequest("reassign requires location and replacement");
+                    }
+                    job = routeJobs.reassign(request.getLocation(), request.getReplacement(), priority);
+                    break;
+                default:
+                    return badRequest("Unknown job type: " + request.getType());
+            }
+            return Response.accepted(job)
+                    .location(uriInfo.getAbsolutePathBuilder().path(job.getId()).build())
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return badRequest("priority must be one of high, normal, low");
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", 5)
+                    .entity(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error submitting job: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    @GET
+    public Response list() {
+        return Response.ok(jobManager.list()).build();
+    }
+
+    @GET
+    @Path("/{id}")
+    public Response get(@PathParam("id") String id) {
+        Optional<Job> job = jobManager.get(id);
+        if (job.isEmpty()) return notFound(id);
+        return Response.ok(job.get()).build();
+    }
+
+    @GET
+    @Path("/{id}/result")
+    public Response result(@PathParam("id") String id) {
+        Optional<Job> job = jobManager.get(id);
+        if (job.isEmpty()) return notFound(id);
+        Optional<File> file = jobManager.result(job.get());
+        if (file.isEmpty()) {
+            return Response.status(Response.Status.CONFLICT)
+                    .entity("Job " + id + " has no result, state: " + job.get().getState().name().toLowerCase())
+                    .build();
+        }
+        return Response.ok(file.get(), MediaType.APPLICATION_JSON)
+                .header("X-Result-Count", job.get().getResultCount())
+                .build();
+    }
+
+    @DELETE
+    @Path("/{id}")
+    public Response cancel(@PathParam("id") String id) {
+        Optional<Job> job = jobManager.get(id);
+        if (job.isEmpty()) return notFound(id);
+        try {
+            if (!jobManager.cancel(id)) {
+                return Response.status(Response.Status.CONFLICT)
+                        .entity("Job " + id + " is already finished")
+                        .build();
+            }
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT).entity(e.getMessage()).build();
+        }
+        return Response.accepted(job.get()).build();
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(message).build();
+    }
+
+    private static Response notFound(String id) {
+        return Response.status(Response.Status.NOT_FOUND).entity("Job " + id + " not found").build();
+    }
+}
@@ -0,0 +1,60 @@
+package backend.api;
+
+import backend.api.dto.ReassignLocationRequest;
+import backend.entities.Location;
+import backend.service.RouteService;
+import jakarta.inject.Inject;
+import jakarta.validation.Valid;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.List;
+
+@Path("/locations")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class LocationResource {
+
+    @Inject
+    private RouteService routeService;
+
+    @GET
+    @Path("/nearest")
+    public Response findNearestLocations(
+            @QueryParam("x") double x,
+            @QueryParam("y") double y,
+            @QueryParam("k") @DefaultValue("10") int k) {
+        try {
+            List<Location> locations = routeService.findNearestLocations(x, y, Math.min(Math.max(k, 1), 1000));
+            return Response.ok(locations).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error finding nearest locations: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Удалить локацию location, перепривязав все ссылающиеся на неё маршруты на replacement.
+     * Возвращает id изменённых маршрутов.
+     */
+    @POST
+    @Path("/reassign")
+    public Response reassignLocation(@Valid ReassignLocationRequest request) {
+        try {
+            List<Long> affected = routeService.reassignLocation(request.getLocation(), request.getReplacement());
+            return Response.ok(affected)
+                    .header("X-Affected-Count", affected.size())
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error reassigning location: " + e.getMessage())
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package backend.api;
+
+import backend.config.AppSettings;
+import backend.filter.AdmissionControlFilter;
+import backend.repository.QueryContext;
+import backend.repository.ReplicaRouter;
+import backend.repository.RouteRepository;
+import backend.repository.TrackedDataSource;
+import backend.service.RouteCountTracker;
+import backend.service.SingleFlight;
+import backend.websocket.RouteWebSocket;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Снимок внутренних счётчиков для нагрузочных прогонов (perf/LoadHarness.java опрашивает его раз в секунду):
+ * занятость пулов соединений, запросы в обработке по классам, отказы контроля входа, объединённые чтения,
+ * прерванные по таймауту и отменённые запросы к БД, WebSocket-сессии.
+ */
+@Path("/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+public class MetricsResource {
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private ReplicaRouter replicaRouter;
+
+    @Inject
+    private RouteCountTracker countTracker;
+
+    @Inject
+    private SingleFlight singleFlight;
+
+    @Inject
+    private AppSettings settings;
+
+    @GET
+    public Response getMetrics() {
+        try {
+            JsonObjectBuilder db = Json.createObjectBuilder();
+            TrackedDataSource primary = routeRepository.getPrimaryPool();
+            if (primary != null) {
+                db.add("primary", pool(primary, settings.getInt("routes.metrics.primary-pool-size", 0)));
+            }
+            TrackedDataSource replica = replicaRouter.getReplicaPool();
+            if (replica != null) {
+                db.add("replica", pool(replica, settings.getInt("routes.metrics.replica-pool-size", 0))
+                        .add("usable", replicaRouter.isUsable())
+                        .add("lagMs", replicaRouter.getReplicaLagMs()));
+            }
+
+            JsonObjectBuilder inFlight = Json.createObjectBuilder();
+            for (AdmissionControlFilter.EndpointClass c : AdmissionControlFilter.EndpointClass.values()) {
+                inFlight.add(c.name().toLowerCase(), AdmissionControlFilter.getInFlight(c));
+            }
+
+            return Response.ok(Json.createObjectBuilder()
+                    .add("timestamp", System.currentTimeMillis())
+                    .add("db", db)
+                    .add("admission", Json.createObjectBuilder()
+                            .add("inFlight", inFlight)
+                            .add("rejectedByRate", AdmissionControlFilter.getRejectedByRate())
+                            .add("rejectedByConcurrency", AdmissionControlFilter.getRejectedByConcurrency()))
+                    .add("singleFlight", Json.createObjectBuilder()
+                            .add("executed", singleFlight.getExecuted())
+                            .add("coalesced", singleFlight.getCoalesced())
+                            .add("timedOut", singleFlight.getTimedOut())
+                            .add("bypassed", singleFlight.getBypassed())
+                            .add("inFlight", singleFlight.getInFlight()))
+                    .add("queries", Json.createObjectBuilder()
+                            .add("timedOut", QueryContext.getTimedOut())
+                            .add("cancelled", QueryContext.getCancelled()))
+                    .add("websocket", Json.createObjectBuilder()
+                            .add("sessions", RouteWebSocket.getSessionCount()))
+                    .add("routes", Json.createObjectBuilder()
+                            .add("total", countTracker.getTotal()))
+                    .build()).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error collecting metrics: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    private static JsonObjectBuilder pool(TrackedDataSource pool, int size) {
+        return Json.createObjectBuilder()
+                .add("inUse", pool.getInUse())
+                .add("peakInUse", pool.takePeakInUse())
+                .add("size", size)
+                .add("acquired", pool.getAcquired())
+                .add("failed", pool.getFailed())
+                .add("avgAcquireMs", pool.getAverageAcquireMs())
+                .add("maxAcquireMs", pool.getMaxAcquireMs());
+    }
+}
@@ -0,0 +1,340 @@
+package backend.api;
+
+import backend.entities.Coordinates;
+import backend.entities.Location;
+import backend.entities.Route;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Сериализация Route в JSON без рефлексии: байты UTF-8 пишутся в свой буфер и сбрасываются в поток
+ * кусками по BUFFER_SIZE. Результат совпадает побайтно с JSON-B (Yasson) по умолчанию: поля по алфавиту,
+ * null-поля пропускаются, дата — ISO_ZONED_DATE_TIME, числа — как Double/Float.toString.
+ * Имена полей закодированы заранее; целые, дата и целые значения координат пишутся без выделения памяти.
+ * <p>
+ * Не потокобезопасен; поток не закрывает.
+ */
+public final class RouteJsonEncoder {
+
+    static final int BUFFER_SIZE = 8192;
+
+    // запас под самую длинную запись без проверки места — дату без зоны (до 41 байта)
+    private static final int SLACK = 64;
+
+    private static final byte[] COORDINATES = ascii("{\"coordinates\":{\"x\":");
+    private static final byte[] COORDINATES_Y = ascii(",\"y\":");
+    private static final byte[] CREATION_DATE = ascii("\"creationDate\":\"");
+    private static final byte[] DISTANCE = ascii("\"distance\":");
+    private static final byte[] FROM = ascii(",\"from\":");
+    private static final byte[] ID = ascii(",\"id\":");
+    private static final byte[] NAME = ascii(",\"name\":");
+    private static final byte[] RATING = ascii(",\"rating\":");
+    private static final byte[] TO = ascii(",\"to\":");
+    private static final byte[] LOCATION_NAME = ascii("{\"name\":");
+    private static final byte[] LOCATION_X = ascii("\"x\":");
+    private static final byte[] LOCATION_Y = ascii(",\"y\":");
+    private static final byte[] MIN_LONG = ascii(Long.toString(Long.MIN_VALUE));
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    // до 10^7 toString пишет целые double/float без экспоненты, как "n.0"
+    private static final double PLAIN_DOUBLE_LIMIT = 1e7;
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final int limit = BUFFER_SIZE - SLACK;
+    private int pos;
+
+    public RouteJsonEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * JSON-массив маршрутов; буфер уходит в поток по мере заполнения, а не после всего массива
+     */
+    public void writeRoutes(Iterable<? extends Route> routes) throws IOException {
+        writeByte('[');
+        boolean first = true;
+        for (Route route : routes) {
+            if (!first) writeByte(',');
+            writeRoute(route);
+            first = false;
+        }
+        writeByte(']');
+    }
+
+    public void writeRoute(Route r) throws IOException {
+        if (r == null) {
+            writeAscii("null");
+            return;
+        }
+        boolean comma;
+        Coordinates c = r.getCoordinates();
+        if (c != null) {
+            writeBytes(COORDINATES);
+            writeDouble(c.getX());
+            writeBytes(COORDINATES_Y);
+            writeFloat(c.getY());
+            writeByte('}');
+            comma = true;
+        } else {
+            writeByte('{');
+            comma = false;
+        }
+        ZonedDateTime created = r.getCreationDate();
+        if (created != null) {
+            if (comma) writeByte(',');
+            writeBytes(CREATION_DATE);
+            writeDateTime(created);
+            writeByte('"');
+        }
+        if (comma || created != null) writeByte(',');
+        writeBytes(DISTANCE);
+        writeLong(r.getDistance());
+        if (r.getFrom() != null) {
+            writeBytes(FROM);
+            writeLocation(r.getFrom());
+        }
+        if (r.getId() != null) {
+            writeBytes(ID);
+            writeLong(r.getId());
+        }
+        if (r.getName() != null) {
+            writeBytes(NAME);
+            writeString(r.getName());
+        }
+        if (r.getRating() != null) {
+            writeBytes(RATING);
+            writeLong(r.getRating());
+        }
+        if (r.getTo() != null) {
+            writeBytes(TO);
+            writeLocation(r.getTo());
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Служебные символы между значениями (запятая, скобки массива)
+     */
+    public void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) writeByte(s.charAt(i));
+    }
+
+    /**
+     * Отдать буферизованные байты в поток (без flush самого потока)
+     */
+    public void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private void writeLocation(Location l) throws IOException {
+        if (l.getName() != null) {
+            writeBytes(LOCATION_NAME);
+            writeString(l.getName());
+            writeByte(',');
+        } else {
+            writeByte('{');
+        }
+        writeBytes(LOCATION_X);
+        writeLong(l.getX());
+        if (l.getY() != null) {
+            writeBytes(LOCATION_Y);
+            writeLong(l.getY());
+        }
+        writeByte('}');
+    }
+
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            if (pos > limit) flush();
+            char ch = s.charAt(i);
+            if (ch >= 0x20 && ch < 0x80 && ch != '"' && ch != '\\') {
+                buf[pos++] = (byte) ch;
+            } else if (ch < 0x20 || ch == '"' || ch == '\\') {
+                writeEscaped(ch);
+            } else if (ch < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (ch >> 6));
+                buf[pos++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(ch, s.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                // одиночная половина пары — как String.getBytes(UTF_8)
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (ch >> 12));
+                buf[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    // как JsonGenerator из Parsson: короткие escape-последовательности, остальное \\u00xx
+    private void writeEscaped(char ch) {
+        buf[pos++] = '\\';
+        switch (ch) {
+            case '"':
+            case '\\':
+                buf[pos++] = (byte) ch;
+                break;
+            case '\b':
+                buf[pos++] = 'b';
+                break;
+            case '\f':
+                buf[pos++] = 'f';
+                break;
+            case '\n':
+                buf[pos++] = 'n';
+                break;
+            case '\r':
+                buf[pos++] = 'r';
+                break;
+            case '\t':
+                buf[pos++] = 't';
+                break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = '0';
+                buf[pos++] = '0';
+                buf[pos++] = HEX[ch >> 4];
+                buf[pos++] = HEX[ch & 0xf];
+        }
+    }
+
+    private void writeLong(long v) throws IOException {
+        if (pos > limit) flush();
+        if (v == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        pos = end;
+    }
+
+    private void writeDouble(double v) throws IOException {
+        if (v == (long) v && Math.abs(v) < PLAIN_DOUBLE_LIMIT && Double.doubleToRawLongBits(v) != Long.MIN_VALUE) {
+            writeLong((long) v);
+            writeAscii(".0");
+        } else {
+            writeAscii(Double.toString(v));
+        }
+    }
+
+    // JSON-B пишет float через new BigDecimal(Float.toString(v)), отсюда 1.0E+10 вместо 1.0E10 и 0.0 вместо -0.0
+    private void writeFloat(float v) throws IOException {
+        if (v == (long) v && Math.abs(v) < PLAIN_DOUBLE_LIMIT) {
+            writeLong((long) v);
+            writeAscii(".0");
+            return;
+        }
+        String s = Float.toString(v);
+        writeAscii(Float.isFinite(v) && s.indexOf('E') >= 0 ? new BigDecimal(s).toString() : s);
+    }
+
+    /**
+     * DateTimeFormatter.ISO_ZONED_DATE_TIME для годов 0..9999: секунды всегда, дробная часть без
+     * хвостовых нулей, смещение Z или ±hh:mm[:ss], регион в скобках, если зона не смещение
+     */
+    private void writeDateTime(ZonedDateTime t) throws IOException {
+        int year = t.getYear();
+        if (year < 0 || year > 9999) {
+            writeAscii(DateTimeFormatter.ISO_ZONED_DATE_TIME.format(t));
+            return;
+        }
+        if (pos > limit) flush();
+        put4(year);
+        buf[pos++] = '-';
+        put2(t.getMonthValue());
+        buf[pos++] = '-';
+        put2(t.getDayOfMonth());
+        buf[pos++] = 'T';
+        put2(t.getHour());
+        buf[pos++] = ':';
+        put2(t.getMinute());
+        buf[pos++] = ':';
+        put2(t.getSecond());
+        int nano = t.getNano();
+        if (nano != 0) {
+            buf[pos++] = '.';
+            int digits = 9;
+            while (nano % 10 == 0) {
+                nano /= 10;
+                digits--;
+            }
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                buf[i] = (byte) ('0' + nano % 10);
+                nano /= 10;
+            }
+            pos += digits;
+        }
+        int offset = t.getOffset().getTotalSeconds();
+        if (offset == 0) {
+            buf[pos++] = 'Z';
+        } else {
+            buf[pos++] = (byte) (offset < 0 ? '-' : '+');
+            int abs = Math.abs(offset);
+            put2(abs / 3600);
+            buf[pos++] = ':';
+            put2(abs / 60 % 60);
+            if (abs % 60 != 0) {
+                buf[pos++] = ':';
+                put2(abs % 60);
+            }
+        }
+        if (!(t.getZone() instanceof ZoneOffset)) {
+            buf[pos++] = '[';
+            writeAscii(t.getZone().getId());
+            writeByte(']');
+        }
+    }
+
+    private void put2(int v) {
+        buf[pos++] = (byte) ('0' + v / 10);
+        buf[pos++] = (byte) ('0' + v % 10);
+    }
+
+    private void put4(int v) {
+        put2(v / 100);
+        put2(v % 100);
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (pos == buf.length) flush();
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (pos + bytes.length > buf.length) flush();
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
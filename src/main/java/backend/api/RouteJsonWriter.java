@@ -0,0 +1,59 @@
+package backend.api;
+
+import backend.entities.Route;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+
+/**
+ * JSON для Route и коллекций Route через RouteJsonEncoder вместо JSON-B контейнера.
+ * Коллекция распознаётся по generic-типу, поэтому ресурсы отдают списки как GenericEntity&lt;List&lt;Route&gt;&gt;;
+ * прочие сущности по-прежнему сериализует JSON-B.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class RouteJsonWriter implements MessageBodyWriter<Object> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        if (Route.class.isAssignableFrom(type)) return true;
+        return Collection.class.isAssignableFrom(type) && isRouteCollection(genericType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+        RouteJsonEncoder encoder = new RouteJsonEncoder(entityStream);
+        if (entity instanceof Route) {
+            encoder.writeRoute((Route) entity);
+        } else {
+            encoder.writeRoutes((Collection<? extends Route>) entity);
+        }
+        encoder.flush();
+    }
+
+    private static boolean isRouteCollection(Type genericType) {
+        if (!(genericType instanceof ParameterizedType)) return false;
+        Type[] args = ((ParameterizedType) genericType).getActualTypeArguments();
+        if (args.length != 1) return false;
+        Type element = args[0];
+        if (element instanceof WildcardType) {
+            Type[] upper = ((WildcardType) element).getUpperBounds();
+            element = upper.length == 1 ? upper[0] : null;
+        }
+        return element instanceof Class && Route.class.isAssignableFrom((Class<?>) element);
+    }
+}
@@ -1,42 +1,156 @@
 package backend.api;
 
 import backend.api.dto.CreateRouteRequest;
+import backend.config.AppSettings;
 import backend.entities.Route;
+import backend.repository.ChangeLogEntry;
+import backend.repository.QueryContext;
+import backend.repository.ReplicaRouter;
+import backend.service.RouteAlternatives;
+import backend.service.RouteAnalyticsReport;
+import backend.service.RouteCountTracker;
+import backend.service.RouteDataVersion;
+import backend.service.RouteGraph;
 import backend.service.RouteService;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.inject.Inject;
+import jakarta.json.JsonObject;
+import jakarta.validation.ConstraintViolationException;
 import jakarta.validation.Valid;
+import jakarta.validation.ValidationException;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.ConnectionCallback;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.GenericEntity;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
 import jakarta.ws.rs.core.Context;
 
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Path("/routes")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class RouteResource {
 
+    public static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+
+    // клиент может хранить ответ, но обязан перепроверять его по ETag
+    private static final CacheControl REVALIDATE = revalidate();
+
+    // предел для GET /routes?ids=: длина URL и размер массива в одном запросе к БД
+    private static final int MAX_IDS = 1000;
+
     @Inject
     private RouteService routeService;
 
+    @Inject
+    private AppSettings settings;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    /**
+     * Страница маршрутов или, с ?ids=1,2,3, маршруты по списку id одним запросом (см. getRoutesByIds)
+     */
     @GET
-    public Response getAllRoutes(
+    public void getAllRoutes(
+            @Suspended AsyncResponse async,
+            @Context Request request,
             @QueryParam("page") @DefaultValue("0") int page,
-            @QueryParam("size") @DefaultValue("10") int size) {
+            @QueryParam("size") @DefaultValue("10") int size,
+            @QueryParam("createdFrom") String createdFrom,
+            @QueryParam("createdTo") String createdTo,
+            @QueryParam("ids") String ids) {
+        if (ids != null) {
+            runQuery(async, "ids", () -> getRoutesByIds(request, ids));
+        } else {
+            runQuery(async, "all", () -> getRoutes(request, page, size, createdFrom, createdTo));
+        }
+    }
+
+    private Response getRoutes(Request request, int page, int size, String createdFrom, String createdTo) {
         try {
-            List<Route> routes = routeService.getRoutes(page, size);
-            long totalCount = routeService.getTotalRoutesCount();
+            ZonedDateTime from = parseDateTime(createdFrom);
+            ZonedDateTime to = parseDateTime(createdTo);
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
+            List<Route> routes = routeService.getRoutes(page, size, from, to);
+            boolean filtered = from != null || to != null;
+            long totalCount = routeService.countRoutesCreatedBetween(from, to);
             
-            return Response.ok()
+            return versioned(Response.ok(), stamp)
                     .header("X-Total-Count", totalCount)
+                    .header("X-Total-Count-Mode", filtered ? RouteCountTracker.Mode.EXACT.headerValue()
+                            : routeService.getTotalRoutesCountMode().headerValue())
                     .header("X-Page", page)
                     .header("X-Size", size)
-                    .entity(routes)
+                    .entity(routeList(routes))
+                    .build();
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("createdFrom/createdTo must be ISO-8601 date-times, e.g. 2024-01-31T10:15:30Z")
                     .build();
         } catch (Exception e) {
+            if (QueryContext.isCancelledQuery(e)) return queryTimedOut(e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error retrieving routes: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Маршруты в порядке перечисления id, повторы убираются; ненайденные id — в заголовке X-Missing-Ids.
+     * Для обновления строк по уведомлениям вместо отдельного GET /routes/{id} на каждую.
+     */
+    private Response getRoutesByIds(Request request, String ids) {
+        List<Long> idList = new ArrayList<>();
+        try {
+            for (String part : ids.split(",")) {
+                if (!part.isBlank()) idList.add(Long.parseLong(part.trim()));
+            }
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("ids must be a comma-separated list of route ids")
+                    .build();
+        }
+        if (idList.isEmpty() || idList.size() > MAX_IDS) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("ids must contain from 1 to " + MAX_IDS + " route ids")
+                    .build();
+        }
+        try {
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
+            List<Route> routes = routeService.getRoutesByIds(idList);
+            Set<Long> foundIds = routes.stream().map(Route::getId).collect(Collectors.toSet());
+            String missing = idList.stream().distinct().filter(id -> !foundIds.contains(id))
+                    .map(String::valueOf).collect(Collectors.joining(","));
+            Response.ResponseBuilder builder = versioned(Response.ok(routeList(routes)), stamp);
+            if (!missing.isEmpty()) builder.header("X-Missing-Ids", missing);
+            return builder.build();
+        } catch (Exception e) {
+            if (QueryContext.isCancelledQuery(e)) return queryTimedOut(e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity("Error retrieving routes: " + e.getMessage())
                     .build();
@@ -108,6 +222,44 @@ public class RouteResource {
         }
     }
 
+    /**
+     * Частичное обновление (JSON Merge Patch, RFC 7396): переданные поля заменяются, null удаляет значение,
+     * вложенные объекты сливаются. Пример: {"rating": 5, "to": null, "from": {"name": "A"}}
+     */
+    @PATCH
+    @Path("/{id}")
+    @Consumes({MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Response patchRoute(@PathParam("id") Long id, JsonObject patch) {
+        try {
+            if (patch == null) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Patch body must be a JSON object")
+                        .build();
+            }
+            Route patchedRoute = routeService.patchRoute(id, patch);
+            return Response.ok(patchedRoute).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(e.getMessage())
+                    .build();
+        } catch (ConstraintViolationException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getConstraintViolations().stream()
+                            .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                            .sorted()
+                            .collect(Collectors.joining("; ")))
+                    .build();
+        } catch (ValidationException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Error patching route: " + e.getMessage())
+                    .build();
+        }
+    }
+
     @DELETE
     @Path("/{id}")
     public Response deleteRoute(@PathParam("id") Long id) {
@@ -121,13 +273,138 @@ public class RouteResource {
         }
     }
 
+    @GET
+    @Path("/within")
+    public Response findRoutesWithin(
+            @QueryParam("minX") double minX,
+            @QueryParam("minY") double minY,
+            @QueryParam("maxX") double maxX,
+            @QueryParam("maxY") double maxY,
+            @QueryParam("limit") @DefaultValue("1000") int limit) {
+        try {
+            if (minX > maxX || minY > maxY) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("minX/minY must not exceed maxX/maxY")
+                        .build();
+            }
+            List<Route> routes = routeService.findRoutesWithin(minX, minY, maxX, maxY, Math.min(Math.max(limit, 1), 10000));
+            return Response.ok(routeList(routes)).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error finding routes within box: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    @GET
+    @Path("/nearest")
+    public Response findNearestRoutes(
+            @QueryParam("x") double x,
+            @QueryParam("y") double y,
+            @QueryParam("k") @DefaultValue("10") int k) {
+        try {
+            List<Route> routes = routeService.findNearestRoutes(x, y, Math.min(Math.max(k, 1), 1000));
+            return Response.ok(routeList(routes)).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error finding nearest routes: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    @GET
+    @Path("/recent")
+    public Response getRecentRoutes(@Context Request request, @QueryParam("limit") @DefaultValue("20") int limit) {
+        try {
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
+            List<Route> routes = routeService.getRecentRoutes(Math.min(Math.max(limit, 1), 1000));
+            return versioned(Response.ok(routeList(routes)), stamp).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error retrieving recent routes: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    @GET
+    @Path("/analytics")
+    public Response getAnalytics(
+            @Context Request request,
+            @QueryParam("bucket") @DefaultValue("100") int bucket,
+            @QueryParam("top") @DefaultValue("10") int top) {
+        try {
+            if (bucket <= 0) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Bucket width must be positive")
+                        .build();
+            }
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
+            RouteAnalyticsReport report = routeService.getAnalytics(bucket, Math.min(Math.max(top, 1), 100));
+            return versioned(Response.ok(report), stamp).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error computing analytics: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    @GET
+    @Path("/changes")
+    public Response getChanges(
+            @QueryParam("since") @DefaultValue("0") long since,
+            @QueryParam("limit") @DefaultValue("500") int limit) {
+        try {
+            Optional<List<ChangeLogEntry>> changes = routeService.getChangesSince(since, Math.min(Math.max(limit, 1), 5000));
+            if (changes.isEmpty()) {
+                return Response.status(Response.Status.GONE)
+                        .entity("Changes since " + since + " are no longer available, reload the data")
+                        .build();
+            }
+            List<ChangeLogEntry> list = changes.get();
+            long lastSeq = list.isEmpty() ? since : list.get(list.size() - 1).getSeq();
+            return Response.ok(list)
+                    .header("X-Last-Seq", lastSeq)
+                    .build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error retrieving changes: " + e.getMessage())
+                    .build();
+        }
+    }
+
     @GET
     @Path("/search")
-    public Response searchRoutes(@QueryParam("name") String name) {
+    public void searchRoutes(
+            @Suspended AsyncResponse async,
+            @Context Request request,
+            @QueryParam("name") String name,
+            @QueryParam("createdFrom") String createdFrom,
+            @QueryParam("createdTo") String createdTo) {
+        runQuery(async, "search", () -> searchRoutes(request, name, createdFrom, createdTo));
+    }
+
+    private Response searchRoutes(Request request, String name, String createdFrom, String createdTo) {
         try {
-            List<Route> routes = routeService.searchRoutesByName(name);
-            return Response.ok(routes).build();
+            ZonedDateTime from = parseDateTime(createdFrom);
+            ZonedDateTime to = parseDateTime(createdTo);
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
+            List<Route> routes = routeService.searchRoutesByName(name, from, to);
+            return versioned(Response.ok(routeList(routes)), stamp).build();
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("createdFrom/createdTo must be ISO-8601 date-times, e.g. 2024-01-31T10:15:30Z")
+                    .build();
         } catch (Exception e) {
+            if (QueryContext.isCancelledQuery(e)) return queryTimedOut(e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity("Error searching routes: " + e.getMessage())
                     .build();
@@ -157,10 +434,14 @@ public class RouteResource {
 
     @GET
     @Path("/count-by-rating")
-    public Response countRoutesByRating(@QueryParam("rating") Long rating) {
+    public Response countRoutesByRating(@Context Request request, @QueryParam("rating") Long rating) {
         try {
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
             long count = routeService.countRoutesByRatingGreaterThan(rating);
-            return Response.ok(count).build();
+            return versioned(Response.ok(count), stamp).build();
         } catch (Exception e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity("Error counting routes: " + e.getMessage())
@@ -170,10 +451,14 @@ public class RouteResource {
 
     @GET
     @Path("/distinct-ratings")
-    public Response getDistinctRatings() {
+    public Response getDistinctRatings(@Context Request request) {
         try {
+            RouteDataVersion.Stamp stamp = dataStamp();
+            Response.ResponseBuilder notModified = notModified(request, stamp);
+            if (notModified != null) return notModified.build();
+
             List<Long> ratings = routeService.getDistinctRatings();
-            return Response.ok(ratings).build();
+            return versioned(Response.ok(ratings), stamp).build();
         } catch (Exception e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity("Error getting distinct ratings: " + e.getMessage())
@@ -223,18 +508,159 @@ public class RouteResource {
         }
     }
 
+    /**
+     * До k путей из from в to, в том числе с пересадками в промежуточных локациях;
+     * by=distance — по сумме distance, by=rating — по сумме 1/rating
+     */
     @GET
-    @Path("/between")
-    public Response findRoutesBetweenLocations(
+    @Path("/alternatives")
+    public Response findAlternatives(
             @QueryParam("from") String fromLocation,
-            @QueryParam("to") String toLocation) {
+            @QueryParam("to") String toLocation,
+            @QueryParam("k") @DefaultValue("3") int k,
+            @QueryParam("by") @DefaultValue("distance") String by) {
+        if (fromLocation == null || fromLocation.isBlank() || toLocation == null || toLocation.isBlank()) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("from and to location names are required")
+                    .build();
+        }
+        RouteGraph.Weight weight;
         try {
-            List<Route> routes = routeService.findRoutesBetweenLocations(fromLocation, toLocation);
-            return Response.ok(routes).build();
+            weight = RouteGraph.Weight.valueOf(by.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("by must be distance or rating")
+                    .build();
+        }
+        try {
+            RouteAlternatives alternatives = routeService.findAlternatives(fromLocation, toLocation, Math.max(k, 1), weight);
+            return Response.ok(alternatives).build();
         } catch (Exception e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                    .entity("Error finding routes between locations: " + e.getMessage())
+                    .entity("Error finding alternative routes: " + e.getMessage())
                     .build();
         }
     }
+
+    @GET
+    @Path("/between")
+    public void findRoutesBetweenLocations(
+            @Suspended AsyncResponse async,
+            @QueryParam("from") String fromLocation,
+            @QueryParam("to") String toLocation) {
+        runQuery(async, "between", () -> {
+            try {
+                List<Route> routes = routeService.findRoutesBetweenLocations(fromLocation, toLocation);
+                return Response.ok(routeList(routes)).build();
+            } catch (Exception e) {
+                if (QueryContext.isCancelledQuery(e)) return queryTimedOut(e);
+                return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                        .entity("Error finding routes between locations: " + e.getMessage())
+                        .build();
+            }
+        });
+    }
+
+    /**
+     * Выполнить чтение в пуле потоков сервера с ограничениями routes.query.* для endpoint
+     * (routes.query.timeout-ms.<endpoint>, routes.query.deadline-ms.<endpoint>, иначе общие значения).
+     * Когда срок истёк или клиент отключился, выполняющиеся запросы к БД отменяются через Statement.cancel().
+     */
+    private void runQuery(AsyncResponse async, String endpoint, Supplier<Response> work) {
+        long statementTimeout = settings.getLong("routes.query.timeout-ms." + endpoint,
+                settings.getLong("routes.query.timeout-ms", 5000));
+        long deadline = settings.getLong("routes.query.deadline-ms." + endpoint,
+                settings.getLong("routes.query.deadline-ms", 15000));
+        QueryContext query = new QueryContext(endpoint, statementTimeout, deadline);
+        if (deadline > 0) {
+            async.setTimeout(deadline, TimeUnit.MILLISECONDS);
+            async.setTimeoutHandler(suspended -> {
+                query.expire();
+                suspended.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .entity("Request deadline of " + deadline + " ms exceeded")
+                        .build());
+            });
+        }
+        // отключение клиента сообщают не все реализации JAX-RS; без него запрос остановят таймауты
+        async.register((ConnectionCallback) disconnected -> query.cancel());
+
+        // закрепление за основной БД ставит фильтр в потоке запроса, а выполняться будет другой поток
+        boolean pinned = ReplicaRouter.isPinnedToPrimary();
+        try {
+            executor.execute(() -> {
+                if (async.isDone() || query.isCancelled()) return;
+                if (pinned) ReplicaRouter.pinToPrimary();
+                QueryContext.Scope scope = query.bind();
+                try {
+                    async.resume(work.get());
+                } catch (RuntimeException e) {
+                    async.resume(e);
+                } finally {
+                    scope.close();
+                    if (pinned) ReplicaRouter.unpin();
+                    ReplicaRouter.clearRequiredSeq();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            async.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .entity("Server is busy, try again later")
+                    .build());
+        }
+    }
+
+    private static Response queryTimedOut(Exception e) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("Query was cancelled or timed out: " + e.getMessage())
+                .build();
+    }
+
+    private static ZonedDateTime parseDateTime(String value) {
+        return value == null || value.isBlank() ? null : ZonedDateTime.parse(value.trim());
+    }
+
+    // generic-тип нужен RouteJsonWriter, чтобы узнать список маршрутов
+    private static GenericEntity<List<Route>> routeList(List<Route> routes) {
+        return new GenericEntity<List<Route>>(routes) {
+        };
+    }
+
+    /**
+     * Версия данных для ETag. Чтения с реплики в этом запросе должны быть не старше неё — иначе идут на основную БД.
+     */
+    private RouteDataVersion.Stamp dataStamp() {
+        RouteDataVersion.Stamp stamp = routeService.getDataStamp();
+        if (stamp != null) ReplicaRouter.requireSeq(stamp.getVersion());
+        return stamp;
+    }
+
+    /**
+     * 304, если у клиента ответ той же версии данных (If-None-Match / If-Modified-Since), иначе null.
+     * Проверяется до обращения к репозиторию.
+     */
+    private static Response.ResponseBuilder notModified(Request request, RouteDataVersion.Stamp stamp) {
+        if (stamp == null) return null;
+        Response.ResponseBuilder builder =
+                request.evaluatePreconditions(new Date(stamp.getLastModifiedMillis()), entityTag(stamp));
+        return builder == null ? null : versioned(builder, stamp);
+    }
+
+    private static Response.ResponseBuilder versioned(Response.ResponseBuilder builder, RouteDataVersion.Stamp stamp) {
+        if (stamp == null) return builder;
+        return builder.tag(entityTag(stamp))
+                .lastModified(new Date(stamp.getLastModifiedMillis()))
+                .cacheControl(REVALIDATE);
+    }
+
+    // ровно "Cache-Control: no-cache": у new CacheControl() по умолчанию ещё no-transform
+    private static CacheControl revalidate() {
+        CacheControl cc = new CacheControl();
+        cc.setNoCache(true);
+        cc.setNoTransform(false);
+        return cc;
+    }
+
+    // слабый: тело для той же версии может отличаться в мелочах (например, оценочный X-Total-Count)
+    private static EntityTag entityTag(RouteDataVersion.Stamp stamp) {
+        return new EntityTag("v" + stamp.getVersion(), true);
+    }
 }
@@ -0,0 +1,75 @@
+package backend.api.dto;
+
+import backend.entities.Location;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+
+/**
+ * DTO запроса на фоновую задачу. type: export — все маршруты; between — маршруты между from и to;
+ * reassign — удалить location с перепривязкой на replacement. priority: high, normal (по умолчанию) или low.
+ */
+public class JobRequest {
+
+    @NotBlank
+    private String type;
+
+    private String priority;
+
+    private String from;
+
+    private String to;
+
+    @Valid
+    private Location location;
+
+    @Valid
+    private Location replacement;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getPriority() {
+        return priority;
+    }
+
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+    public Location getReplacement() {
+        return replacement;
+    }
+
+    public void setReplacement(Location replacement) {
+        this.replacement = replacement;
+    }
+}
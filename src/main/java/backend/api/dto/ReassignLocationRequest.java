@@ -0,0 +1,35 @@
+package backend.api.dto;
+
+import backend.entities.Location;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * DTO запроса на удаление локации с перепривязкой связанных маршрутов на другую, выбранную пользователем.
+ */
+public class ReassignLocationRequest {
+
+    @NotNull
+    @Valid
+    private Location location;
+
+    @NotNull
+    @Valid
+    private Location replacement;
+
+    public Location getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+    public Location getReplacement() {
+        return replacement;
+    }
+
+    public void setReplacement(Location replacement) {
+        this.replacement = replacement;
+    }
+}
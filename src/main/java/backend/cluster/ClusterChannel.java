@@ -0,0 +1,62 @@
+package backend.cluster;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+
+import java.io.StringReader;
+import java.util.UUID;
+
+/**
+ * Канал Postgres LISTEN/NOTIFY, по которому узлы сообщают друг другу о новых записях журнала route_changes.
+ * Сообщение: {"node":"...","seq":N}; сами изменения узел-получатель читает из журнала.
+ */
+public final class ClusterChannel {
+
+    public static final String CHANNEL = "route_changes";
+
+    /**
+     * Идентификатор этого узла; по нему узел отбрасывает собственные изменения.
+     */
+    public static final String NODE_ID = UUID.randomUUID().toString();
+
+    private ClusterChannel() {}
+
+    public static final class Message {
+        private final String node;
+        private final long seq;
+
+        Message(String node, long seq) {
+            this.node = node;
+            this.seq = seq;
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public boolean isOwn() {
+            return NODE_ID.equals(node);
+        }
+    }
+
+    public static String encode(long seq) {
+        return Json.createObjectBuilder()
+                .add("node", NODE_ID)
+                .add("seq", seq)
+                .build()
+                .toString();
+    }
+
+    public static Message decode(String payload) {
+        JsonObject json;
+        try (JsonReader reader = Json.createReader(new StringReader(payload))) {
+            json = reader.readObject();
+        }
+        return new Message(json.getString("node", ""), json.getJsonNumber("seq").longValue());
+    }
+}
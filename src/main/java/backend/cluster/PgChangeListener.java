@@ -0,0 +1,183 @@
+package backend.cluster;
+
+import backend.config.AppSettings;
+import backend.repository.ChangeLogEntry;
+import backend.repository.RouteRepository;
+import backend.service.RouteChange;
+import backend.service.RouteChangeEvent;
+import backend.service.RouteCountTracker;
+import backend.service.RouteDataVersion;
+import backend.websocket.RouteWebSocket;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Держит отдельное соединение с LISTEN route_changes. По уведомлению дочитывает журнал изменений
+ * после последнего обработанного seq и пересылает изменения других узлов локальным подписчикам
+ * как RouteChangeEvent с remote = true; собственные изменения узла пропускаются.
+ * После обрыва соединения переподключается с экспоненциальной задержкой и дочитывает пропущенное из журнала.
+ */
+@ApplicationScoped
+public class PgChangeListener {
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private AppSettings settings;
+
+    @Inject
+    private RouteCountTracker countTracker;
+
+    @Inject
+    private RouteDataVersion dataVersion;
+
+    @Inject
+    private Event<RouteChangeEvent> routeChanged;
+
+    private volatile boolean running = false;
+    private volatile boolean connected = false;
+    // последний seq журнала, до которого изменения уже разосланы; -1 — ещё не прочитан
+    private volatile long lastSeq = -1;
+    private Thread thread;
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object ignored) {
+        if (!settings.getBoolean("routes.cluster.enabled", true)) return;
+        running = true;
+        thread = new Thread(this::listenLoop, "route-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    private void listenLoop() {
+        int pollMillis = settings.getInt("routes.cluster.poll-ms", 500);
+        long maxBackoff = settings.getLong("routes.cluster.max-reconnect-delay-ms", 30_000);
+        long backoff = 1000;
+        boolean hadOutage = false;
+        while (running) {
+            try (Connection conn = routeRepository.openListenConnection()) {
+                if (conn == null) {
+                    System.out.println("Route storage does not publish changes, listener stopped");
+                    running = false;
+                    break;
+                }
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + ClusterChannel.CHANNEL);
+                }
+                connected = true;
+                backoff = 1000;
+                System.out.println("Listening for route changes as node " + ClusterChannel.NODE_ID);
+                if (lastSeq < 0) lastSeq = routeRepository.changeSeqBounds()[1];
+                else if (hadOutage) catchUp();
+
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(pollMillis);
+                    if (notifications != null && notifications.length > 0) dispatch(notifications);
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (running) System.err.println("Route change listener failed: " + e.getMessage());
+            } finally {
+                if (connected) hadOutage = true;
+                connected = false;
+            }
+            if (!running) break;
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoff = Math.min(backoff * 2, maxBackoff);
+        }
+    }
+
+    private void dispatch(PGNotification[] notifications) {
+        long newest = 0;
+        boolean foreign = false;
+        for (PGNotification n : notifications) {
+            try {
+                ClusterChannel.Message message = ClusterChannel.decode(n.getParameter());
+                newest = Math.max(newest, message.getSeq());
+                foreign |= !message.isOwn();
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring malformed route change notification: " + e.getMessage());
+                foreign = true;
+            }
+        }
+        if (foreign) {
+            catchUp();
+        } else if (newest > lastSeq) {
+            // NOTIFY приходят в порядке коммитов, а seq выдаются под локом до коммита,
+            // поэтому все чужие изменения до newest уже обработаны — журнал читать незачем
+            lastSeq = newest;
+        }
+    }
+
+    /**
+     * Дочитать журнал после lastSeq. Если журнал уже компактирован дальше lastSeq,
+     * сверить счётчики и попросить клиентов перечитать данные.
+     */
+    private void catchUp() {
+        int batchSize = settings.getInt("routes.cluster.catch-up-batch", 1000);
+        long[] bounds = routeRepository.changeSeqBounds();
+        if (lastSeq < bounds[0] - 1) {
+            System.err.println("Route change log compacted past seq " + lastSeq + ", forcing resync");
+            lastSeq = bounds[1];
+            resync();
+            return;
+        }
+        while (true) {
+            List<ChangeLogEntry> entries = routeRepository.findChangesSince(lastSeq, batchSize);
+            if (entries.isEmpty()) return;
+            List<RouteChange> changes = new ArrayList<>(entries.size());
+            for (ChangeLogEntry entry : entries) {
+                if (!ClusterChannel.NODE_ID.equals(entry.getNodeId())) {
+                    changes.add(RouteChange.fromLog(entry, null));
+                }
+            }
+            lastSeq = entries.get(entries.size() - 1).getSeq();
+            if (!changes.isEmpty()) {
+                routeChanged.fire(new RouteChangeEvent(changes, true));
+            }
+            if (entries.size() < batchSize) return;
+        }
+    }
+
+    private void resync() {
+        // пропущенные изменения не известны поштучно, но закэшированные клиентами ответы всё равно устарели
+        dataVersion.advanceTo(lastSeq);
+        try {
+            countTracker.reconcile();
+        } catch (RuntimeException e) {
+            System.err.println("Route count reconciliation after listener outage failed: " + e.getMessage());
+        }
+        RouteWebSocket.broadcast("{\"type\":\"resync\"}");
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+}
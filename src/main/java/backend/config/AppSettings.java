@@ -0,0 +1,133 @@
+package backend.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Настройки приложения из routes.properties.
+ * Любой ключ можно переопределить системным свойством JVM (-Dключ=значение).
+ * Если задан routes.config.file, значения из этого файла накладываются поверх routes.properties
+ * и перечитываются при изменении файла (проверка mtime раз в routes.config.reload-seconds) без передеплоя.
+ * Подхватывают новые значения только те компоненты, что читают настройку на каждом запросе.
+ */
+@ApplicationScoped
+public class AppSettings {
+
+    private static final String RESOURCE = "routes.properties";
+    private static final String CONFIG_FILE = "routes.config.file";
+
+    private final Properties defaults = new Properties();
+
+    private volatile Properties properties = new Properties();
+
+    // увеличивается при каждой перезагрузке внешнего файла
+    private volatile long version = 0;
+
+    private Path configFile;
+    private long configFileMtime = Long.MIN_VALUE;
+    private ScheduledExecutorService reloader;
+
+    @PostConstruct
+    void load() {
+        try (InputStream in = AppSettings.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                defaults.load(in);
+            } else {
+                System.err.println(RESOURCE + " not found on classpath, using defaults");
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read " + RESOURCE + ": " + e.getMessage());
+        }
+        properties = defaults;
+
+        String file = System.getProperty(CONFIG_FILE, defaults.getProperty(CONFIG_FILE, "")).trim();
+        if (file.isEmpty()) return;
+        configFile = Paths.get(file);
+        reloadIfChanged();
+        long interval = Math.max(1, getLong("routes.config.reload-seconds", 5));
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "settings-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (reloader != null) reloader.shutdownNow();
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            long mtime = Files.exists(configFile) ? Files.getLastModifiedTime(configFile).toMillis() : -1;
+            if (mtime == configFileMtime) return;
+            Properties merged = new Properties();
+            merged.putAll(defaults);
+            if (mtime >= 0) {
+                try (InputStream in = Files.newInputStream(configFile)) {
+                    merged.load(in);
+                }
+            }
+            configFileMtime = mtime;
+            properties = merged;
+            version++;
+            System.out.println("Settings " + (mtime >= 0 ? "reloaded from " : "reset, file missing: ") + configFile);
+        } catch (IOException | RuntimeException e) {
+            // оставляем прежние значения, попробуем при следующей проверке
+            System.err.println("Failed to reload " + configFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Номер версии настроек: меняется после каждой перезагрузки внешнего файла.
+     * Удобно для кэширования разобранных значений.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid long for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,270 @@
+package backend.filter;
+
+import backend.config.AppSettings;
+import jakarta.inject.Inject;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Контроль входа для REST API: токен-бакет на клиента (по IP) и ограничение числа одновременно
+ * выполняющихся запросов для каждого класса эндпоинтов (чтение, тяжёлый поиск, запись).
+ * Превышение частоты — 429, перегрузка класса — 503, в обоих случаях с Retry-After.
+ * Бакет хранится в одном AtomicLong по схеме GCRA (время, когда бакет снова станет полным),
+ * поэтому проверка — один CAS без блокировок. Лимиты берутся из AppSettings и меняются без передеплоя.
+ */
+@WebFilter(urlPatterns = "/api/*", asyncSupported = true)
+public class AdmissionControlFilter implements Filter {
+
+    public enum EndpointClass {
+        READ, SEARCH, WRITE;
+
+        String key() {
+            return name().toLowerCase();
+        }
+    }
+
+    // запросы, которые идут в БД с сортировкой/поиском по подстроке или геометрии
+    private static final Set<String> SEARCH_PATHS = Set.of(
+            "/api/routes/search", "/api/routes/between", "/api/routes/shortest", "/api/routes/longest",
+            "/api/routes/within", "/api/routes/nearest", "/api/routes/analytics", "/api/routes/alternatives",
+            "/api/locations/nearest");
+
+    private static final String HEALTH_PREFIX = "/api/health/";
+
+    private static final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private static final AtomicInteger[] inFlight = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+    private static final AtomicLong rejectedByRate = new AtomicLong();
+    private static final AtomicLong rejectedByConcurrency = new AtomicLong();
+    private static final AtomicBoolean sweeping = new AtomicBoolean();
+
+    @Inject
+    private AppSettings settings;
+
+    private volatile Limits limits;
+
+    private static final class Limits {
+        final long version;
+        final boolean enabled;
+        // интервал между токенами и допустимый «запас» бакета, в наносекундах
+        final long intervalNanos;
+        final long burstNanos;
+        final int[] cost = new int[3];
+        final int[] maxConcurrent = new int[3];
+        final int maxClients;
+        final boolean trustForwardedFor;
+        final int busyRetryAfterSeconds;
+
+        Limits(AppSettings s) {
+            version = s.getVersion();
+            enabled = s.getBoolean("routes.admission.enabled", true);
+            double rate;
+            try {
+                rate = Math.max(0.001, Double.parseDouble(s.get("routes.admission.rate-per-second", "20")));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid routes.admission.rate-per-second, using 20");
+                rate = 20;
+            }
+            intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            burstNanos = intervalNanos * Math.max(1, s.getInt("routes.admission.burst", 40));
+            for (EndpointClass c : EndpointClass.values()) {
+                cost[c.ordinal()] = Math.max(0, s.getInt("routes.admission.cost." + c.key(), 1));
+                maxConcurrent[c.ordinal()] = s.getInt("routes.admission.max-concurrent." + c.key(), 0);
+            }
+            maxClients = s.getInt("routes.admission.max-clients", 10_000);
+            trustForwardedFor = s.getBoolean("routes.admission.trust-forwarded-for", false);
+            busyRetryAfterSeconds = Math.max(1, s.getInt("routes.admission.busy-retry-after-seconds", 1));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        Limits l = currentLimits();
+        if (!l.enabled || "OPTIONS".equalsIgnoreCase(httpRequest.getMethod()) || isHealthProbe(httpRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        EndpointClass endpointClass = classify(httpRequest);
+        long now = System.nanoTime();
+        long waitNanos = takeTokens(clientKey(httpRequest, l), l.intervalNanos * l.cost[endpointClass.ordinal()],
+                l.burstNanos, now);
+        if (waitNanos > 0) {
+            rejectedByRate.incrementAndGet();
+            reject(httpResponse, 429, seconds(waitNanos), "Too many requests, retry later");
+            return;
+        }
+        if (buckets.size() > l.maxClients) sweep(now);
+
+        AtomicInteger counter = inFlight[endpointClass.ordinal()];
+        int max = l.maxConcurrent[endpointClass.ordinal()];
+        if (!tryAcquire(counter, max)) {
+            rejectedByConcurrency.incrementAndGet();
+            reject(httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, l.busyRetryAfterSeconds,
+                    "Server is busy with " + endpointClass.key() + " requests, retry later");
+            return;
+        }
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new Release(counter));
+                async = true;
+            }
+        } finally {
+            if (!async) counter.decrementAndGet();
+        }
+    }
+
+    private Limits currentLimits() {
+        Limits l = limits;
+        if (l == null || l.version != settings.getVersion()) {
+            l = new Limits(settings);
+            limits = l;
+        }
+        return l;
+    }
+
+    // пробы балансировщика приходят с одного адреса и не должны ни тратить токены, ни получать 429
+    private static boolean isHealthProbe(HttpServletRequest request) {
+        return request.getRequestURI().startsWith(request.getContextPath() + HEALTH_PREFIX);
+    }
+
+    static EndpointClass classify(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+            return EndpointClass.WRITE;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        return SEARCH_PATHS.contains(path) ? EndpointClass.SEARCH : EndpointClass.READ;
+    }
+
+    private static String clientKey(HttpServletRequest request, Limits l) {
+        if (l.trustForwardedFor) {
+            String forwarded = request.getHeader("X-Forwarded-For");
+            if (forwarded != null && !forwarded.isBlank()) {
+                int comma = forwarded.indexOf(',');
+                return (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * GCRA: в бакете хранится момент, когда он снова станет полным (tat). Запрос стоимостью increment
+     * проходит, если после него tat опережает текущее время не больше чем на burst.
+     * Возвращает 0, если запрос пропущен, иначе — сколько наносекунд подождать.
+     */
+    private static long takeTokens(String client, long increment, long burstNanos, long now) {
+        if (increment <= 0) return 0;
+        AtomicLong bucket = buckets.computeIfAbsent(client, k -> new AtomicLong(now));
+        while (true) {
+            long stored = bucket.get();
+            long tat = stored - now > 0 ? stored : now;
+            long next = tat + increment;
+            long excess = next - now - burstNanos;
+            if (excess > 0) return excess;
+            if (bucket.compareAndSet(stored, next)) return 0;
+        }
+    }
+
+    // бакеты, которые уже полностью восполнились, эквивалентны отсутствующим — их можно выбросить
+    private static void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) return;
+        try {
+            buckets.values().removeIf(b -> b.get() - now <= 0);
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static boolean tryAcquire(AtomicInteger counter, int max) {
+        if (max <= 0) {
+            counter.incrementAndGet();
+            return true;
+        }
+        while (true) {
+            int current = counter.get();
+            if (current >= max) return false;
+            if (counter.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    private static long seconds(long nanos) {
+        return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static void reject(HttpServletResponse response, int status, long retryAfterSeconds, String message)
+            throws IOException {
+        // фильтры из аннотаций упорядочены произвольно, поэтому CORS-заголовки ставим сами
+        CORSFilter.applyHeaders(response);
+        response.setStatus(status);
+        response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write(message);
+    }
+
+    public static long getRejectedByRate() {
+        return rejectedByRate.get();
+    }
+
+    public static long getRejectedByConcurrency() {
+        return rejectedByConcurrency.get();
+    }
+
+    public static int getInFlight(EndpointClass endpointClass) {
+        return inFlight[endpointClass.ordinal()].get();
+    }
+
+    private static final class Release implements AsyncListener {
+        private final AtomicInteger counter;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Release(AtomicInteger counter) {
+            this.counter = counter;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) counter.decrementAndGet();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -6,7 +6,7 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
-@WebFilter("/*")
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
 public class CORSFilter implements Filter {
 
 	@Override
@@ -15,11 +15,7 @@ public class CORSFilter implements Filter {
 		HttpServletResponse httpResponse = (HttpServletResponse) response;
 		HttpServletRequest httpRequest = (HttpServletRequest) request;
 
-		httpResponse.setHeader("Access-Control-Allow-Origin", "*");
-		httpResponse.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, PATCH");
-		httpResponse.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, Content-Length, X-Requested-With, Origin, Accept");
-		httpResponse.setHeader("Access-Control-Allow-Credentials", "true");
-		httpResponse.setHeader("Access-Control-Max-Age", "3600");
+		applyHeaders(httpResponse);
 
 		if ("OPTIONS".equalsIgnoreCase(httpRequest.getMethod())) {
 			httpResponse.setStatus(HttpServletResponse.SC_OK);
@@ -29,6 +25,15 @@ public class CORSFilter implements Filter {
 		chain.doFilter(request, response);
 	}
 
+	static void applyHeaders(HttpServletResponse httpResponse) {
+		httpResponse.setHeader("Access-Control-Allow-Origin", "*");
+		httpResponse.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, PATCH");
+		httpResponse.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, Content-Length, X-Requested-With, Origin, Accept, If-None-Match, If-Modified-Since");
+		httpResponse.setHeader("Access-Control-Allow-Credentials", "true");
+		httpResponse.setHeader("Access-Control-Expose-Headers", "X-Total-Count, X-Total-Count-Mode, X-Page, X-Size, X-Last-Seq, X-Affected-Count, X-Missing-Ids, Retry-After, ETag, Last-Modified");
+		httpResponse.setHeader("Access-Control-Max-Age", "3600");
+	}
+
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {}
 
@@ -0,0 +1,75 @@
+package backend.filter;
+
+import backend.config.AppSettings;
+import backend.repository.ReplicaRouter;
+import jakarta.inject.Inject;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * Read-your-writes при чтении с реплики: запрос на изменение получает cookie со сроком
+ * routes.replica.read-your-writes-ms, и пока срок не истёк, все запросы этого клиента читают с основной БД.
+ * Сами запросы на изменение тоже закреплены за основной БД (чтение перед записью не должно быть устаревшим).
+ */
+@WebFilter(urlPatterns = "/api/*", asyncSupported = true)
+public class ReadYourWritesFilter implements Filter {
+
+    static final String COOKIE = "primary_until";
+
+    @Inject
+    private AppSettings settings;
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String method = httpRequest.getMethod();
+        boolean write = !"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)
+                && !"OPTIONS".equalsIgnoreCase(method);
+
+        long now = System.currentTimeMillis();
+        if (write) {
+            long window = settings.getLong("routes.replica.read-your-writes-ms", 5000);
+            Cookie cookie = new Cookie(COOKIE, Long.toString(now + window));
+            cookie.setPath(httpRequest.getContextPath().isEmpty() ? "/" : httpRequest.getContextPath());
+            cookie.setMaxAge((int) Math.max(1, (window + 999) / 1000));
+            cookie.setHttpOnly(true);
+            httpResponse.addCookie(cookie);
+        }
+
+        boolean pinned = write || pinnedUntil(httpRequest) > now;
+        if (pinned) ReplicaRouter.pinToPrimary();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (pinned) ReplicaRouter.unpin();
+            // требование свежести ставит ресурс вместе с ETag, поток уходит в пул сервера
+            ReplicaRouter.clearRequiredSeq();
+        }
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) return 0;
+        for (Cookie c : cookies) {
+            if (COOKIE.equals(c.getName())) {
+                try {
+                    return Long.parseLong(c.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
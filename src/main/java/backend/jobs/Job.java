@@ -0,0 +1,258 @@
+package backend.jobs;
+
+import backend.api.RouteJsonEncoder;
+import backend.entities.Route;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.annotation.JsonbTransient;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновая задача и её состояние для GET /jobs/{id}. Результат — JSON-массив, который пишется
+ * элемент за элементом во временный файл (spool) и отдаётся из него же, а не держится в куче.
+ */
+public class Job implements Comparable<Job> {
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final String id;
+    private final String type;
+    private final Priority priority;
+    private final boolean interruptible;
+    private final long sequence = SEQUENCE.incrementAndGet();
+    private final Instant createdAt = Instant.now();
+
+    private volatile State state = State.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile long processed;
+    private volatile long total = -1;
+    private volatile long resultCount;
+    private volatile long resultBytes;
+    private volatile String error;
+
+    private volatile boolean cancelRequested;
+    private volatile Thread runner;
+
+    private Path spool;
+    private OutputStream out;
+    private RouteJsonEncoder encoder;
+    private OutputStream element;
+    private Jsonb jsonb;
+
+    Job(String id, String type, Priority priority, boolean interruptible) {
+        this.id = id;
+        this.type = type;
+        this.priority = priority;
+        this.interruptible = interruptible;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Обработано элементов; total — ожидаемое количество или -1, если неизвестно
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getResultCount() {
+        return resultCount;
+    }
+
+    public long getResultBytes() {
+        return resultBytes;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @JsonbTransient
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * Можно ли ещё отменить задачу: из очереди — всегда, во время выполнения — только прерываемую
+     */
+    public boolean isCancellable() {
+        State s = state;
+        return s == State.QUEUED || (s == State.RUNNING && interruptible);
+    }
+
+    @JsonbTransient
+    Path getSpool() {
+        return spool;
+    }
+
+    // --- для выполняемой работы
+
+    /**
+     * Дописать элемент в результат; маршруты пишет RouteJsonEncoder, остальное — JSON-B
+     */
+    public void emit(Object value) {
+        try {
+            if (resultCount > 0) encoder.writeAscii(",");
+            if (value instanceof Route) {
+                encoder.writeRoute((Route) value);
+            } else {
+                encoder.flush();
+                jsonb.toJson(value, element);
+            }
+            resultCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void progress(long processed) {
+        this.processed = processed;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Остановить работу, если задачу отменили: отменённой задача считается, только если работа
+     * завершилась исключением, а не вернулась нормально
+     */
+    public void checkCancelled() {
+        if (cancelRequested) throw new CancellationException("Job " + id + " was cancelled");
+    }
+
+    // --- жизненный цикл, управляется JobManager
+
+    synchronized boolean start(Path spoolDir, Jsonb jsonb) throws IOException {
+        if (cancelRequested) return false;
+        this.jsonb = jsonb;
+        spool = Files.createTempFile(spoolDir, "job-" + id + "-", ".json");
+        out = Files.newOutputStream(spool);
+        encoder = new RouteJsonEncoder(out);
+        encoder.writeAscii("[");
+        // JSON-B закрывает переданный поток после каждого значения, а файл нужен до конца задачи
+        element = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        runner = Thread.currentThread();
+        startedAt = Instant.now();
+        state = State.RUNNING;
+        return true;
+    }
+
+    synchronized void finish(State finalState, String error) {
+        runner = null;
+        if (out != null) {
+            try {
+                encoder.writeAscii("]");
+                encoder.flush();
+                out.close();
+                resultBytes = Files.size(spool);
+            } catch (IOException e) {
+                if (finalState == State.SUCCEEDED) {
+                    finalState = State.FAILED;
+                    error = "Failed to write result: " + e.getMessage();
+                }
+            }
+            out = null;
+            encoder = null;
+            element = null;
+        }
+        if (finalState != State.SUCCEEDED) deleteSpool();
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.state = finalState;
+    }
+
+    /**
+     * Запросить отмену: задача в очереди не начнётся, выполняющаяся получает interrupt
+     * и останавливается на ближайшей проверке checkCancelled(). false — задача уже выполняется
+     * и прервать её нельзя (например, одна транзакция, которая закоммитится целиком)
+     */
+    synchronized boolean cancel() {
+        if (state == State.RUNNING && !interruptible) return false;
+        cancelRequested = true;
+        Thread t = runner;
+        if (t != null) t.interrupt();
+        return true;
+    }
+
+    synchronized void deleteSpool() {
+        if (spool == null) return;
+        try {
+            Files.deleteIfExists(spool);
+        } catch (IOException e) {
+            System.err.println("Failed to delete job spool " + spool + ": " + e.getMessage());
+        }
+        spool = null;
+    }
+
+    // сначала приоритет, затем порядок постановки
+    @Override
+    public int compareTo(Job other) {
+        int c = priority.compareTo(other.priority);
+        return c != 0 ? c : Long.compare(sequence, other.sequence);
+    }
+}
@@ -0,0 +1,284 @@
+package backend.jobs;
+
+import backend.config.AppSettings;
+import backend.websocket.RouteWebSocket;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Очередь фоновых задач: routes.jobs.threads потоков, очередь с приоритетами (внутри приоритета — FIFO)
+ * длиной не больше routes.jobs.max-queued. Состояние задач хранится в памяти узла, результаты — во временных
+ * файлах в routes.jobs.spool-dir; завершённые задачи удаляются через routes.jobs.retention-minutes.
+ * Изменения состояния и прогресс (не чаще раза в routes.jobs.progress-interval-ms) рассылаются по WebSocket
+ * сессиям, подписанным на задачу сообщением {"type":"watch_job","id":"..."}.
+ */
+@ApplicationScoped
+public class JobManager {
+
+    /**
+     * Работа задачи; прогресс и результат сообщаются через job. Отменённая работа завершается исключением
+     * (job.checkCancelled()); вернувшаяся нормально работа считается выполненной, даже если отмену запросили
+     */
+    @FunctionalInterface
+    public interface Work {
+        void run(Job job) throws Exception;
+    }
+
+    @Inject
+    private AppSettings settings;
+
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService housekeeping;
+    private Path spoolDir;
+    private Jsonb jsonb;
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object ignored) {
+        ensureStarted();
+    }
+
+    private synchronized void ensureStarted() {
+        if (executor != null) return;
+        int threads = Math.max(1, settings.getInt("routes.jobs.threads", 2));
+        AtomicInteger n = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "route-job-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        try {
+            String dir = settings.get("routes.jobs.spool-dir", "");
+            spoolDir = dir.isEmpty()
+                    ? Files.createTempDirectory("route-jobs")
+                    : Files.createDirectories(Path.of(dir));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create job spool directory", e);
+        }
+        jsonb = JsonbBuilder.create();
+        housekeeping = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-job-housekeeping");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeping.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor == null) return;
+        housekeeping.shutdownNow();
+        executor.shutdownNow();
+        jobs.values().forEach(Job::deleteSpool);
+        try {
+            jsonb.close();
+        } catch (Exception e) {
+            System.err.println("Failed to close JSON-B: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Поставить прерываемую задачу в очередь. RejectedExecutionException — очередь заполнена
+     */
+    public Job submit(String type, Job.Priority priority, Work work) {
+        return submit(type, priority, true, work);
+    }
+
+    /**
+     * Поставить задачу в очередь; непрерываемую (interruptible = false) можно отменить только до начала.
+     * RejectedExecutionException — очередь заполнена
+     */
+    public Job submit(String type, Job.Priority priority, boolean interruptible, Work work) {
+        ensureStarted();
+        int limit = settings.getInt("routes.jobs.max-queued", 100);
+        if (queued.incrementAndGet() > limit) {
+            queued.decrementAndGet();
+            throw new RejectedExecutionException("Job queue is full (" + limit + " jobs)");
+        }
+        Job job = new Job(UUID.randomUUID().toString(), type, priority, interruptible);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(new Task(job, work));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    public Optional<Job> get(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Задачи узла, новые первыми
+     */
+    public List<Job> list() {
+        List<Job> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing(Job::getCreatedAt).reversed());
+        return list;
+    }
+
+    /**
+     * Отменить задачу; false — её нет или она уже завершена.
+     * IllegalStateException — задача выполняется и прервать её нельзя
+     */
+    public boolean cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null || job.getState().isFinished()) return false;
+        if (!job.cancel()) {
+            throw new IllegalStateException("Job " + id + " is running and cannot be cancelled");
+        }
+        // из очереди задача уходит сразу, не дожидаясь свободного потока
+        for (Runnable r : executor.getQueue()) {
+            if (r instanceof Task && ((Task) r).job == job && executor.remove(r)) {
+                queued.decrementAndGet();
+                job.finish(Job.State.CANCELLED, null);
+                publish(job);
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Файл результата завершённой успешно задачи
+     */
+    public Optional<File> result(Job job) {
+        Path spool = job.getState() == Job.State.SUCCEEDED ? job.getSpool() : null;
+        return spool != null ? Optional.of(spool.toFile()) : Optional.empty();
+    }
+
+    private void expire() {
+        Instant cutoff = Instant.now().minusSeconds(60 * settings.getLong("routes.jobs.retention-minutes", 60));
+        jobs.values().removeIf(job -> {
+            if (!job.getState().isFinished() || job.getFinishedAt().isAfter(cutoff)) return false;
+            job.deleteSpool();
+            RouteWebSocket.forgetJob(job.getId());
+            return true;
+        });
+    }
+
+    private void publish(Job job) {
+        JsonObjectBuilder b = Json.createObjectBuilder()
+                .add("type", "job")
+                .add("id", job.getId())
+                .add("state", job.getState().name().toLowerCase())
+                .add("processed", job.getProcessed())
+                .add("total", job.getTotal())
+                .add("resultCount", job.getResultCount());
+        if (job.getError() != null) b.add("error", job.getError());
+        RouteWebSocket.publishJob(job.getId(), b.build().toString());
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        private final Job job;
+        private final Work work;
+
+        Task(Job job, Work work) {
+            this.job = job;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            try {
+                if (!job.start(spoolDir, jsonb)) {
+                    job.finish(Job.State.CANCELLED, null);
+                    publish(job);
+                    return;
+                }
+            } catch (IOException e) {
+                job.finish(Job.State.FAILED, "Cannot create result file: " + e.getMessage());
+                publish(job);
+                return;
+            }
+            publish(job);
+
+            ProgressPublisher progress = new ProgressPublisher(job);
+            progress.start();
+            try {
+                work.run(job);
+                // работа дошла до конца (например, транзакция закоммичена) — результат сохраняется
+                job.finish(Job.State.SUCCEEDED, null);
+            } catch (Exception | Error e) {
+                // CancellationException, InterruptedException или ошибка прерванного ввода-вывода
+                if (job.isCancelRequested()) {
+                    job.finish(Job.State.CANCELLED, null);
+                } else {
+                    job.finish(Job.State.FAILED, e.getMessage() != null ? e.getMessage() : e.toString());
+                    System.err.println("Job " + job.getId() + " (" + job.getType() + ") failed: " + e);
+                }
+            } finally {
+                progress.stop();
+                // interrupt от отмены не должен достаться следующей задаче этого потока
+                Thread.interrupted();
+                publish(job);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return job.compareTo(other.job);
+        }
+    }
+
+    /**
+     * Периодическая рассылка прогресса, пока задача выполняется
+     */
+    private final class ProgressPublisher {
+        private final Job job;
+        private ScheduledFuture<?> future;
+
+        ProgressPublisher(Job job) {
+            this.job = job;
+        }
+
+        void start() {
+            long interval = Math.max(100, settings.getLong("routes.jobs.progress-interval-ms", 1000));
+            long[] last = {-1};
+            future = housekeeping.scheduleAtFixedRate(() -> {
+                long processed = job.getProcessed();
+                if (processed != last[0]) {
+                    last[0] = processed;
+                    publish(job);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            future.cancel(false);
+        }
+    }
+}
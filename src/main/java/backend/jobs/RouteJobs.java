@@ -0,0 +1,68 @@
+package backend.jobs;
+
+import backend.entities.Location;
+import backend.entities.Route;
+import backend.service.RouteService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.List;
+
+/**
+ * Тяжёлые операции над маршрутами в виде фоновых задач. Строки читаются курсором и сразу пишутся в файл
+ * результата, так что ни запросный поток, ни куча не заняты всей выборкой.
+ */
+@ApplicationScoped
+public class RouteJobs {
+
+    public static final String EXPORT = "export";
+    public static final String BETWEEN = "between";
+    public static final String REASSIGN = "reassign";
+
+    @Inject
+    private JobManager jobManager;
+
+    @Inject
+    private RouteService routeService;
+
+    /**
+     * Выгрузка всех маршрутов
+     */
+    public Job export(Job.Priority priority) {
+        return jobManager.submit(EXPORT, priority, job -> {
+            job.setTotal(routeService.getTotalRoutesCount());
+            routeService.forEachRoute(route -> emit(job, route));
+            job.checkCancelled();
+        });
+    }
+
+    /**
+     * Все маршруты между локациями, по возрастанию distance
+     */
+    public Job between(String fromLocation, String toLocation, Job.Priority priority) {
+        return jobManager.submit(BETWEEN, priority, job -> {
+            routeService.forEachRouteBetweenLocations(fromLocation, toLocation, route -> emit(job, route));
+            job.checkCancelled();
+        });
+    }
+
+    /**
+     * Удаление локации с перепривязкой маршрутов; результат — id изменённых маршрутов.
+     * Перепривязка идёт одной транзакцией, поэтому отменить её можно только до начала; потом DELETE отвечает 409.
+     */
+    public Job reassign(Location location, Location replacement, Job.Priority priority) {
+        return jobManager.submit(REASSIGN, priority, false, job -> {
+            List<Long> ids = routeService.reassignLocation(location, replacement);
+            job.setTotal(ids.size());
+            for (Long id : ids) job.emit(id);
+            job.progress(ids.size());
+        });
+    }
+
+    private static boolean emit(Job job, Route route) {
+        if (job.isCancelRequested()) return false;
+        job.emit(route);
+        job.progress(job.getResultCount());
+        return true;
+    }
+}
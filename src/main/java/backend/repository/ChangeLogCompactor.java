@@ -0,0 +1,56 @@
+package backend.repository;
+
+import backend.config.AppSettings;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодически удаляет старые записи журнала route_changes
+ * (routes.changes.retention-hours, routes.changes.max-rows; 0 — без ограничения).
+ */
+@ApplicationScoped
+public class ChangeLogCompactor {
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private AppSettings settings;
+
+    private ScheduledExecutorService scheduler;
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object ignored) {
+        long interval = settings.getLong("routes.changes.compaction-interval-seconds", 300);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-change-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    public void compact() {
+        try {
+            int removed = routeRepository.compactChanges(
+                    settings.getLong("routes.changes.retention-hours", 24),
+                    settings.getLong("routes.changes.max-rows", 100_000));
+            if (removed > 0) {
+                System.out.println("Compacted route change log: " + removed + " entries removed");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Route change log compaction failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package backend.repository;
+
+import backend.entities.Route;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Запись журнала изменений route_changes: номер, операция, узел-источник и снимок маршрута.
+ * Для удаления снимок — последнее состояние маршрута перед удалением.
+ */
+public class ChangeLogEntry {
+
+    private final long seq;
+    private final String operation;
+    private final String nodeId;
+    private final ZonedDateTime changedAt;
+    private final Route route;
+
+    public ChangeLogEntry(long seq, String operation, String nodeId, ZonedDateTime changedAt, Route route) {
+        this.seq = seq;
+        this.operation = operation;
+        this.nodeId = nodeId;
+        this.changedAt = changedAt;
+        this.route = route;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Long getRouteId() {
+        return route.getId();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ZonedDateTime getChangedAt() {
+        return changedAt;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+}
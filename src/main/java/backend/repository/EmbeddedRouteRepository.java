@@ -0,0 +1,1062 @@
+package backend.repository;
+
+import backend.cluster.ClusterChannel;
+import backend.config.AppSettings;
+import backend.entities.Coordinates;
+import backend.entities.Location;
+import backend.entities.Route;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище маршрутов без внешней БД (routes.storage=embedded) для одиночных узлов.
+ * Данные целиком в памяти: первичный индекс по id и вторичные по rating, distance, creationDate
+ * и именам локаций. Каждое изменение до применения дописывается в журнал (RouteWal) с выбранной
+ * политикой fsync; когда журнал вырастает до routes.storage.embedded.snapshot-wal-mb, запись переключается
+ * на новый сегмент журнала, состояние сворачивается в снимок (RouteSnapshot), а старые сегменты удаляются.
+ * При запуске читается снимок и поверх него по порядку проигрываются сегменты, так что после падения
+ * теряется не больше, чем допускает политика fsync.
+ * Изменения другим узлам не рассылаются, секционирования нет.
+ */
+@ApplicationScoped
+@Typed(EmbeddedRouteRepository.class)
+public class EmbeddedRouteRepository implements RouteRepository {
+
+    @Inject
+    private AppSettings settings;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final String SNAPSHOT_FILE = "routes.snapshot";
+    private static final String WAL_PREFIX = "routes-";
+    private static final String WAL_SUFFIX = ".wal";
+    private static final String LOCK_FILE = "routes.lock";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // объекты Route в индексах не изменяются: обновление кладёт новый объект, наружу отдаются копии
+    private final TreeMap<Long, Route> byId = new TreeMap<>();
+    private final TreeMap<Long, TreeSet<Long>> byRating = new TreeMap<>();
+    private final TreeMap<Integer, TreeSet<Long>> byDistance = new TreeMap<>();
+    private final TreeMap<Instant, TreeSet<Long>> byCreated = new TreeMap<>();
+    // имена локаций в нижнем регистре: шаблон LIKE проверяется по различным именам, а не по каждому маршруту
+    private final Map<String, TreeSet<Long>> byFromName = new HashMap<>();
+    private final Map<String, TreeSet<Long>> byToName = new HashMap<>();
+    private final TreeMap<Long, ChangeLogEntry> changes = new TreeMap<>();
+
+    private long lastSeq = 0;
+    private long nextId = 1;
+
+    private volatile boolean opened = false;
+    private Path dir;
+    private RouteWal.FsyncPolicy policy;
+    private RouteWal wal;
+    private FileChannel lockChannel;
+    private FileLock fileLock;
+    private ScheduledExecutorService maintenance;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final Object snapshotMonitor = new Object();
+
+    private void ensureOpen() {
+        if (opened) return;
+        synchronized (this) {
+            if (opened) return;
+            long started = System.nanoTime();
+            dir = Paths.get(settings.get("routes.storage.embedded.dir", "data/routes"));
+            policy = RouteWal.FsyncPolicy.parse(settings.get("routes.storage.embedded.fsync", "always"));
+            int[] replayed = {0};
+            try {
+                Files.createDirectories(dir);
+                lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                fileLock = lockChannel.tryLock();
+                if (fileLock == null) throw new IOException("Storage directory " + dir + " is used by another process");
+
+                RouteSnapshot snapshot = RouteSnapshot.load(dir.resolve(SNAPSHOT_FILE));
+                if (snapshot != null) {
+                    for (Route r : snapshot.routes) put(r);
+                    for (ChangeLogEntry entry : snapshot.changes) changes.put(entry.getSeq(), entry);
+                    lastSeq = snapshot.lastSeq;
+                    nextId = snapshot.nextId;
+                }
+                // сегменты, уже вошедшие в снимок, остаются, если упали между записью снимка и их удалением
+                List<Path> segments = listSegments();
+                for (int i = 0; i < segments.size(); i++) {
+                    RouteWal segment = RouteWal.open(segments.get(i), policy, entry -> {
+                        if (entry.getSeq() <= lastSeq) return;
+                        apply(entry);
+                        replayed[0]++;
+                    });
+                    if (i < segments.size() - 1) segment.close();
+                    else wal = segment;
+                }
+                if (wal == null) wal = RouteWal.open(segmentPath(lastSeq + 1), policy, entry -> { });
+            } catch (IOException | RuntimeException e) {
+                closeQuietly();
+                clear();
+                throw new RuntimeException("Failed to open embedded route storage at " + dir, e);
+            }
+
+            maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "embedded-route-storage");
+                t.setDaemon(true);
+                return t;
+            });
+            if (policy == RouteWal.FsyncPolicy.INTERVAL) {
+                long interval = Math.max(1, settings.getLong("routes.storage.embedded.fsync-interval-ms", 200));
+                maintenance.scheduleWithFixedDelay(this::syncWal, interval, interval, TimeUnit.MILLISECONDS);
+            }
+            opened = true;
+            System.out.println("Embedded route storage opened at " + dir.toAbsolutePath() + ": " + byId.size() +
+                    " routes, " + replayed[0] + " log records replayed in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        synchronized (this) {
+            if (!opened) return;
+            // без прерывания: прерванный поток закрыл бы канал снимка или журнала посреди записи
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // свернуть журнал при остановке, чтобы следующий запуск не проигрывал его
+            if (wal.size() > 0 && !wal.isBroken()) snapshot();
+            lock.writeLock().lock();
+            try {
+                opened = false;
+                closeQuietly();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (wal != null) wal.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close route change log: " + e.getMessage());
+        }
+        try {
+            if (fileLock != null) fileLock.release();
+            if (lockChannel != null) lockChannel.close();
+        } catch (IOException ignored) {
+        }
+        wal = null;
+        fileLock = null;
+        lockChannel = null;
+    }
+
+    private void clear() {
+        byId.clear();
+        byRating.clear();
+        byDistance.clear();
+        byCreated.clear();
+        byFromName.clear();
+        byToName.clear();
+        changes.clear();
+        lastSeq = 0;
+        nextId = 1;
+    }
+
+    private void syncWal() {
+        try {
+            RouteWal current = wal;
+            if (current != null) current.sync();
+        } catch (IOException e) {
+            System.err.println("Route change log fsync failed: " + e.getMessage());
+        }
+    }
+
+    private Path segmentPath(long firstSeq) {
+        return dir.resolve(String.format("%s%020d%s", WAL_PREFIX, firstSeq, WAL_SUFFIX));
+    }
+
+    private static long segmentFirstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(WAL_PREFIX.length(), name.length() - WAL_SUFFIX.length()));
+    }
+
+    // сегменты журнала по возрастанию первого seq; имя с нулями слева сортируется как число
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (var files = Files.newDirectoryStream(dir, WAL_PREFIX + "*" + WAL_SUFFIX)) {
+            for (Path file : files) segments.add(file);
+        }
+        segments.sort(Comparator.comparing(Path::getFileName));
+        return segments;
+    }
+
+    /**
+     * Записать снимок и удалить вошедшие в него сегменты журнала. Под блокировкой только переключение
+     * на новый сегмент и копирование ссылок на маршруты; сам снимок пишется без блокировки.
+     */
+    void snapshot() {
+        ensureOpen();
+        synchronized (snapshotMonitor) {
+            long started = System.nanoTime();
+            List<Route> routes;
+            List<ChangeLogEntry> log;
+            long seq;
+            long next;
+            RouteWal retired = null;
+            lock.writeLock().lock();
+            try {
+                routes = new ArrayList<>(byId.values());
+                log = new ArrayList<>(changes.values());
+                seq = lastSeq;
+                next = nextId;
+                // пустой текущий сегмент и так начинается с seq + 1
+                if (wal.size() > 0) {
+                    retired = wal;
+                    wal = RouteWal.open(segmentPath(seq + 1), policy, entry -> { });
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to start a new route change log segment", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                if (retired != null) retired.close();
+                RouteSnapshot.write(dir.resolve(SNAPSHOT_FILE), seq, next, routes, log);
+                for (Path segment : listSegments()) {
+                    if (segmentFirstSeq(segment) <= seq) Files.deleteIfExists(segment);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write embedded route storage snapshot", e);
+            }
+            System.out.println("Embedded route storage snapshot written: " + routes.size() + " routes in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+        }
+    }
+
+    private void scheduleSnapshotIfNeeded() {
+        long limit = settings.getLong("routes.storage.embedded.snapshot-wal-mb", 64) * 1024 * 1024;
+        if (limit <= 0 || wal.size() < limit || !snapshotScheduled.compareAndSet(false, true)) return;
+        maintenance.execute(() -> {
+            try {
+                snapshot();
+            } catch (RuntimeException e) {
+                System.err.println(e.getMessage() + ": " + e.getCause());
+            } finally {
+                snapshotScheduled.set(false);
+            }
+        });
+    }
+
+    // Дописать записи одной транзакцией в журнал и применить к индексам; вызывается под writeLock
+    private void commit(List<ChangeLogEntry> entries) {
+        if (entries.isEmpty()) return;
+        try {
+            wal.append(entries);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write route change log", e);
+        }
+        for (ChangeLogEntry entry : entries) apply(entry);
+        scheduleSnapshotIfNeeded();
+    }
+
+    private ChangeLogEntry commitOne(String operation, Route stored) {
+        ChangeLogEntry entry = newEntry(operation, stored, ZonedDateTime.now(ZONE), lastSeq + 1);
+        commit(List.of(entry));
+        return entry;
+    }
+
+    private static ChangeLogEntry newEntry(String operation, Route stored, ZonedDateTime changedAt, long seq) {
+        return new ChangeLogEntry(seq, operation, ClusterChannel.NODE_ID, changedAt, stored);
+    }
+
+    private void apply(ChangeLogEntry entry) {
+        Route r = entry.getRoute();
+        remove(r.getId());
+        if (!"deleted".equals(entry.getOperation())) put(r);
+        changes.put(entry.getSeq(), entry);
+        lastSeq = Math.max(lastSeq, entry.getSeq());
+        nextId = Math.max(nextId, r.getId() + 1);
+    }
+
+    private void put(Route r) {
+        byId.put(r.getId(), r);
+        index(byRating, r.getRating(), r.getId());
+        index(byDistance, r.getDistance(), r.getId());
+        index(byCreated, r.getCreationDate().toInstant(), r.getId());
+        if (r.getFrom() != null) index(byFromName, lower(r.getFrom().getName()), r.getId());
+        if (r.getTo() != null) index(byToName, lower(r.getTo().getName()), r.getId());
+    }
+
+    private void remove(Long id) {
+        Route r = byId.remove(id);
+        if (r == null) return;
+        unindex(byRating, r.getRating(), id);
+        unindex(byDistance, r.getDistance(), id);
+        unindex(byCreated, r.getCreationDate().toInstant(), id);
+        if (r.getFrom() != null) unindex(byFromName, lower(r.getFrom().getName()), id);
+        if (r.getTo() != null) unindex(byToName, lower(r.getTo().getName()), id);
+    }
+
+    private static <K> void index(Map<K, TreeSet<Long>> index, K key, Long id) {
+        if (key != null) index.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+    }
+
+    private static <K> void unindex(Map<K, TreeSet<Long>> index, K key, Long id) {
+        if (key == null) return;
+        TreeSet<Long> ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) index.remove(key);
+    }
+
+    private static void requireColumns(Route route) {
+        if (route.getName() == null || route.getCreationDate() == null || route.getRating() == null) {
+            throw new IllegalArgumentException("Route name, creationDate and rating must not be null");
+        }
+    }
+
+    @Override
+    public TrackedDataSource getPrimaryPool() {
+        ensureOpen();
+        return null;
+    }
+
+    @Override
+    public ChangeLogEntry save(Route route) {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            if (route.getId() == null) {
+                if (route.getCreationDate() == null) {
+                    route.setCreationDate(ZonedDateTime.now());
+                }
+                requireColumns(route);
+                Route stored = copy(route);
+                stored.setId(nextId);
+                ChangeLogEntry entry = commitOne("created", stored);
+                route.setId(stored.getId());
+                return new ChangeLogEntry(entry.getSeq(), "created", entry.getNodeId(), entry.getChangedAt(), route);
+            }
+            if (!byId.containsKey(route.getId())) {
+                return new ChangeLogEntry(0, "updated", ClusterChannel.NODE_ID, null, route);
+            }
+            requireColumns(route);
+            ChangeLogEntry entry = commitOne("updated", copy(route));
+            return new ChangeLogEntry(entry.getSeq(), "updated", entry.getNodeId(), entry.getChangedAt(), route);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<ChangeLogEntry> updateColumns(Route route, Set<RouteColumn> columns) {
+        if (columns.isEmpty()) throw new IllegalArgumentException("No columns to update");
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            Route existing = byId.get(route.getId());
+            if (existing == null) return Optional.empty();
+            Route updated = copy(existing);
+            for (RouteColumn c : columns) setColumn(updated, c, route);
+            if (updated.getFrom() != null && updated.getFrom().getName() == null) updated.setFrom(null);
+            if (updated.getTo() != null && updated.getTo().getName() == null) updated.setTo(null);
+            requireColumns(updated);
+            return Optional.of(copyOut(commitOne("updated", updated)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Перенести одну колонку из source; null-группа в source (нет coordinates/from/to) обнуляет группу целиком
+    private static void setColumn(Route target, RouteColumn column, Route source) {
+        switch (column) {
+            case NAME:
+                target.setName(source.getName());
+                break;
+            case DISTANCE:
+                target.setDistance(source.getDistance());
+                break;
+            case RATING:
+                target.setRating(source.getRating());
+                break;
+            case COORDINATE_X:
+            case COORDINATE_Y:
+                if (source.getCoordinates() == null) {
+                    target.setCoordinates(null);
+                    break;
+                }
+                Coordinates c = target.getCoordinates() == null ? new Coordinates()
+                        : new Coordinates(target.getCoordinates().getX(), target.getCoordinates().getY());
+                if (column == RouteColumn.COORDINATE_X) c.setX(source.getCoordinates().getX());
+                else c.setY(source.getCoordinates().getY());
+                target.setCoordinates(c);
+                break;
+            case FROM_NAME:
+            case FROM_X:
+            case FROM_Y:
+                target.setFrom(withColumn(target.getFrom(), source.getFrom(), column.column()));
+                break;
+            case TO_NAME:
+            case TO_X:
+            case TO_Y:
+                target.setTo(withColumn(target.getTo(), source.getTo(), column.column()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported column " + column);
+        }
+    }
+
+    private static Location withColumn(Location target, Location source, String column) {
+        if (source == null) return null;
+        Location l = target == null ? new Location() : copy(target);
+        if (column.endsWith("_name")) l.setName(source.getName());
+        else if (column.endsWith("_x")) l.setX(source.getX());
+        else l.setY(source.getY());
+        return l;
+    }
+
+    @Override
+    public Optional<ChangeLogEntry> delete(Long id) {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            Route existing = byId.get(id);
+            if (existing == null) return Optional.empty();
+            return Optional.of(copyOut(commitOne("deleted", existing)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<ChangeLogEntry> deleteByRating(Long rating) {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            TreeSet<Long> ids = byRating.get(rating);
+            if (ids == null) return Optional.empty();
+            return Optional.of(copyOut(commitOne("deleted", byId.get(ids.first()))));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ReassignedRoute> reassignLocation(Location location, Location replacement) {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            List<ChangeLogEntry> entries = new ArrayList<>();
+            List<boolean[]> hits = new ArrayList<>();
+            ZonedDateTime now = ZonedDateTime.now(ZONE);
+            for (Route r : candidates(location)) {
+                boolean fromHit = sameLocation(r.getFrom(), location);
+                boolean toHit = sameLocation(r.getTo(), location);
+                if (!fromHit && !toHit) continue;
+                Route updated = copy(r);
+                if (fromHit) updated.setFrom(copy(replacement));
+                if (toHit) updated.setTo(copy(replacement));
+                entries.add(newEntry("updated", updated, now, lastSeq + 1 + entries.size()));
+                hits.add(new boolean[] {fromHit, toHit});
+            }
+            commit(entries);
+            List<ReassignedRoute> result = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                result.add(new ReassignedRoute(copyOut(entries.get(i)), hits.get(i)[0], hits.get(i)[1]));
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // маршруты, у которых from или to с тем же именем, по возрастанию id
+    private List<Route> candidates(Location location) {
+        TreeSet<Long> ids = new TreeSet<>();
+        String key = lower(location.getName());
+        if (key != null) {
+            ids.addAll(byFromName.getOrDefault(key, new TreeSet<>()));
+            ids.addAll(byToName.getOrDefault(key, new TreeSet<>()));
+        }
+        List<Route> routes = new ArrayList<>(ids.size());
+        for (Long id : ids) routes.add(byId.get(id));
+        return routes;
+    }
+
+    private static boolean sameLocation(Location l, Location other) {
+        return l != null && l.getName() != null && l.getName().equals(other.getName())
+                && l.getX() == other.getX() && Objects.equals(l.getY(), other.getY());
+    }
+
+    @Override
+    public Optional<Route> findById(Long id) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            Route r = byId.get(id);
+            return r == null ? Optional.empty() : Optional.of(copy(r));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findByIds(Collection<Long> ids) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            List<Route> list = new ArrayList<>();
+            for (Long id : new TreeSet<>(ids)) {
+                Route r = byId.get(id);
+                if (r != null) list.add(copy(r));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findAll() {
+        return findAll(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Route> findAll(int page, int size) {
+        return findAll(page, size, null, null);
+    }
+
+    @Override
+    public List<Route> findAll(int page, int size, ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            Iterable<Long> ids = createdFrom == null && createdTo == null ? byId.keySet() : createdIds(createdFrom, createdTo);
+            long skip = (long) page * size;
+            List<Route> list = new ArrayList<>();
+            for (Long id : ids) {
+                if (list.size() >= size) break;
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                list.add(copy(byId.get(id)));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // id маршрутов, созданных в [createdFrom, createdTo), по возрастанию
+    private TreeSet<Long> createdIds(ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        TreeSet<Long> ids = new TreeSet<>();
+        for (TreeSet<Long> set : createdRange(createdFrom, createdTo).values()) ids.addAll(set);
+        return ids;
+    }
+
+    private NavigableMap<Instant, TreeSet<Long>> createdRange(ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        NavigableMap<Instant, TreeSet<Long>> range = byCreated;
+        if (createdFrom != null && createdTo != null && !createdFrom.isBefore(createdTo)) return new TreeMap<>();
+        if (createdFrom != null) range = range.tailMap(createdFrom.toInstant(), true);
+        if (createdTo != null) range = range.headMap(createdTo.toInstant(), false);
+        return range;
+    }
+
+    @Override
+    public List<Route> findByNameContaining(String name, ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        ensureOpen();
+        Pattern pattern = like("%" + name + "%");
+        lock.readLock().lock();
+        try {
+            Iterable<Long> ids = createdFrom == null && createdTo == null ? byId.keySet() : createdIds(createdFrom, createdTo);
+            List<Route> list = new ArrayList<>();
+            for (Long id : ids) {
+                Route r = byId.get(id);
+                if (matches(pattern, r.getName())) list.add(copy(r));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findByNameContaining(String name) {
+        return findByNameContaining(name, null, null);
+    }
+
+    @Override
+    public long countCreatedBetween(ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            long count = 0;
+            for (TreeSet<Long> ids : createdRange(createdFrom, createdTo).values()) count += ids.size();
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findRecent(int limit) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            List<Route> list = new ArrayList<>();
+            for (TreeSet<Long> ids : byCreated.descendingMap().values()) {
+                for (Iterator<Long> it = ids.descendingIterator(); it.hasNext() && list.size() < limit; ) {
+                    list.add(copy(byId.get(it.next())));
+                }
+                if (list.size() >= limit) break;
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long count() {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findByRatingGreaterThan(Long rating) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            TreeSet<Long> ids = new TreeSet<>();
+            for (TreeSet<Long> set : byRating.tailMap(rating, false).values()) ids.addAll(set);
+            List<Route> list = new ArrayList<>(ids.size());
+            for (Long id : ids) list.add(copy(byId.get(id)));
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long countByRatingGreaterThan(Long rating) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            long count = 0;
+            for (TreeSet<Long> ids : byRating.tailMap(rating, false).values()) count += ids.size();
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Long> findDistinctRatings() {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(byRating.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findByFromLocation(String fromName) {
+        return findByLocationIndex(byFromName, fromName);
+    }
+
+    @Override
+    public List<Route> findByToLocation(String toName) {
+        return findByLocationIndex(byToName, toName);
+    }
+
+    private List<Route> findByLocationIndex(Map<String, TreeSet<Long>> index, String name) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            TreeSet<Long> ids = matchingIds(index, name);
+            List<Route> list = new ArrayList<>(ids.size());
+            for (Long id : ids) list.add(copy(byId.get(id)));
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // id маршрутов, у которых имя локации содержит name (LIKE '%name%' без учёта регистра)
+    private static TreeSet<Long> matchingIds(Map<String, TreeSet<Long>> index, String name) {
+        Pattern pattern = like("%" + name + "%");
+        TreeSet<Long> ids = new TreeSet<>();
+        for (Map.Entry<String, TreeSet<Long>> e : index.entrySet()) {
+            if (pattern.matcher(e.getKey()).matches()) ids.addAll(e.getValue());
+        }
+        return ids;
+    }
+
+    // маршруты между локациями по возрастанию distance (при равной — по id); вызывается под readLock
+    private List<Route> byLocations(String fromName, String toName) {
+        TreeSet<Long> ids = matchingIds(byFromName, fromName);
+        ids.retainAll(matchingIds(byToName, toName));
+        List<Route> list = new ArrayList<>(ids.size());
+        for (Long id : ids) list.add(byId.get(id));
+        list.sort(Comparator.comparingInt(Route::getDistance));
+        return list;
+    }
+
+    @Override
+    public List<Route> findByLocations(String fromName, String toName) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            List<Route> list = byLocations(fromName, toName);
+            list.replaceAll(EmbeddedRouteRepository::copy);
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long forEachRoute(Predicate<Route> visitor) {
+        ensureOpen();
+        List<Route> routes;
+        lock.readLock().lock();
+        try {
+            routes = new ArrayList<>(byId.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return visit(routes, visitor);
+    }
+
+    @Override
+    public long forEachByLocations(String fromName, String toName, Predicate<Route> visitor) {
+        ensureOpen();
+        List<Route> routes;
+        lock.readLock().lock();
+        try {
+            routes = byLocations(fromName, toName);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return visit(routes, visitor);
+    }
+
+    // обход без блокировки: объекты в индексах не изменяются, visitor получает копии
+    private static long visit(List<Route> routes, Predicate<Route> visitor) {
+        long visited = 0;
+        for (Route r : routes) {
+            visited++;
+            if (!visitor.test(copy(r))) break;
+        }
+        return visited;
+    }
+
+    @Override
+    public Optional<Route> findShortestRoute(String fromName, String toName) {
+        return findByDistanceEnd(fromName, toName, false);
+    }
+
+    @Override
+    public Optional<Route> findLongestRoute(String fromName, String toName) {
+        return findByDistanceEnd(fromName, toName, true);
+    }
+
+    // обход индекса distance с нужного конца до первого подходящего маршрута
+    private Optional<Route> findByDistanceEnd(String fromName, String toName, boolean longest) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            TreeSet<Long> ids = matchingIds(byFromName, fromName);
+            if (ids.isEmpty()) return Optional.empty();
+            ids.retainAll(matchingIds(byToName, toName));
+            if (ids.isEmpty()) return Optional.empty();
+            for (TreeSet<Long> set : (longest ? byDistance.descendingMap() : byDistance).values()) {
+                for (Long id : set) {
+                    if (ids.contains(id)) return Optional.of(copy(byId.get(id)));
+                }
+            }
+            return Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findWithinBox(double minX, double minY, double maxX, double maxY, int limit) {
+        double x1 = Math.min(minX, maxX);
+        double x2 = Math.max(minX, maxX);
+        double y1 = Math.min(minY, maxY);
+        double y2 = Math.max(minY, maxY);
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            List<Route> list = new ArrayList<>();
+            for (Route r : byId.values()) {
+                if (list.size() >= limit) break;
+                Coordinates c = r.getCoordinates();
+                if (c != null && c.getX() >= x1 && c.getX() <= x2 && c.getY() >= y1 && c.getY() <= y2) list.add(copy(r));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Route> findNearest(double x, double y, int k) {
+        if (k <= 0) return new ArrayList<>();
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            // k лучших на куче с худшим наверху
+            PriorityQueue<Object[]> best = new PriorityQueue<>(k + 1,
+                    Comparator.comparingDouble((Object[] e) -> (Double) e[0]).reversed());
+            for (Route r : byId.values()) {
+                Coordinates c = r.getCoordinates();
+                if (c == null) continue;
+                double d = Math.hypot(c.getX() - x, c.getY() - y);
+                if (best.size() < k) best.add(new Object[] {d, r});
+                else if (d < (Double) best.peek()[0]) {
+                    best.poll();
+                    best.add(new Object[] {d, r});
+                }
+            }
+            List<Route> list = new ArrayList<>(best.size());
+            while (!best.isEmpty()) list.add(copy((Route) best.poll()[1]));
+            Collections.reverse(list);
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Location> findNearestLocations(double x, double y, int k) {
+        ensureOpen();
+        Map<String, Object[]> distinct = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Route r : byId.values()) {
+                addLocation(distinct, r.getFrom(), x, y);
+                addLocation(distinct, r.getTo(), x, y);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Object[]> sorted = new ArrayList<>(distinct.values());
+        sorted.sort(Comparator.comparingDouble(e -> (Double) e[0]));
+        List<Location> list = new ArrayList<>();
+        for (int i = 0; i < sorted.size() && i < k; i++) list.add(copy((Location) sorted.get(i)[1]));
+        return list;
+    }
+
+    // локация без y в SQL-версии даёт NULL-расстояние и оказывается в конце
+    private static void addLocation(Map<String, Object[]> distinct, Location l, double x, double y) {
+        if (l == null || l.getName() == null) return;
+        double d = l.getY() == null ? Double.POSITIVE_INFINITY : Math.hypot(l.getX() - x, l.getY() - y);
+        distinct.putIfAbsent(l.getName() + "|" + l.getX() + "|" + l.getY(), new Object[] {d, l});
+    }
+
+    @Override
+    public List<ChangeLogEntry> findChangesSince(long since, int limit) {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            List<ChangeLogEntry> list = new ArrayList<>();
+            for (ChangeLogEntry entry : changes.tailMap(since, false).values()) {
+                if (list.size() >= limit) break;
+                list.add(copyOut(entry));
+            }
+            return list;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] changeSeqBounds() {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            if (changes.isEmpty()) return new long[] {0, 0};
+            return new long[] {changes.firstKey(), changes.lastKey()};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Сокращает журнал в памяти; на диске сокращённый журнал окажется со следующим снимком
+     */
+    @Override
+    public int compactChanges(long maxAgeHours, long maxRows) {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            if (changes.isEmpty()) return 0;
+            long last = changes.lastKey();
+            int removed = 0;
+            if (maxAgeHours > 0) {
+                ZonedDateTime cutoff = ZonedDateTime.now(ZONE).minus(Duration.ofHours(maxAgeHours));
+                for (Iterator<ChangeLogEntry> it = changes.values().iterator(); it.hasNext(); ) {
+                    ChangeLogEntry entry = it.next();
+                    if (entry.getSeq() >= last || !entry.getChangedAt().isBefore(cutoff)) continue;
+                    it.remove();
+                    removed++;
+                }
+            }
+            if (maxRows > 0) {
+                NavigableMap<Long, ChangeLogEntry> old = changes.headMap(last - maxRows, true);
+                removed += old.size();
+                old.clear();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isPartitioned() {
+        return false;
+    }
+
+    @Override
+    public void ensureFuturePartitions(int monthsAhead) {
+    }
+
+    @Override
+    public List<String> findPartitionsBefore(YearMonth cutoff) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int archivePartition(String partition, int chunkRows, Consumer<List<ChangeLogEntry>> archived) {
+        throw new IllegalArgumentException("Not a routes partition: " + partition);
+    }
+
+    @Override
+    public Connection openListenConnection() {
+        return null;
+    }
+
+    @Override
+    public String ping(int timeoutSeconds) {
+        try {
+            ensureOpen();
+            RouteWal current = wal;
+            if (current == null) return "storage is closed";
+            return current.isBroken() ? "route change log is unusable after a failed write" : null;
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Override
+    public long estimateCount() {
+        return count();
+    }
+
+    /**
+     * SQL LIKE (% и _, экранирование обратной косой) в регулярное выражение; сравнение — в нижнем регистре
+     */
+    static Pattern like(String pattern) {
+        String lowered = lower(pattern);
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < lowered.length(); i++) {
+            char c = lowered.charAt(i);
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                if (c == '\\' && i + 1 < lowered.length()) c = lowered.charAt(++i);
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static boolean matches(Pattern pattern, String value) {
+        return value != null && pattern.matcher(lower(value)).matches();
+    }
+
+    private static String lower(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static ChangeLogEntry copyOut(ChangeLogEntry entry) {
+        return new ChangeLogEntry(entry.getSeq(), entry.getOperation(), entry.getNodeId(), entry.getChangedAt(),
+                copy(entry.getRoute()));
+    }
+
+    private static Route copy(Route r) {
+        Route c = new Route();
+        c.setId(r.getId());
+        c.setName(r.getName());
+        c.setCreationDate(r.getCreationDate());
+        c.setDistance(r.getDistance());
+        c.setRating(r.getRating());
+        if (r.getCoordinates() != null) c.setCoordinates(new Coordinates(r.getCoordinates().getX(), r.getCoordinates().getY()));
+        c.setFrom(copy(r.getFrom()));
+        c.setTo(copy(r.getTo()));
+        return c;
+    }
+
+    private static Location copy(Location l) {
+        return l == null ? null : new Location(l.getX(), l.getY(), l.getName());
+    }
+}
@@ -0,0 +1,1554 @@
+package backend.repository;
+
+import backend.cluster.ClusterChannel;
+import backend.config.AppSettings;
+import backend.entities.Route;
+import backend.entities.Coordinates;
+import backend.entities.Location;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Маршруты и журнал изменений в Postgres (или H2 для локального запуска) через DataSource из JNDI.
+ */
+@ApplicationScoped
+@Typed(JdbcRouteRepository.class)
+public class JdbcRouteRepository implements RouteRepository {
+
+    @Inject
+    private AppSettings settings;
+
+    @Inject
+    private ReplicaRouter replicaRouter;
+
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private volatile TrackedDataSource dataSource;
+
+    private volatile SqlDialect dialect;
+
+    // заменяет advisory-лок журнала, если у диалекта его нет (встроенная БД, один процесс)
+    private final ReentrantLock localChangeLock = new ReentrantLock();
+
+    // создаётся при первом INSERT с routes.group-commit.enabled
+    private volatile RouteInsertBatcher insertBatcher;
+
+    private volatile boolean schemaInitialized = false;
+
+    private static final String[] JNDI_NAMES = new String[] {
+        "java:jboss/datasources/studs",
+        "java:jboss/datasources/PostgresDS",
+        "java:/jdbc/studs",
+        "java:comp/DefaultDataSource"
+    };
+
+    private TrackedDataSource getDataSource() {
+        if (dataSource == null) {
+            synchronized (this) {
+                if (dataSource == null) {
+                    NamingException lastEx = null;
+                    for (String name : JNDI_NAMES) {
+                        try {
+                            InitialContext ic = new InitialContext();
+                            Object looked = ic.lookup(name);
+                            if (looked instanceof DataSource) {
+                                TrackedDataSource tracked = new TrackedDataSource((DataSource) looked);
+                                try (Connection conn = tracked.getConnection()) {
+                                    conn.setAutoCommit(true);
+                                    dialect = SqlDialect.detect(conn.getMetaData());
+                                    ensureSchemaExists(conn);
+                                } catch (SQLException e) {
+                                    throw new RuntimeException("Failed to initialize DB schema after DataSource lookup", e);
+                                }
+                                System.out.println("Routes DataSource " + name + ", SQL dialect " + dialect);
+                                dataSource = tracked;
+                                break;
+                            } else {
+                                lastEx = new NamingException("JNDI lookup returned non-DataSource object for " + name + ": " + looked);
+                            }
+                        } catch (NamingException e) {
+                            lastEx = e;
+                        }
+                    }
+                    if (dataSource == null) {
+                        throw new RuntimeException("DataSource lookup failed for JNDI names " + String.join(", ", JNDI_NAMES),
+                                lastEx);
+                    }
+                }
+            }
+        }
+        return dataSource;
+    }
+
+    private RouteInsertBatcher insertBatcher() {
+        if (insertBatcher == null) {
+            synchronized (this) {
+                if (insertBatcher == null) insertBatcher = new RouteInsertBatcher(this, settings);
+            }
+        }
+        return insertBatcher;
+    }
+
+    @PreDestroy
+    void close() {
+        RouteInsertBatcher batcher = insertBatcher;
+        if (batcher != null) batcher.close();
+    }
+
+    /**
+     * Диалект основной БД (реплика — та же СУБД)
+     */
+    public SqlDialect getDialect() {
+        getDataSource();
+        return dialect;
+    }
+
+    /**
+     * Использование пула основной БД
+     */
+    @Override
+    public TrackedDataSource getPrimaryPool() {
+        return getDataSource();
+    }
+
+    /**
+     * Соединение для запросов, которым допустимо слегка отстающее чтение: реплика, если она пригодна, иначе основная БД.
+     * Чтение перед записью и сверка счётчиков всегда идут через getDataSource().
+     */
+    private Connection readConnection() throws SQLException {
+        Connection replica = replicaRouter.readConnection();
+        return replica != null ? replica : getDataSource().getConnection();
+    }
+
+    private void ensureSchemaExists(Connection conn) {
+        if (schemaInitialized) return;
+        synchronized (this) {
+            if (schemaInitialized) return;
+            String columnsDdl = "creation_date TIMESTAMP WITH TIME ZONE NOT NULL," +
+                    "distance INTEGER NOT NULL," +
+                    "name VARCHAR(255) NOT NULL," +
+                    "rating BIGINT NOT NULL," +
+                    "coordinate_x DOUBLE PRECISION," +
+                    "coordinate_y REAL," +
+                    "from_name VARCHAR(255)," +
+                    "from_x BIGINT," +
+                    "from_y INTEGER," +
+                    "to_name VARCHAR(255)," +
+                    "to_x BIGINT," +
+                    "to_y INTEGER";
+            boolean partitioned = settings.getBoolean("routes.partitioning.enabled", false);
+            if (partitioned && !dialect.supportsPartitioning()) {
+                System.err.println("routes.partitioning.enabled is set, but " + dialect + " has no declarative partitioning; " +
+                        "routes is created as a plain table");
+                partitioned = false;
+            }
+            String ddl = partitioned
+                    // ключ секционирования обязан входить в первичный ключ
+                    ? "CREATE TABLE IF NOT EXISTS routes (id SERIAL NOT NULL," + columnsDdl +
+                      ", PRIMARY KEY (id, creation_date)) PARTITION BY RANGE (creation_date)"
+                    : "CREATE TABLE IF NOT EXISTS routes (id SERIAL PRIMARY KEY," + columnsDdl + ")";
+            // журнал изменений: append-only, seq выдаётся под локом журнала, поэтому порядок seq совпадает с порядком коммитов
+            String changesDdl = "CREATE TABLE IF NOT EXISTS route_changes (" +
+                    "seq BIGSERIAL PRIMARY KEY," +
+                    "route_id BIGINT NOT NULL," +
+                    "op VARCHAR(16) NOT NULL," +
+                    "node_id VARCHAR(64) NOT NULL," +
+                    "changed_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()," +
+                    "creation_date TIMESTAMP WITH TIME ZONE," +
+                    "distance INTEGER," +
+                    "name VARCHAR(255)," +
+                    "rating BIGINT," +
+                    "coordinate_x DOUBLE PRECISION," +
+                    "coordinate_y REAL," +
+                    "from_name VARCHAR(255)," +
+                    "from_x BIGINT," +
+                    "from_y INTEGER," +
+                    "to_name VARCHAR(255)," +
+                    "to_x BIGINT," +
+                    "to_y INTEGER" +
+                    ")";
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate(ddl);
+                st.executeUpdate(changesDdl);
+                for (String index : dialect.indexDdl()) st.executeUpdate(index);
+                if (partitioned) {
+                    if (isPartitioned(conn)) {
+                        st.executeUpdate("CREATE TABLE IF NOT EXISTS routes_default PARTITION OF routes DEFAULT");
+                        st.executeUpdate("CREATE TABLE IF NOT EXISTS routes_archive (" +
+                                "partition_name VARCHAR(64) NOT NULL," +
+                                "chunk INTEGER NOT NULL," +
+                                "archived_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()," +
+                                "row_count INTEGER NOT NULL," +
+                                "payload BYTEA NOT NULL," +
+                                "PRIMARY KEY (partition_name, chunk))");
+                        createMonthPartitions(conn, settings.getInt("routes.partitioning.months-ahead", 3));
+                    } else {
+                        System.err.println("routes.partitioning.enabled is set, but routes already exists as a plain table; " +
+                                "partitioning requires migrating it manually");
+                    }
+                }
+                schemaInitialized = true;
+            } catch (SQLException e) {
+                System.err.println("Failed to create or verify routes table: " + e.getMessage());
+                throw new RuntimeException("Failed to create or verify routes table", e);
+            }
+        }
+    }
+
+    static final String ROUTE_COLUMNS =
+            "creation_date, distance, name, rating, coordinate_x, coordinate_y, from_name, from_x, from_y, to_name, to_x, to_y";
+
+    static final String LOG_COLUMNS = "route_id, op, node_id, " + ROUTE_COLUMNS;
+
+    // зона для дат в ответах; ZoneId.systemDefault() на каждой строке заново разбирает TimeZone, поэтому берётся один раз
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // окна поиска для findRecent: 1 ч, 8 ч, ~2.7 сут, ~3 нед, ~5.6 мес, ~3.7 года (8^5 ч), дальше без ограничения
+    private static final Duration FIRST_RECENT_WINDOW = Duration.ofHours(1);
+    private static final Duration LAST_RECENT_WINDOW = FIRST_RECENT_WINDOW.multipliedBy(8L * 8 * 8 * 8 * 8);
+
+    /**
+     * Сохранить маршрут (INSERT без id, иначе UPDATE) и в той же транзакции дописать запись в журнал изменений.
+     * При routes.group-commit.enabled одновременные INSERT объединяются в одну транзакцию (RouteInsertBatcher).
+     */
+    @Override
+    public ChangeLogEntry save(Route route) {
+        if (route.getId() == null) {
+            if (route.getCreationDate() == null) {
+                route.setCreationDate(ZonedDateTime.now());
+            }
+            // DataSource ищется в JNDI здесь, в потоке запроса, а не в потоке пачки
+            getDialect();
+            if (settings.getBoolean("routes.group-commit.enabled", true)) {
+                return insertBatcher().submit(route);
+            }
+            return insertOne(route);
+        } else {
+            String update = "UPDATE routes SET creation_date = ?, distance = ?, name = ?, rating = ?, coordinate_x = ?, coordinate_y = ?, from_name = ?, from_x = ?, from_y = ?, to_name = ?, to_x = ?, to_y = ? WHERE id = ?";
+            String sql = "WITH updated AS (" + update + " RETURNING *" +
+                    "), logged AS (" +
+                    "INSERT INTO route_changes (" + LOG_COLUMNS + ") " +
+                    "SELECT id, 'updated', ?, " + ROUTE_COLUMNS + " FROM updated RETURNING seq, changed_at" +
+                    ") SELECT seq, changed_at FROM logged";
+            SqlDialect d = getDialect();
+            try {
+                return inChangeTransaction(conn -> {
+                    if (!d.singleStatementChanges()) {
+                        try (PreparedStatement ps = conn.prepareStatement(update)) {
+                            bindRouteColumns(ps, route);
+                            ps.setLong(13, route.getId());
+                            if (ps.executeUpdate() == 0) return new ChangeLogEntry(0, "updated", ClusterChannel.NODE_ID, null, route);
+                        }
+                        return appendFromTable(conn, "updated", route);
+                    }
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        bindRouteColumns(ps, route);
+                        ps.setLong(13, route.getId());
+                        ps.setString(14, ClusterChannel.NODE_ID);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (!rs.next()) return new ChangeLogEntry(0, "updated", ClusterChannel.NODE_ID, null, route);
+                            return logged(conn, rs.getLong(1), "updated", rs.getTimestamp(2), route);
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to update route via JDBC", e);
+            }
+        }
+    }
+
+    ChangeLogEntry insertOne(Route route) {
+        SqlDialect d = getDialect();
+        try {
+            return inChangeTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(d.insertSql())) {
+                    bindRouteColumns(ps, route);
+                    if (d.singleStatementChanges()) ps.setString(13, ClusterChannel.NODE_ID);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) throw new SQLException("INSERT returned no rows");
+                        route.setId(rs.getLong(1));
+                        if (d.singleStatementChanges()) {
+                            return logged(conn, rs.getLong(2), "created", rs.getTimestamp(3), route);
+                        }
+                    }
+                }
+                return appendFromTable(conn, "created", route);
+            });
+        } catch (SQLException e) {
+            System.err.println("INSERT failed: SQLState=" + e.getSQLState() + " ErrorCode=" + e.getErrorCode() + " Message=" + e.getMessage());
+            throw new RuntimeException("Failed to insert route via JDBC", e);
+        }
+    }
+
+    // SQL многострочного INSERT по числу строк; пачки обычно одних и тех же размеров
+    private final Map<Integer, String> insertManySql = new ConcurrentHashMap<>();
+
+    /**
+     * Вставить маршруты одной транзакцией с одним уведомлением на всю пачку; записи журнала — в порядке routes.
+     * Если транзакция не закоммитилась, id маршрутов сбрасываются обратно в null.
+     */
+    List<ChangeLogEntry> insertMany(List<Route> routes) {
+        SqlDialect d = getDialect();
+        String sql = d.reserveIdsSql() == null ? null : insertManySql.computeIfAbsent(routes.size(), d::insertManySql);
+        boolean committed = false;
+        try {
+            List<ChangeLogEntry> entries = inChangeTransaction(conn -> {
+                List<ChangeLogEntry> result = new ArrayList<>(routes.size());
+                if (sql == null) {
+                    // по одной строке, но одной транзакцией: id каждой строки известен точно
+                    try (PreparedStatement ps = conn.prepareStatement(d.insertSql())) {
+                        for (Route route : routes) {
+                            bindRouteColumns(ps, route);
+                            try (ResultSet rs = ps.executeQuery()) {
+                                if (!rs.next()) throw new SQLException("INSERT returned no rows");
+                                route.setId(rs.getLong(1));
+                            }
+                            result.add(appendFromTable(conn, "created", route));
+                        }
+                    }
+                    return result;
+                }
+                // id выдаются заранее и привязываются к своей строке VALUES, так что не зависят
+                // ни от порядка вставки, ни от порядка строк RETURNING
+                try (PreparedStatement ps = conn.prepareStatement(d.reserveIdsSql())) {
+                    ps.setInt(1, routes.size());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        for (Route route : routes) {
+                            if (!rs.next()) throw new SQLException("Sequence returned fewer than " + routes.size() + " ids");
+                            route.setId(rs.getLong(1));
+                        }
+                    }
+                }
+                // seq и changed_at по id маршрута, маршрут подставляется ниже
+                Map<Long, ChangeLogEntry> logged = new HashMap<>();
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    int index = 1;
+                    for (Route route : routes) {
+                        ps.setLong(index, route.getId());
+                        bindRouteColumns(ps, index + 1, route);
+                        index += 13;
+                    }
+                    ps.setString(index, ClusterChannel.NODE_ID);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            logged.put(rs.getLong(1), new ChangeLogEntry(rs.getLong(2), "created", ClusterChannel.NODE_ID,
+                                    toZoned(rs.getTimestamp(3)), null));
+                        }
+                    }
+                }
+                if (logged.size() != routes.size()) {
+                    throw new SQLException("INSERT returned " + logged.size() + " rows for " + routes.size() + " routes");
+                }
+                long maxSeq = 0;
+                for (Route route : routes) {
+                    ChangeLogEntry entry = logged.get(route.getId());
+                    result.add(new ChangeLogEntry(entry.getSeq(), "created", ClusterChannel.NODE_ID, entry.getChangedAt(), route));
+                    maxSeq = Math.max(maxSeq, entry.getSeq());
+                }
+                // одно уведомление на всю пачку: другие узлы дочитают журнал до maxSeq
+                publishChange(conn, maxSeq);
+                return result;
+            });
+            committed = true;
+            return entries;
+        } catch (SQLException e) {
+            System.err.println("Batched INSERT of " + routes.size() + " routes failed: SQLState=" + e.getSQLState() +
+                    " ErrorCode=" + e.getErrorCode() + " Message=" + e.getMessage());
+            throw new RuntimeException("Failed to insert routes via JDBC", e);
+        } finally {
+            if (!committed) {
+                for (Route route : routes) route.setId(null);
+            }
+        }
+    }
+
+    // SQL частичного UPDATE по битовой маске изменённых колонок (RouteColumn.ordinal())
+    private final Map<Integer, String> partialUpdateSql = new ConcurrentHashMap<>();
+
+    /**
+     * Записать только перечисленные колонки маршрута (остальные не трогаются, даже если их успели изменить
+     * параллельно) и дописать в журнал получившуюся строку целиком. Пустой Optional — маршрута уже нет.
+     */
+    @Override
+    public Optional<ChangeLogEntry> updateColumns(Route route, Set<RouteColumn> columns) {
+        if (columns.isEmpty()) throw new IllegalArgumentException("No columns to update");
+        int mask = 0;
+        for (RouteColumn c : columns) mask |= 1 << c.ordinal();
+        SqlDialect d = getDialect();
+        String sql = partialUpdateSql.computeIfAbsent(mask, m -> partialUpdateSql(m, d.singleStatementChanges()));
+        try {
+            return inChangeTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    int index = 1;
+                    // порядок параметров тот же, что в partialUpdateSql: по ordinal
+                    for (RouteColumn c : RouteColumn.values()) {
+                        if (columns.contains(c)) c.bind(ps, index++, route);
+                    }
+                    ps.setLong(index++, route.getId());
+                    if (!d.singleStatementChanges()) {
+                        if (ps.executeUpdate() == 0) return Optional.empty();
+                        Route updated = readRoute(conn, route.getId());
+                        return Optional.of(appendFromTable(conn, "updated", updated));
+                    }
+                    ps.setString(index, ClusterChannel.NODE_ID);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) return Optional.empty();
+                        Route updated = mapRowToRoute(rs);
+                        return Optional.of(logged(conn, rs.getLong("seq"), "updated", rs.getTimestamp("logged_at"), updated));
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to update route columns via JDBC", e);
+        }
+    }
+
+    // singleStatement = false — только UPDATE, журнал дописывается отдельно (H2)
+    private static String partialUpdateSql(int mask, boolean singleStatement) {
+        StringBuilder set = new StringBuilder();
+        for (RouteColumn c : RouteColumn.values()) {
+            if ((mask & (1 << c.ordinal())) == 0) continue;
+            if (set.length() > 0) set.append(", ");
+            set.append(c.column()).append(" = ?");
+        }
+        if (!singleStatement) return "UPDATE routes SET " + set + " WHERE id = ?";
+        return "WITH updated AS (UPDATE routes SET " + set + " WHERE id = ? RETURNING *), logged AS (" +
+                "INSERT INTO route_changes (" + LOG_COLUMNS + ") " +
+                "SELECT id, 'updated', ?, " + ROUTE_COLUMNS + " FROM updated RETURNING seq, changed_at" +
+                ") SELECT updated.*, logged.seq, logged.changed_at AS logged_at FROM updated, logged";
+    }
+
+    @Override
+    public Optional<ChangeLogEntry> delete(Long id) {
+        String sql = "WITH deleted AS (DELETE FROM routes WHERE id = ? RETURNING *), " + deletedLogCte();
+        SqlDialect d = getDialect();
+        try {
+            return inChangeTransaction(conn -> {
+                if (!d.singleStatementChanges()) return deleteRow(conn, readRoute(conn, id));
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setLong(1, id);
+                    ps.setString(2, ClusterChannel.NODE_ID);
+                    return readDeleted(conn, ps);
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete route via JDBC", e);
+        }
+    }
+
+    @Override
+    public Optional<Route> findById(Long id) {
+        String sql = "SELECT * FROM routes WHERE id = ?";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(mapRowToRoute(rs));
+                }
+                return Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find route by id via JDBC", e);
+        }
+    }
+
+    /**
+     * Маршруты с данными id одним запросом (id = ANY(массив)), в порядке id; отсутствующих в ответе нет.
+     * Как и findById, читает основную БД: id обычно приходят из только что полученного уведомления.
+     */
+    @Override
+    public List<Route> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) return new ArrayList<>();
+        String sql = "SELECT * FROM routes WHERE id = ANY(?) ORDER BY id";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            Array array = conn.createArrayOf("bigint", ids.toArray());
+            try {
+                ps.setArray(1, array);
+                return readRoutes(ps);
+            } finally {
+                array.free();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find routes by ids via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findAll() {
+        String sql = "SELECT * FROM routes ORDER BY id";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            List<Route> list = new ArrayList<>();
+            while (rs.next()) list.add(mapRowToRoute(rs));
+            return list;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find all routes via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findAll(int page, int size) {
+        SqlDialect d = getDialect();
+        String sql = "SELECT * FROM routes ORDER BY id" + d.pageClause();
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            d.bindPage(ps, 1, size, page * size);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find paged routes via JDBC", e);
+        }
+    }
+
+    /**
+     * Страница маршрутов, созданных в [createdFrom, createdTo) (null — граница не задана).
+     * Условие по creation_date позволяет планировщику отсечь лишние секции и блоки.
+     */
+    @Override
+    public List<Route> findAll(int page, int size, ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        SqlDialect d = getDialect();
+        String sql = "SELECT * FROM routes WHERE " + createdRange(createdFrom, createdTo) + " ORDER BY id" + d.pageClause();
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = bindCreatedRange(ps, 1, createdFrom, createdTo);
+            d.bindPage(ps, index, size, page * size);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find paged routes by creation date via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findByNameContaining(String name, ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        String sql = "SELECT * FROM routes WHERE LOWER(name) LIKE LOWER(?) AND " + createdRange(createdFrom, createdTo) +
+                " ORDER BY id";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + name + "%");
+            bindCreatedRange(ps, 2, createdFrom, createdTo);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to search routes by name and creation date via JDBC", e);
+        }
+    }
+
+    @Override
+    public long countCreatedBetween(ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        String sql = "SELECT COUNT(*) FROM routes WHERE " + createdRange(createdFrom, createdTo);
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            bindCreatedRange(ps, 1, createdFrom, createdTo);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to count routes by creation date via JDBC", e);
+        }
+    }
+
+    /**
+     * limit последних созданных маршрутов, от новых к старым. Сначала ищет в коротком окне по creation_date
+     * (BRIN читает только хвост таблицы) и расширяет окно, пока не наберётся limit.
+     */
+    @Override
+    public List<Route> findRecent(int limit) {
+        String windowed = "SELECT * FROM routes WHERE creation_date >= ? ORDER BY creation_date DESC, id DESC LIMIT ?";
+        String unbounded = "SELECT * FROM routes ORDER BY creation_date DESC, id DESC LIMIT ?";
+        try (Connection conn = readConnection()) {
+            Instant now = Instant.now();
+            for (Duration window = FIRST_RECENT_WINDOW; window.compareTo(LAST_RECENT_WINDOW) <= 0; window = window.multipliedBy(8)) {
+                try (PreparedStatement ps = conn.prepareStatement(windowed)) {
+                    ps.setTimestamp(1, Timestamp.from(now.minus(window)));
+                    ps.setInt(2, limit);
+                    List<Route> list = readRoutes(ps);
+                    if (list.size() >= limit) return list;
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(unbounded)) {
+                ps.setInt(1, limit);
+                return readRoutes(ps);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find recent routes via JDBC", e);
+        }
+    }
+
+    private List<Route> readRoutes(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            List<Route> list = new ArrayList<>();
+            while (rs.next()) list.add(mapRowToRoute(rs));
+            return list;
+        }
+    }
+
+    private static String createdRange(ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        if (createdFrom == null && createdTo == null) return "TRUE";
+        if (createdTo == null) return "creation_date >= ?";
+        if (createdFrom == null) return "creation_date < ?";
+        return "creation_date >= ? AND creation_date < ?";
+    }
+
+    private static int bindCreatedRange(PreparedStatement ps, int index, ZonedDateTime createdFrom, ZonedDateTime createdTo)
+            throws SQLException {
+        if (createdFrom != null) ps.setTimestamp(index++, Timestamp.from(createdFrom.toInstant()));
+        if (createdTo != null) ps.setTimestamp(index++, Timestamp.from(createdTo.toInstant()));
+        return index;
+    }
+
+    @Override
+    public long count() {
+        String sql = "SELECT COUNT(*) FROM routes";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to count routes via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findByNameContaining(String name) {
+        String sql = "SELECT * FROM routes WHERE LOWER(name) LIKE LOWER(?) ORDER BY id";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + name + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to search routes by name via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findByRatingGreaterThan(Long rating) {
+        String sql = "SELECT * FROM routes WHERE rating > ? ORDER BY id";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, rating);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find routes by rating via JDBC", e);
+        }
+    }
+
+    @Override
+    public long countByRatingGreaterThan(Long rating) {
+        String sql = "SELECT COUNT(*) FROM routes WHERE rating > ?";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, rating);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to count by rating via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Long> findDistinctRatings() {
+        String sql = "SELECT DISTINCT rating FROM routes ORDER BY rating";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            List<Long> list = new ArrayList<>();
+            while (rs.next()) list.add(rs.getLong("rating"));
+            return list;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find distinct ratings via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findByFromLocation(String fromName) {
+        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) ORDER BY id";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + fromName + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find by from location via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findByToLocation(String toName) {
+        String sql = "SELECT * FROM routes WHERE LOWER(to_name) LIKE LOWER(?) ORDER BY id";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + toName + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find by to location via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findByLocations(String fromName, String toName) {
+        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + fromName + "%");
+            ps.setString(2, "%" + toName + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find routes by locations via JDBC", e);
+        }
+    }
+
+    /**
+     * Все маршруты по возрастанию id курсором, без списка в памяти (фоновые выгрузки).
+     * visitor возвращает false, чтобы остановить чтение; результат — число переданных маршрутов.
+     */
+    @Override
+    public long forEachRoute(Predicate<Route> visitor) {
+        return stream("SELECT * FROM routes ORDER BY id", ps -> { }, visitor);
+    }
+
+    /**
+     * То же, что findByLocations, но курсором
+     */
+    @Override
+    public long forEachByLocations(String fromName, String toName, Predicate<Route> visitor) {
+        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance";
+        return stream(sql, ps -> {
+            ps.setString(1, "%" + fromName + "%");
+            ps.setString(2, "%" + toName + "%");
+        }, visitor);
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    // Postgres отдаёт строки порциями fetchSize только внутри транзакции
+    private long stream(String sql, Binder binder, Predicate<Route> visitor) {
+        try (Connection conn = readConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(STREAM_FETCH_SIZE);
+                binder.bind(ps);
+                long visited = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        visited++;
+                        if (!visitor.test(mapRowToRoute(rs))) break;
+                    }
+                }
+                return visited;
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to stream routes via JDBC", e);
+        }
+    }
+
+    @Override
+    public Optional<Route> findShortestRoute(String fromName, String toName) {
+        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance ASC LIMIT 1";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + fromName + "%");
+            ps.setString(2, "%" + toName + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return Optional.of(mapRowToRoute(rs));
+                return Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find shortest route via JDBC", e);
+        }
+    }
+
+    @Override
+    public Optional<Route> findLongestRoute(String fromName, String toName) {
+        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance DESC LIMIT 1";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, "%" + fromName + "%");
+            ps.setString(2, "%" + toName + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return Optional.of(mapRowToRoute(rs));
+                return Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find longest route via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findWithinBox(double minX, double minY, double maxX, double maxY, int limit) {
+        String sql = "SELECT * FROM routes WHERE point(coordinate_x, coordinate_y) <@ box(point(?, ?), point(?, ?)) LIMIT ?";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDouble(1, minX);
+            ps.setDouble(2, minY);
+            ps.setDouble(3, maxX);
+            ps.setDouble(4, maxY);
+            ps.setInt(5, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find routes within box via JDBC", e);
+        }
+    }
+
+    @Override
+    public List<Route> findNearest(double x, double y, int k) {
+        String sql = "SELECT * FROM routes ORDER BY point(coordinate_x, coordinate_y) <-> point(?, ?) LIMIT ?";
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDouble(1, x);
+            ps.setDouble(2, y);
+            ps.setInt(3, k);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<Route> list = new ArrayList<>();
+                while (rs.next()) list.add(mapRowToRoute(rs));
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find nearest routes via JDBC", e);
+        }
+    }
+
+    /**
+     * k ближайших к точке различных локаций (from и to), от ближней к дальней.
+     * Обе ветки идут KNN-обходом GiST-индекса; одна локация встречается во многих маршрутах,
+     * поэтому кандидатов берём с запасом и при нехватке различных повторяем с большим лимитом.
+     */
+    @Override
+    public List<Location> findNearestLocations(double x, double y, int k) {
+        String sql = "SELECT name, lx, ly, dist FROM (" +
+                "(SELECT from_name AS name, from_x AS lx, from_y AS ly, point(from_x, from_y) <-> point(?, ?) AS dist " +
+                "FROM routes WHERE from_name IS NOT NULL ORDER BY point(from_x, from_y) <-> point(?, ?) LIMIT ?) " +
+                "UNION ALL " +
+                "(SELECT to_name, to_x, to_y, point(to_x, to_y) <-> point(?, ?) " +
+                "FROM routes WHERE to_name IS NOT NULL ORDER BY point(to_x, to_y) <-> point(?, ?) LIMIT ?)" +
+                ") candidates ORDER BY dist";
+        int limit = Math.max(k, 1) * 16;
+        try (Connection conn = readConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            while (true) {
+                for (int i = 0; i < 2; i++) {
+                    ps.setDouble(i * 5 + 1, x);
+                    ps.setDouble(i * 5 + 2, y);
+                    ps.setDouble(i * 5 + 3, x);
+                    ps.setDouble(i * 5 + 4, y);
+                    ps.setInt(i * 5 + 5, limit);
+                }
+                LinkedHashMap<String, Location> distinct = new LinkedHashMap<>();
+                int rows = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (distinct.size() < k && rs.next()) {
+                        rows++;
+                        Location l = new Location(rs.getLong("lx"), (Integer) rs.getObject("ly"), rs.getString("name"));
+                        distinct.putIfAbsent(l.getName() + "|" + l.getX() + "|" + l.getY(), l);
+                    }
+                    while (rs.next()) rows++;
+                }
+                if (distinct.size() >= k || rows < 2 * limit) {
+                    return new ArrayList<>(distinct.values());
+                }
+                limit *= 4;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find nearest locations via JDBC", e);
+        }
+    }
+
+    // Удалить один объект с заданным rating
+    @Override
+    public Optional<ChangeLogEntry> deleteByRating(Long rating) {
+        String sql = "WITH deleted AS (DELETE FROM routes WHERE id = (SELECT id FROM routes WHERE rating = ? LIMIT 1) RETURNING *), " +
+                deletedLogCte();
+        SqlDialect d = getDialect();
+        try {
+            return inChangeTransaction(conn -> {
+                if (!d.singleStatementChanges()) {
+                    Route route = null;
+                    try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM routes WHERE rating = ? LIMIT 1")) {
+                        ps.setLong(1, rating);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (rs.next()) route = mapRowToRoute(rs);
+                        }
+                    }
+                    return deleteRow(conn, route);
+                }
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setLong(1, rating);
+                    ps.setString(2, ClusterChannel.NODE_ID);
+                    return readDeleted(conn, ps);
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete by rating via JDBC", e);
+        }
+    }
+
+    /**
+     * Перепривязать все маршруты, у которых from или to совпадает с location (name, x, y), на replacement.
+     * Одна UPDATE-выборка по обеим группам колонок плюс записи журнала — всё одним запросом в одной транзакции.
+     * Возвращает записи журнала по каждому изменённому маршруту; previous-состояние восстанавливается
+     * по флагам from_hit/to_hit.
+     */
+    @Override
+    public List<ReassignedRoute> reassignLocation(Location location, Location replacement) {
+        String matchFrom = "r.from_name = p.old_name AND r.from_x = p.old_x AND r.from_y IS NOT DISTINCT FROM p.old_y";
+        String matchTo = "r.to_name = p.old_name AND r.to_x = p.old_x AND r.to_y IS NOT DISTINCT FROM p.old_y";
+        String sql = "WITH p AS (" +
+                "SELECT CAST(? AS VARCHAR) AS old_name, CAST(? AS BIGINT) AS old_x, CAST(? AS INTEGER) AS old_y, " +
+                "CAST(? AS VARCHAR) AS new_name, CAST(? AS BIGINT) AS new_x, CAST(? AS INTEGER) AS new_y" +
+                "), target AS (" +
+                "SELECT r.id, (" + matchFrom + ") AS from_hit, COALESCE(" + matchTo + ", FALSE) AS to_hit " +
+                "FROM routes r, p WHERE (" + matchFrom + ") OR (" + matchTo + ") FOR UPDATE OF r" +
+                "), updated AS (" +
+                "UPDATE routes r SET " +
+                "from_name = CASE WHEN t.from_hit THEN p.new_name ELSE r.from_name END, " +
+                "from_x = CASE WHEN t.from_hit THEN p.new_x ELSE r.from_x END, " +
+                "from_y = CASE WHEN t.from_hit THEN p.new_y ELSE r.from_y END, " +
+                "to_name = CASE WHEN t.to_hit THEN p.new_name ELSE r.to_name END, " +
+                "to_x = CASE WHEN t.to_hit THEN p.new_x ELSE r.to_x END, " +
+                "to_y = CASE WHEN t.to_hit THEN p.new_y ELSE r.to_y END " +
+                "FROM target t, p WHERE r.id = t.id RETURNING r.*, t.from_hit, t.to_hit" +
+                "), logged AS (" +
+                "INSERT INTO route_changes (" + LOG_COLUMNS + ") " +
+                "SELECT id, 'updated', ?, " + ROUTE_COLUMNS + " FROM updated RETURNING seq, route_id, changed_at" +
+                ") SELECT updated.*, logged.seq, logged.changed_at AS logged_at " +
+                "FROM updated JOIN logged ON logged.route_id = updated.id ORDER BY logged.seq";
+        SqlDialect d = getDialect();
+        try {
+            return inChangeTransaction(conn -> {
+                if (!d.singleStatementChanges()) return reassignByStatements(conn, location, replacement);
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, location.getName());
+                    ps.setLong(2, location.getX());
+                    if (location.getY() != null) ps.setInt(3, location.getY());
+                    else ps.setNull(3, Types.INTEGER);
+                    ps.setString(4, replacement.getName());
+                    ps.setLong(5, replacement.getX());
+                    if (replacement.getY() != null) ps.setInt(6, replacement.getY());
+                    else ps.setNull(6, Types.INTEGER);
+                    ps.setString(7, ClusterChannel.NODE_ID);
+                    List<ReassignedRoute> result = new ArrayList<>();
+                    long maxSeq = 0;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Route route = mapRowToRoute(rs);
+                            long seq = rs.getLong("seq");
+                            maxSeq = Math.max(maxSeq, seq);
+                            result.add(new ReassignedRoute(
+                                    new ChangeLogEntry(seq, "updated", ClusterChannel.NODE_ID, toZoned(rs.getTimestamp("logged_at")), route),
+                                    rs.getBoolean("from_hit"), rs.getBoolean("to_hit")));
+                        }
+                    }
+                    // одно уведомление на всю пачку: другие узлы дочитают журнал до maxSeq
+                    if (maxSeq > 0) publishChange(conn, maxSeq);
+                    return result;
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to reassign location via JDBC", e);
+        }
+    }
+
+    // H2: UPDATE без RETURNING, поэтому затронутые маршруты читаются заранее (изменения и так идут под localChangeLock),
+    // а журнал дописывается из уже изменённых строк
+    private List<ReassignedRoute> reassignByStatements(Connection conn, Location location, Location replacement)
+            throws SQLException {
+        String matchFrom = "from_name = ? AND from_x = ? AND from_y IS NOT DISTINCT FROM CAST(? AS INTEGER)";
+        String matchTo = "to_name = ? AND to_x = ? AND to_y IS NOT DISTINCT FROM CAST(? AS INTEGER)";
+        List<Route> targets = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT * FROM routes WHERE (" + matchFrom + ") OR (" + matchTo + ") ORDER BY id")) {
+            bindLocation(ps, 1, location);
+            bindLocation(ps, 4, location);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) targets.add(mapRowToRoute(rs));
+            }
+        }
+        if (targets.isEmpty()) return new ArrayList<>();
+        for (String side : new String[] {"from", "to"}) {
+            try (PreparedStatement ps = conn.prepareStatement("UPDATE routes SET " + side + "_name = ?, " + side +
+                    "_x = ?, " + side + "_y = ? WHERE " + ("from".equals(side) ? matchFrom : matchTo))) {
+                bindLocation(ps, 1, replacement);
+                bindLocation(ps, 4, location);
+                ps.executeUpdate();
+            }
+        }
+        List<ReassignedRoute> result = new ArrayList<>(targets.size());
+        for (Route route : targets) {
+            boolean fromHit = sameLocation(route.getFrom(), location);
+            boolean toHit = sameLocation(route.getTo(), location);
+            if (fromHit) route.setFrom(new Location(replacement.getX(), replacement.getY(), replacement.getName()));
+            if (toHit) route.setTo(new Location(replacement.getX(), replacement.getY(), replacement.getName()));
+            result.add(new ReassignedRoute(appendFromTable(conn, "updated", route), fromHit, toHit));
+        }
+        return result;
+    }
+
+    private static void bindLocation(PreparedStatement ps, int first, Location location) throws SQLException {
+        ps.setString(first, location.getName());
+        ps.setLong(first + 1, location.getX());
+        if (location.getY() != null) ps.setInt(first + 2, location.getY());
+        else ps.setNull(first + 2, Types.INTEGER);
+    }
+
+    private static boolean sameLocation(Location l, Location other) {
+        return l != null && Objects.equals(l.getName(), other.getName()) && l.getX() == other.getX()
+                && Objects.equals(l.getY(), other.getY());
+    }
+
+    /**
+     * Изменения журнала с номером больше since, по возрастанию seq.
+     */
+    @Override
+    public List<ChangeLogEntry> findChangesSince(long since, int limit) {
+        String sql = "SELECT seq, op, node_id, changed_at, route_id AS id, " + ROUTE_COLUMNS +
+                " FROM route_changes WHERE seq > ? ORDER BY seq LIMIT ?";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, since);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                List<ChangeLogEntry> list = new ArrayList<>();
+                while (rs.next()) {
+                    list.add(new ChangeLogEntry(rs.getLong("seq"), rs.getString("op"), rs.getString("node_id"),
+                            toZoned(rs.getTimestamp("changed_at")), mapRowToRoute(rs)));
+                }
+                return list;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to read route changes via JDBC", e);
+        }
+    }
+
+    /**
+     * Наименьший и наибольший seq, оставшиеся в журнале после компактации; {0, 0} для пустого журнала.
+     */
+    @Override
+    public long[] changeSeqBounds() {
+        String sql = "SELECT COALESCE(MIN(seq), 0), COALESCE(MAX(seq), 0) FROM route_changes";
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return new long[] {rs.getLong(1), rs.getLong(2)};
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to read route change bounds via JDBC", e);
+        }
+    }
+
+    /**
+     * Удалить из журнала записи старше maxAgeHours и всё, что не входит в последние maxRows записей.
+     * Последняя запись сохраняется всегда, чтобы по границам журнала было видно, что часть истории удалена.
+     */
+    @Override
+    public int compactChanges(long maxAgeHours, long maxRows) {
+        // граница считается в Java: make_interval есть только в Postgres, а журнал чистится и на H2
+        String byAge = "DELETE FROM route_changes WHERE changed_at < ? " +
+                "AND seq < (SELECT MAX(seq) FROM route_changes)";
+        String byRows = "DELETE FROM route_changes WHERE seq <= (SELECT MAX(seq) FROM route_changes) - ?";
+        try (Connection conn = getDataSource().getConnection()) {
+            conn.setAutoCommit(true);
+            int removed = 0;
+            if (maxAgeHours > 0) {
+                try (PreparedStatement ps = conn.prepareStatement(byAge)) {
+                    ps.setTimestamp(1, Timestamp.from(Instant.now().minus(Duration.ofHours(maxAgeHours))));
+                    removed += ps.executeUpdate();
+                }
+            }
+            if (maxRows > 0) {
+                try (PreparedStatement ps = conn.prepareStatement(byRows)) {
+                    ps.setLong(1, maxRows);
+                    removed += ps.executeUpdate();
+                }
+            }
+            return removed;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to compact route changes via JDBC", e);
+        }
+    }
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern PARTITION_NAME = Pattern.compile("routes_p\\d{6}");
+
+    @Override
+    public boolean isPartitioned() {
+        try (Connection conn = getDataSource().getConnection()) {
+            return isPartitioned(conn);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to check routes partitioning via JDBC", e);
+        }
+    }
+
+    private static boolean isPartitioned(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT relkind FROM pg_class WHERE oid = 'routes'::regclass")) {
+            return rs.next() && "p".equals(rs.getString(1));
+        }
+    }
+
+    /**
+     * Создать помесячные секции routes с текущего месяца на monthsAhead вперёд (существующие не трогаются)
+     */
+    @Override
+    public void ensureFuturePartitions(int monthsAhead) {
+        try (Connection conn = getDataSource().getConnection()) {
+            conn.setAutoCommit(true);
+            createMonthPartitions(conn, monthsAhead);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to create routes partitions via JDBC", e);
+        }
+    }
+
+    private static void createMonthPartitions(Connection conn, int monthsAhead) throws SQLException {
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        try (Statement st = conn.createStatement()) {
+            for (int i = 0; i <= monthsAhead; i++) {
+                YearMonth month = current.plusMonths(i);
+                String sql = "CREATE TABLE IF NOT EXISTS " + partitionName(month) + " PARTITION OF routes " +
+                        "FOR VALUES FROM ('" + month.atDay(1) + " 00:00:00+00') TO ('" + month.plusMonths(1).atDay(1) + " 00:00:00+00')";
+                try {
+                    st.executeUpdate(sql);
+                } catch (SQLException e) {
+                    // например, в routes_default уже лежат строки за этот месяц — такие данные переносятся вручную
+                    System.err.println("Failed to create partition " + partitionName(month) + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "routes_p" + month.format(PARTITION_SUFFIX);
+    }
+
+    /**
+     * Помесячные секции, целиком лежащие раньше месяца cutoff, от старых к новым
+     */
+    @Override
+    public List<String> findPartitionsBefore(YearMonth cutoff) {
+        // не только секции routes: таблица, отсоединённая прерванным archivePartition, тоже должна дочиститься
+        String sql = "SELECT c.relname FROM pg_class c " +
+                "WHERE c.relkind = 'r' AND c.relname LIKE 'routes_p%' AND pg_table_is_visible(c.oid) ORDER BY c.relname";
+        String limit = partitionName(cutoff);
+        try (Connection conn = getDataSource().getConnection();
+             Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            List<String> names = new ArrayList<>();
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (PARTITION_NAME.matcher(name).matches() && name.compareTo(limit) < 0) names.add(name);
+            }
+            return names;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to list routes partitions via JDBC", e);
+        }
+    }
+
+    /**
+     * Перенести секцию в routes_archive порциями по chunkRows маршрутов и удалить её.
+     * Сначала секция отсоединяется отдельной командой, после этого в неё никто не пишет. Затем каждая порция —
+     * своя короткая транзакция: строки удаляются из секции, попадают в журнал как deleted и сжимаются в одну запись
+     * архива, так что в памяти не больше одной порции, а лок журнала держится только на время порции.
+     * Прерванный перенос продолжается следующим вызовом: секция уже отсоединена, номера порций идут после записанных.
+     */
+    @Override
+    public int archivePartition(String partition, int chunkRows, Consumer<List<ChangeLogEntry>> archived) {
+        if (!PARTITION_NAME.matcher(partition).matches()) {
+            throw new IllegalArgumentException("Not a routes partition: " + partition);
+        }
+        String chunkSql = "WITH gone AS (DELETE FROM " + partition + " WHERE id IN " +
+                "(SELECT id FROM " + partition + " ORDER BY id LIMIT ?) RETURNING *) " +
+                "INSERT INTO route_changes (" + LOG_COLUMNS + ") " +
+                "SELECT id, 'deleted', ?, " + ROUTE_COLUMNS + " FROM gone ORDER BY id " +
+                "RETURNING seq, changed_at AS logged_at, route_id AS id, " + ROUTE_COLUMNS;
+        String archiveSql = getDialect().archiveUpsertSql();
+        int chunkSize = Math.max(1, chunkRows);
+        try {
+            detachPartition(partition);
+            int total = 0;
+            for (int chunk = nextArchiveChunk(partition); ; chunk++) {
+                int chunkNo = chunk;
+                List<ChangeLogEntry> entries = inChangeTransaction(conn -> {
+                    List<ChangeLogEntry> part = new ArrayList<>();
+                    long maxSeq = 0;
+                    try (PreparedStatement ps = conn.prepareStatement(chunkSql)) {
+                        ps.setInt(1, chunkSize);
+                        ps.setString(2, ClusterChannel.NODE_ID);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                long seq = rs.getLong("seq");
+                                maxSeq = Math.max(maxSeq, seq);
+                                part.add(new ChangeLogEntry(seq, "deleted", ClusterChannel.NODE_ID,
+                                        toZoned(rs.getTimestamp("logged_at")), mapRowToRoute(rs)));
+                            }
+                        }
+                    }
+                    if (part.isEmpty()) return part;
+                    try (PreparedStatement ps = conn.prepareStatement(archiveSql)) {
+                        ps.setString(1, partition);
+                        ps.setInt(2, chunkNo);
+                        ps.setInt(3, part.size());
+                        ps.setBytes(4, RouteArchiveCodec.encode(part));
+                        ps.executeUpdate();
+                    }
+                    publishChange(conn, maxSeq);
+                    return part;
+                });
+                if (entries.isEmpty()) break;
+                total += entries.size();
+                archived.accept(entries);
+            }
+            try (Connection conn = getDataSource().getConnection();
+                 Statement st = conn.createStatement()) {
+                st.execute("DROP TABLE " + partition);
+            }
+            return total;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to archive partition " + partition + " via JDBC", e);
+        }
+    }
+
+    // Отсоединение вне транзакции. CONCURRENTLY (PG 14+) не берёт ACCESS EXCLUSIVE на routes, но недоступно
+    // при default-секции — тогда обычный DETACH, он не читает строк и держит лок недолго.
+    // Прерванное CONCURRENTLY дочищается через FINALIZE, уже отсоединённая секция пропускается
+    private void detachPartition(String partition) throws SQLException {
+        try (Connection conn = getDataSource().getConnection()) {
+            conn.setAutoCommit(true);
+            boolean concurrent = conn.getMetaData().getDatabaseMajorVersion() >= 14;
+            String stateSql = "SELECT " + (concurrent ? "i.inhdetachpending" : "false") + ", t.partdefid <> 0 " +
+                    "FROM pg_inherits i JOIN pg_partitioned_table t ON t.partrelid = i.inhparent " +
+                    "WHERE i.inhrelid = to_regclass(?) AND i.inhparent = 'routes'::regclass";
+            String sql = "ALTER TABLE routes DETACH PARTITION " + partition;
+            try (PreparedStatement ps = conn.prepareStatement(stateSql)) {
+                ps.setString(1, partition);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return;
+                    if (rs.getBoolean(1)) sql += " FINALIZE";
+                    else if (concurrent && !rs.getBoolean(2)) sql += " CONCURRENTLY";
+                }
+            }
+            try (Statement st = conn.createStatement()) {
+                st.execute(sql);
+            }
+        }
+    }
+
+    // порции прерванного переноса уже лежат в архиве — продолжаем нумерацию после них
+    private int nextArchiveChunk(String partition) throws SQLException {
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "SELECT COALESCE(MAX(chunk) + 1, 0) FROM routes_archive WHERE partition_name = ?")) {
+            ps.setString(1, partition);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChangeWork<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    // Изменение маршрутов + запись в журнал + pg_notify в одной транзакции.
+    // Лок журнала держится до коммита, так что читатель журнала не увидит seq N раньше, чем закоммичены все меньшие.
+    private <T> T inChangeTransaction(ChangeWork<T> work) throws SQLException {
+        String lockSql = getDialect().changeLockSql();
+        if (lockSql == null) localChangeLock.lock();
+        try (Connection conn = getDataSource().getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                if (lockSql != null) {
+                    try (Statement st = conn.createStatement()) {
+                        st.execute(lockSql);
+                    }
+                }
+                T result = work.run(conn);
+                conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            if (lockSql == null) localChangeLock.unlock();
+        }
+    }
+
+    private static String deletedLogCte() {
+        return "logged AS (" +
+                "INSERT INTO route_changes (" + LOG_COLUMNS + ") " +
+                "SELECT id, 'deleted', ?, " + ROUTE_COLUMNS + " FROM deleted RETURNING seq, changed_at" +
+                ") SELECT deleted.*, logged.seq, logged.changed_at AS logged_at FROM deleted, logged";
+    }
+
+    private Optional<ChangeLogEntry> readDeleted(Connection conn, PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) return Optional.empty();
+            Route deleted = mapRowToRoute(rs);
+            return Optional.of(logged(conn, rs.getLong("seq"), "deleted", rs.getTimestamp("logged_at"), deleted));
+        }
+    }
+
+    private Route readRoute(Connection conn, long id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT * FROM routes WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapRowToRoute(rs) : null;
+            }
+        }
+    }
+
+    // H2: журнал дописывается из строки до её удаления, в той же транзакции
+    private Optional<ChangeLogEntry> deleteRow(Connection conn, Route route) throws SQLException {
+        if (route == null) return Optional.empty();
+        ChangeLogEntry entry = appendFromTable(conn, "deleted", route);
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM routes WHERE id = ?")) {
+            ps.setLong(1, route.getId());
+            ps.executeUpdate();
+        }
+        return Optional.of(entry);
+    }
+
+    private ChangeLogEntry appendFromTable(Connection conn, String operation, Route route) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(getDialect().appendLogSql())) {
+            ps.setString(1, operation);
+            ps.setString(2, ClusterChannel.NODE_ID);
+            ps.setLong(3, route.getId());
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return logged(conn, rs.getLong(1), operation, rs.getTimestamp(2), route);
+            }
+        }
+    }
+
+    private ChangeLogEntry logged(Connection conn, long seq, String operation, Timestamp changedAt, Route route)
+            throws SQLException {
+        publishChange(conn, seq);
+        return new ChangeLogEntry(seq, operation, ClusterChannel.NODE_ID, toZoned(changedAt), route);
+    }
+
+    private static void bindRouteColumns(PreparedStatement ps, Route route) throws SQLException {
+        bindRouteColumns(ps, 1, route);
+    }
+
+    // 12 колонок ROUTE_COLUMNS начиная с параметра first
+    private static void bindRouteColumns(PreparedStatement ps, int first, Route route) throws SQLException {
+        ps.setTimestamp(first, route.getCreationDate() == null ? null : Timestamp.from(route.getCreationDate().toInstant()));
+        ps.setInt(first + 1, route.getDistance());
+        ps.setString(first + 2, route.getName());
+        ps.setLong(first + 3, route.getRating());
+
+        if (route.getCoordinates() != null) {
+            ps.setDouble(first + 4, route.getCoordinates().getX());
+            ps.setFloat(first + 5, route.getCoordinates().getY());
+        } else {
+            ps.setNull(first + 4, Types.DOUBLE);
+            ps.setNull(first + 5, Types.FLOAT);
+        }
+
+        if (route.getFrom() != null) {
+            ps.setString(first + 6, route.getFrom().getName());
+            ps.setLong(first + 7, route.getFrom().getX());
+            if (route.getFrom().getY() != null) ps.setInt(first + 8, route.getFrom().getY());
+            else ps.setNull(first + 8, Types.INTEGER);
+        } else {
+            ps.setNull(first + 6, Types.VARCHAR);
+            ps.setNull(first + 7, Types.BIGINT);
+            ps.setNull(first + 8, Types.INTEGER);
+        }
+
+        if (route.getTo() != null) {
+            ps.setString(first + 9, route.getTo().getName());
+            ps.setLong(first + 10, route.getTo().getX());
+            if (route.getTo().getY() != null) ps.setInt(first + 11, route.getTo().getY());
+            else ps.setNull(first + 11, Types.INTEGER);
+        } else {
+            ps.setNull(first + 9, Types.VARCHAR);
+            ps.setNull(first + 10, Types.BIGINT);
+            ps.setNull(first + 11, Types.INTEGER);
+        }
+    }
+
+    /**
+     * Отдельное соединение для LISTEN: по routes.cluster.listen-url в обход пула, иначе из DataSource.
+     */
+    @Override
+    public Connection openListenConnection() throws SQLException {
+        String url = settings.get("routes.cluster.listen-url", null);
+        if (url != null) {
+            return DriverManager.getConnection(url,
+                    settings.get("routes.cluster.listen-user", null),
+                    settings.get("routes.cluster.listen-password", null));
+        }
+        Connection conn = getDataSource().getConnection();
+        conn.setAutoCommit(true);
+        return conn;
+    }
+
+    // Сообщить другим узлам о новой записи журнала; NOTIFY доставляется при коммите транзакции
+    private void publishChange(Connection conn, long seq) throws SQLException {
+        if (!settings.getBoolean("routes.cluster.enabled", true) || !getDialect().supportsNotify()) return;
+        try (PreparedStatement ps = conn.prepareStatement("SELECT pg_notify(?, ?)")) {
+            ps.setString(1, ClusterChannel.CHANNEL);
+            ps.setString(2, ClusterChannel.encode(seq));
+            ps.execute();
+        }
+    }
+
+    /**
+     * Проверка доступности основной БД для /api/health/ready: null, если соединение живое, иначе текст ошибки
+     */
+    @Override
+    public String ping(int timeoutSeconds) {
+        try (Connection conn = getDataSource().getConnection()) {
+            return conn.isValid(timeoutSeconds) ? null : "connection is not valid";
+        } catch (SQLException | RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Оценка числа строк по статистике планировщика (pg_class.reltuples), без сканирования таблицы;
+     * на H2 — точный COUNT(*). Возвращает -1, если таблица ещё ни разу не анализировалась.
+     */
+    @Override
+    public long estimateCount() {
+        String sql = getDialect().estimateCountSql();
+        try (Connection conn = getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to estimate routes count via JDBC", e);
+        }
+    }
+
+
+    private Route mapRowToRoute(ResultSet rs) throws SQLException {
+        Route r = new Route();
+        r.setId(rs.getObject("id") == null ? null : rs.getLong("id"));
+        r.setName(rs.getString("name"));
+
+        r.setCreationDate(toZoned(rs.getObject("creation_date", OffsetDateTime.class)));
+
+        double coordX = rs.getDouble("coordinate_x");
+        boolean coordXNull = rs.wasNull();
+        float coordY = rs.getFloat("coordinate_y");
+        boolean coordYNull = rs.wasNull();
+        if (!coordXNull || !coordYNull) {
+            Coordinates c = new Coordinates();
+            if (!coordXNull) c.setX(coordX);
+            if (!coordYNull) c.setY(coordY);
+            r.setCoordinates(c);
+        }
+
+        String fromName = rs.getString("from_name");
+        if (fromName != null) {
+            Location from = new Location();
+            from.setName(fromName);
+            long fromX = rs.getLong("from_x");
+            if (!rs.wasNull()) from.setX(fromX);
+            int fromY = rs.getInt("from_y");
+            if (!rs.wasNull()) from.setY(fromY);
+            r.setFrom(from);
+        }
+
+        String toName = rs.getString("to_name");
+        if (toName != null) {
+            Location to = new Location();
+            to.setName(toName);
+            long toX = rs.getLong("to_x");
+            if (!rs.wasNull()) to.setX(toX);
+            int toY = rs.getInt("to_y");
+            if (!rs.wasNull()) to.setY(toY);
+            r.setTo(to);
+        }
+
+        r.setDistance(rs.getInt("distance"));
+        r.setRating(rs.getObject("rating") == null ? null : rs.getLong("rating"));
+        return r;
+    }
+
+    private static ZonedDateTime toZoned(Timestamp t) {
+        return t == null ? null : ZonedDateTime.ofInstant(t.toInstant(), ZONE);
+    }
+
+    private static ZonedDateTime toZoned(OffsetDateTime t) {
+        return t == null ? null : t.atZoneSameInstant(ZONE);
+    }
+}
@@ -0,0 +1,178 @@
+package backend.repository;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничения одного HTTP-запроса для его запросов к БД: таймаут каждого SQL-запроса и общий срок.
+ * Ресурс делает контекст текущим для потока (bind), а TrackedDataSource выставляет каждому Statement
+ * этого потока setQueryTimeout по меньшему из таймаута и остатка срока. cancel() (клиент ушёл) и expire()
+ * (истёк срок) отменяют открытые Statement через Statement.cancel() и не дают начать новые.
+ */
+public final class QueryContext {
+
+    // SQLSTATE отменённого запроса: так завершаются и cancel(), и истёкший таймаут (Postgres, H2)
+    private static final String QUERY_CANCELED = "57014";
+
+    private static final ThreadLocal<QueryContext> current = new ThreadLocal<>();
+
+    private static final AtomicLong timedOut = new AtomicLong();
+    private static final AtomicLong cancelled = new AtomicLong();
+
+    private final String endpoint;
+    private final long statementTimeoutMs;
+    private final long deadlineNanos;
+    private final Set<Statement> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelRequested = false;
+    private volatile boolean expired = false;
+
+    /**
+     * @param statementTimeoutMs предел одного SQL-запроса, 0 — без предела
+     * @param deadlineMs         срок всего HTTP-запроса от текущего момента, 0 — без срока
+     */
+    public QueryContext(String endpoint, long statementTimeoutMs, long deadlineMs) {
+        this.endpoint = endpoint;
+        this.statementTimeoutMs = Math.max(0, statementTimeoutMs);
+        this.deadlineNanos = deadlineMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : 0;
+    }
+
+    /**
+     * Контекст текущего потока или null
+     */
+    public static QueryContext current() {
+        return current.get();
+    }
+
+    /**
+     * Сделать контекст текущим для потока до закрытия Scope
+     */
+    public Scope bind() {
+        QueryContext previous = current.get();
+        current.set(this);
+        return () -> {
+            if (previous == null) current.remove();
+            else current.set(previous);
+        };
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Отменить выполняющиеся запросы к БД; следующие сразу завершатся ошибкой
+     */
+    public void cancel() {
+        cancelRequested = true;
+        for (Statement st : open) {
+            try {
+                st.cancel();
+            } catch (SQLException ignored) {
+                // Statement уже закрыт или драйвер не умеет отменять: запрос остановит таймаут
+            }
+        }
+    }
+
+    /**
+     * Истёк срок HTTP-запроса: то же, что cancel(), но прерванные запросы считаются таймаутом
+     */
+    public void expire() {
+        if (!cancelRequested) expired = true;
+        cancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    /**
+     * Запросы остановлены потому, что клиент ушёл (cancel()), а не по сроку
+     */
+    public boolean isAbandoned() {
+        return cancelRequested && !expired;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    void register(Statement st) {
+        open.add(st);
+    }
+
+    void release(Statement st) {
+        open.remove(st);
+    }
+
+    // перед каждым execute*: срок ещё не истёк, таймаут — по меньшему из двух
+    void beforeExecute(Statement st) throws SQLException {
+        if (cancelRequested) {
+            if (expired) {
+                timedOut.incrementAndGet();
+                throw new SQLTimeoutException("Request deadline exceeded for " + endpoint, QUERY_CANCELED);
+            }
+            cancelled.incrementAndGet();
+            throw new SQLException("Query cancelled for " + endpoint + ": request was abandoned", QUERY_CANCELED);
+        }
+        long timeoutMs = statementTimeoutMs;
+        if (deadlineNanos != 0) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMs <= 0) {
+                timedOut.incrementAndGet();
+                throw new SQLTimeoutException("Request deadline exceeded for " + endpoint, QUERY_CANCELED);
+            }
+            timeoutMs = timeoutMs == 0 ? remainingMs : Math.min(timeoutMs, remainingMs);
+        }
+        // JDBC считает таймаут в секундах; 0 означал бы «без предела»
+        if (timeoutMs > 0) st.setQueryTimeout((int) Math.max(1, (timeoutMs + 999) / 1000));
+    }
+
+    // предел ожидания работы, которую за этот запрос выполняет другой поток (пачка группового коммита):
+    // меньшее из таймаута и остатка срока, 0 — без предела
+    long waitLimitMs() {
+        long limitMs = statementTimeoutMs;
+        if (deadlineNanos != 0) {
+            long remainingMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+            limitMs = limitMs == 0 ? remainingMs : Math.min(limitMs, remainingMs);
+        }
+        return limitMs;
+    }
+
+    void afterFailure(SQLException e) {
+        if (!isCancelledQuery(e)) return;
+        if (isAbandoned()) cancelled.incrementAndGet();
+        else timedOut.incrementAndGet();
+    }
+
+    /**
+     * Ошибка (или одна из её причин) — отменённый или прерванный по таймауту запрос к БД
+     */
+    public static boolean isCancelledQuery(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTimeoutException) return true;
+            if (t instanceof SQLException && QUERY_CANCELED.equals(((SQLException) t).getSQLState())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Запросы к БД, прерванные таймаутом или сроком HTTP-запроса
+     */
+    public static long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * Запросы к БД, отменённые из-за ушедшего клиента
+     */
+    public static long getCancelled() {
+        return cancelled.get();
+    }
+}
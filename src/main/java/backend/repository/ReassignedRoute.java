@@ -0,0 +1,29 @@
+package backend.repository;
+
+/**
+ * Маршрут, перепривязанный на другую локацию: запись журнала и какие из концов (from/to) были заменены.
+ */
+public class ReassignedRoute {
+
+    private final ChangeLogEntry entry;
+    private final boolean fromReplaced;
+    private final boolean toReplaced;
+
+    public ReassignedRoute(ChangeLogEntry entry, boolean fromReplaced, boolean toReplaced) {
+        this.entry = entry;
+        this.fromReplaced = fromReplaced;
+        this.toReplaced = toReplaced;
+    }
+
+    public ChangeLogEntry getEntry() {
+        return entry;
+    }
+
+    public boolean isFromReplaced() {
+        return fromReplaced;
+    }
+
+    public boolean isToReplaced() {
+        return toReplaced;
+    }
+}
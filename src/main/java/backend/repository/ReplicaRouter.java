@@ -0,0 +1,184 @@
+package backend.repository;
+
+import backend.config.AppSettings;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выбор реплики для читающих запросов. Реплика (routes.replica.jndi) используется, пока периодическая проверка
+ * считает её пригодной: соединение есть и она догнала основную БД по журналу route_changes либо отстаёт
+ * не больше routes.replica.max-lag-ms. При ошибке соединения запросы сразу уходят на основную БД.
+ * Поток можно закрепить за основной БД (read-your-writes) — см. ReadYourWritesFilter.
+ * Для ответов с ETag поток требует seq журнала не меньше версии ETag (requireSeq): реплика, которая до него
+ * ещё не дошла, для этого чтения пропускается, иначе ответ оказался бы старше своего ETag.
+ */
+@ApplicationScoped
+public class ReplicaRouter {
+
+    private static final ThreadLocal<Boolean> pinnedToPrimary = new ThreadLocal<>();
+    private static final ThreadLocal<Long> requiredSeq = new ThreadLocal<>();
+
+    @Inject
+    private AppSettings settings;
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    private volatile TrackedDataSource replica;
+    private volatile boolean usable = false;
+    private volatile long replicaLagMs = -1;
+    // наибольший seq, который реплика уже точно видела (журнал на реплике только растёт)
+    private final AtomicLong replicaSeq = new AtomicLong();
+    private ScheduledExecutorService checker;
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object ignored) {
+        String jndi = settings.get("routes.replica.jndi", "");
+        if (jndi.isEmpty()) return;
+        long interval = Math.max(100, settings.getLong("routes.replica.check-interval-ms", 1000));
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-checker");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(() -> check(jndi), 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (checker != null) checker.shutdownNow();
+    }
+
+    /**
+     * Запросы текущего потока до unpin() идут только на основную БД
+     */
+    public static void pinToPrimary() {
+        pinnedToPrimary.set(Boolean.TRUE);
+    }
+
+    public static void unpin() {
+        pinnedToPrimary.remove();
+    }
+
+    public static boolean isPinnedToPrimary() {
+        return pinnedToPrimary.get() != null;
+    }
+
+    /**
+     * Чтения текущего потока до clearRequiredSeq() идут на реплику, только если она видит журнал до seq
+     */
+    public static void requireSeq(long seq) {
+        requiredSeq.set(seq);
+    }
+
+    public static void clearRequiredSeq() {
+        requiredSeq.remove();
+    }
+
+    public static Long getRequiredSeq() {
+        return requiredSeq.get();
+    }
+
+    /**
+     * Соединение с репликой для чтения или null, если читать нужно с основной БД
+     */
+    Connection readConnection() {
+        DataSource ds = replica;
+        if (ds == null || !usable || pinnedToPrimary.get() != null) return null;
+        Connection conn;
+        try {
+            conn = ds.getConnection();
+        } catch (SQLException e) {
+            usable = false;
+            System.err.println("Replica unavailable, reading from primary: " + e.getMessage());
+            return null;
+        }
+        Long required = requiredSeq.get();
+        if (required == null || required <= replicaSeq.get()) return conn;
+        // seq на том же соединении: дальше реплика может только догнать, но не откатиться
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM route_changes")) {
+            rs.next();
+            if (replicaSeq.accumulateAndGet(rs.getLong(1), Math::max) >= required) return conn;
+        } catch (SQLException e) {
+            System.err.println("Replica seq check failed, reading from primary: " + e.getMessage());
+        }
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+        return null;
+    }
+
+    public boolean isUsable() {
+        return replica != null && usable;
+    }
+
+    /**
+     * Использование пула реплики или null, если реплика не настроена
+     */
+    public TrackedDataSource getReplicaPool() {
+        return replica;
+    }
+
+    /**
+     * Отставание реплики по времени воспроизведения WAL на момент последней проверки; -1 — неизвестно
+     */
+    public long getReplicaLagMs() {
+        return replicaLagMs;
+    }
+
+    private void check(String jndi) {
+        try {
+            if (replica == null) replica = new TrackedDataSource(lookup(jndi));
+            // сначала seq основной БД: если реплика видит не меньше, она догнала момент проверки
+            long primarySeq = routeRepository.changeSeqBounds()[1];
+            String sql = "SELECT pg_is_in_recovery(), " +
+                    "COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0), " +
+                    "(SELECT COALESCE(MAX(seq), 0) FROM route_changes)";
+            try (Connection conn = replica.getConnection();
+                 Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery(sql)) {
+                rs.next();
+                boolean standby = rs.getBoolean(1);
+                long lag = standby ? rs.getLong(2) : 0;
+                long replicaSeq = rs.getLong(3);
+                this.replicaSeq.accumulateAndGet(replicaSeq, Math::max);
+                long maxLag = settings.getLong("routes.replica.max-lag-ms", 5000);
+                boolean ok = replicaSeq >= primarySeq || lag <= maxLag;
+                if (ok != usable) {
+                    System.out.println("Replica " + (ok ? "enabled" : "disabled") + ": lag " + lag
+                            + " ms, seq " + replicaSeq + "/" + primarySeq);
+                }
+                replicaLagMs = lag;
+                usable = ok;
+            }
+        } catch (SQLException | NamingException | RuntimeException e) {
+            if (usable) System.err.println("Replica check failed, reading from primary: " + e.getMessage());
+            usable = false;
+            replicaLagMs = -1;
+        }
+    }
+
+    private static DataSource lookup(String jndi) throws NamingException {
+        Object looked = new InitialContext().lookup(jndi);
+        if (!(looked instanceof DataSource)) {
+            throw new NamingException("JNDI lookup returned non-DataSource object for " + jndi + ": " + looked);
+        }
+        return (DataSource) looked;
+    }
+}
@@ -0,0 +1,62 @@
+package backend.repository;
+
+import backend.entities.Location;
+import backend.entities.Route;
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Формат routes_archive.payload: gzip строк JSON, по одному маршруту на строку,
+ * поля как в REST API плюс id и creationDate (ISO-8601).
+ */
+final class RouteArchiveCodec {
+
+    private RouteArchiveCodec() {
+    }
+
+    static byte[] encode(List<ChangeLogEntry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 64);
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            for (ChangeLogEntry entry : entries) {
+                out.write(toJson(entry.getRoute()));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String toJson(Route r) {
+        JsonObjectBuilder b = Json.createObjectBuilder()
+                .add("id", r.getId())
+                .add("name", r.getName())
+                .add("creationDate", r.getCreationDate().toOffsetDateTime().toString())
+                .add("distance", r.getDistance())
+                .add("rating", r.getRating());
+        if (r.getCoordinates() != null) {
+            b.add("coordinates", Json.createObjectBuilder()
+                    .add("x", r.getCoordinates().getX())
+                    .add("y", r.getCoordinates().getY()));
+        }
+        addLocation(b, "from", r.getFrom());
+        addLocation(b, "to", r.getTo());
+        return b.build().toString();
+    }
+
+    private static void addLocation(JsonObjectBuilder b, String field, Location l) {
+        if (l == null) return;
+        JsonObjectBuilder lb = Json.createObjectBuilder().add("x", l.getX()).add("name", l.getName());
+        if (l.getY() != null) lb.add("y", l.getY());
+        b.add(field, lb);
+    }
+}
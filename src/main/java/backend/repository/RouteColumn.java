@@ -0,0 +1,166 @@
+package backend.repository;
+
+import backend.entities.Route;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Изменяемые колонки таблицы routes и поле Route, к которому они относятся.
+ * Используется для частичных UPDATE, где в SET попадают только изменившиеся колонки.
+ */
+public enum RouteColumn {
+
+    NAME("name", "name") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getName();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            ps.setString(index, r.getName());
+        }
+    },
+    COORDINATE_X("coordinate_x", "coordinates") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getCoordinates() == null ? null : r.getCoordinates().getX();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getCoordinates() != null) ps.setDouble(index, r.getCoordinates().getX());
+            else ps.setNull(index, Types.DOUBLE);
+        }
+    },
+    COORDINATE_Y("coordinate_y", "coordinates") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getCoordinates() == null ? null : r.getCoordinates().getY();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getCoordinates() != null) ps.setFloat(index, r.getCoordinates().getY());
+            else ps.setNull(index, Types.FLOAT);
+        }
+    },
+    FROM_NAME("from_name", "from") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getFrom() == null ? null : r.getFrom().getName();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            ps.setString(index, r.getFrom() == null ? null : r.getFrom().getName());
+        }
+    },
+    FROM_X("from_x", "from") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getFrom() == null ? null : r.getFrom().getX();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getFrom() != null) ps.setLong(index, r.getFrom().getX());
+            else ps.setNull(index, Types.BIGINT);
+        }
+    },
+    FROM_Y("from_y", "from") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getFrom() == null ? null : r.getFrom().getY();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getFrom() != null && r.getFrom().getY() != null) ps.setInt(index, r.getFrom().getY());
+            else ps.setNull(index, Types.INTEGER);
+        }
+    },
+    TO_NAME("to_name", "to") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getTo() == null ? null : r.getTo().getName();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            ps.setString(index, r.getTo() == null ? null : r.getTo().getName());
+        }
+    },
+    TO_X("to_x", "to") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getTo() == null ? null : r.getTo().getX();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getTo() != null) ps.setLong(index, r.getTo().getX());
+            else ps.setNull(index, Types.BIGINT);
+        }
+    },
+    TO_Y("to_y", "to") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getTo() == null ? null : r.getTo().getY();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getTo() != null && r.getTo().getY() != null) ps.setInt(index, r.getTo().getY());
+            else ps.setNull(index, Types.INTEGER);
+        }
+    },
+    DISTANCE("distance", "distance") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getDistance();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            ps.setInt(index, r.getDistance());
+        }
+    },
+    RATING("rating", "rating") {
+        @Override
+        public Object valueOf(Route r) {
+            return r.getRating();
+        }
+
+        @Override
+        void bind(PreparedStatement ps, int index, Route r) throws SQLException {
+            if (r.getRating() != null) ps.setLong(index, r.getRating());
+            else ps.setNull(index, Types.BIGINT);
+        }
+    };
+
+    private final String column;
+    private final String field;
+
+    RouteColumn(String column, String field) {
+        this.column = column;
+        this.field = field;
+    }
+
+    public String column() {
+        return column;
+    }
+
+    /**
+     * Имя поля Route (в JSON), которому принадлежит колонка
+     */
+    public String field() {
+        return field;
+    }
+
+    public abstract Object valueOf(Route r);
+
+    abstract void bind(PreparedStatement ps, int index, Route r) throws SQLException;
+}
@@ -0,0 +1,180 @@
+package backend.repository;
+
+import backend.config.AppSettings;
+import backend.entities.Route;
+
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Групповой коммит создания маршрутов. Одновременные INSERT копятся до routes.group-commit.window-ms
+ * или до routes.group-commit.max-batch штук и пишутся одним многострочным INSERT в одной транзакции;
+ * вызывающий поток ждёт свою запись журнала, но не дольше таймаута запроса. Пачки пишет один поток: пока пишется
+ * одна, копится следующая, так что под нагрузкой коммитов (и fsync WAL) в разы меньше, а задержка ограничена окном
+ * и временем одной пачки.
+ */
+final class RouteInsertBatcher {
+
+    // 13 параметров на строку, у Postgres не больше 65535 параметров в запросе
+    private static final int MAX_ROWS = 1000;
+
+    private static final class Pending {
+        final Route route;
+        final CompletableFuture<ChangeLogEntry> result = new CompletableFuture<>();
+
+        Pending(Route route) {
+            this.route = route;
+        }
+    }
+
+    private final JdbcRouteRepository repository;
+    private final AppSettings settings;
+    private final ScheduledExecutorService writer;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+    // flush без задержки уже стоит в очереди потока: следующие вызовы только докладывают в pending
+    private boolean flushQueued = false;
+    private boolean closed = false;
+
+    RouteInsertBatcher(JdbcRouteRepository repository, AppSettings settings) {
+        this.repository = repository;
+        this.settings = settings;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-group-commit");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Поставить маршрут в ближайшую пачку и дождаться её коммита
+     */
+    ChangeLogEntry submit(Route route) {
+        Pending mine = new Pending(route);
+        synchronized (lock) {
+            if (closed) return repository.insertOne(route);
+            pending.add(mine);
+            long window = settings.getLong("routes.group-commit.window-ms", 2);
+            if (pending.size() >= maxBatch() || window <= 0) {
+                if (!flushQueued) {
+                    writer.execute(this::flush);
+                    flushQueued = true;
+                    flushScheduled = true;
+                }
+            } else if (!flushScheduled) {
+                writer.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
+            }
+        }
+        long waitMs = waitLimitMs();
+        try {
+            if (waitMs <= 0) return mine.result.get();
+            try {
+                return mine.result.get(waitMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                synchronized (lock) {
+                    pending.remove(mine);
+                }
+                // пишущий поток пропускает завершённые записи; если пачка успела закоммитить, get ниже вернёт её результат
+                mine.result.completeExceptionally(new SQLTimeoutException(
+                        "Timed out after " + waitMs + " ms waiting for route insert to commit"));
+                return mine.result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for route insert to commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException("Failed to insert route via JDBC", cause);
+        }
+    }
+
+    // сколько ждать коммита: таймаут SQL-запроса или остаток срока HTTP-запроса (QueryContext),
+    // без контекста — routes.query.timeout-ms; плюс окно накопления пачки. 0 — без предела
+    private long waitLimitMs() {
+        QueryContext context = QueryContext.current();
+        long limitMs = context != null ? context.waitLimitMs() : settings.getLong("routes.query.timeout-ms", 5000);
+        if (limitMs <= 0) return 0;
+        return limitMs + Math.max(0, settings.getLong("routes.group-commit.window-ms", 2));
+    }
+
+    private int maxBatch() {
+        return Math.max(1, Math.min(MAX_ROWS, settings.getInt("routes.group-commit.max-batch", 100)));
+    }
+
+    private void flush() {
+        List<Pending> batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            flushQueued = false;
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        // вызывающий уже не ждёт (истёк таймаут) — такие маршруты не пишутся
+        batch.removeIf(p -> p.result.isDone());
+        int size = maxBatch();
+        for (int from = 0; from < batch.size(); from += size) {
+            write(batch.subList(from, Math.min(batch.size(), from + size)));
+        }
+    }
+
+    private void write(List<Pending> part) {
+        try {
+            if (part.size() == 1) {
+                Pending only = part.get(0);
+                only.result.complete(repository.insertOne(only.route));
+                return;
+            }
+            List<Route> routes = new ArrayList<>(part.size());
+            for (Pending p : part) routes.add(p.route);
+            List<ChangeLogEntry> entries;
+            try {
+                entries = repository.insertMany(routes);
+            } catch (RuntimeException e) {
+                // пачка откатилась целиком; по одному, чтобы ошибка одной строки не досталась остальным
+                for (Pending p : part) {
+                    try {
+                        p.result.complete(repository.insertOne(p.route));
+                    } catch (RuntimeException one) {
+                        p.result.completeExceptionally(one);
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < part.size(); i++) part.get(i).result.complete(entries.get(i));
+        } catch (RuntimeException | Error e) {
+            for (Pending p : part) p.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Дописать уже принятые пачки и остановить поток; дальнейшие INSERT идут напрямую
+     */
+    void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+        // отложенные flush выполняются и после shutdown
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Route group commit did not finish pending inserts in 30 s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package backend.repository;
+
+import backend.entities.Coordinates;
+import backend.entities.Location;
+import backend.entities.Route;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Двоичный формат маршрутов и записей журнала во встроенном хранилище (журнал упреждающей записи и снимки).
+ * Пишется через DataOutput, читается из ByteBuffer (в том числе отображённого в память); порядок байт big-endian.
+ * Даты хранятся как Instant и читаются в системной зоне — так же, как их возвращает JDBC-реализация.
+ */
+final class RouteRecordCodec {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final String[] OPERATIONS = {"created", "updated", "deleted"};
+
+    private static final int HAS_COORDINATES = 1;
+    private static final int HAS_FROM = 2;
+    private static final int HAS_TO = 4;
+    private static final int HAS_RATING = 8;
+
+    private static final int HAS_Y = 1;
+
+    private RouteRecordCodec() {
+    }
+
+    static void writeEntry(DataOutput out, ChangeLogEntry entry) throws IOException {
+        out.writeLong(entry.getSeq());
+        out.writeByte(operationCode(entry.getOperation()));
+        writeString(out, entry.getNodeId());
+        writeInstant(out, entry.getChangedAt().toInstant());
+        writeRoute(out, entry.getRoute());
+    }
+
+    static ChangeLogEntry readEntry(ByteBuffer in) {
+        long seq = in.getLong();
+        String operation = OPERATIONS[in.get()];
+        String nodeId = readString(in);
+        ZonedDateTime changedAt = ZonedDateTime.ofInstant(readInstant(in), ZONE);
+        return new ChangeLogEntry(seq, operation, nodeId, changedAt, readRoute(in));
+    }
+
+    static void writeRoute(DataOutput out, Route r) throws IOException {
+        int flags = (r.getCoordinates() != null ? HAS_COORDINATES : 0)
+                | (r.getFrom() != null ? HAS_FROM : 0)
+                | (r.getTo() != null ? HAS_TO : 0)
+                | (r.getRating() != null ? HAS_RATING : 0);
+        out.writeByte(flags);
+        out.writeLong(r.getId());
+        writeString(out, r.getName());
+        writeInstant(out, r.getCreationDate().toInstant());
+        out.writeInt(r.getDistance());
+        if (r.getRating() != null) out.writeLong(r.getRating());
+        if (r.getCoordinates() != null) {
+            out.writeDouble(r.getCoordinates().getX());
+            out.writeFloat(r.getCoordinates().getY());
+        }
+        if (r.getFrom() != null) writeLocation(out, r.getFrom());
+        if (r.getTo() != null) writeLocation(out, r.getTo());
+    }
+
+    static Route readRoute(ByteBuffer in) {
+        int flags = in.get();
+        Route r = new Route();
+        r.setId(in.getLong());
+        r.setName(readString(in));
+        r.setCreationDate(ZonedDateTime.ofInstant(readInstant(in), ZONE));
+        r.setDistance(in.getInt());
+        if ((flags & HAS_RATING) != 0) r.setRating(in.getLong());
+        if ((flags & HAS_COORDINATES) != 0) r.setCoordinates(new Coordinates(in.getDouble(), in.getFloat()));
+        if ((flags & HAS_FROM) != 0) r.setFrom(readLocation(in));
+        if ((flags & HAS_TO) != 0) r.setTo(readLocation(in));
+        return r;
+    }
+
+    private static void writeLocation(DataOutput out, Location l) throws IOException {
+        writeString(out, l.getName());
+        out.writeLong(l.getX());
+        out.writeByte(l.getY() != null ? HAS_Y : 0);
+        if (l.getY() != null) out.writeInt(l.getY());
+    }
+
+    private static Location readLocation(ByteBuffer in) {
+        String name = readString(in);
+        long x = in.getLong();
+        Integer y = (in.get() & HAS_Y) != 0 ? in.getInt() : null;
+        return new Location(x, y, name);
+    }
+
+    private static void writeInstant(DataOutput out, Instant t) throws IOException {
+        out.writeLong(t.getEpochSecond());
+        out.writeInt(t.getNano());
+    }
+
+    private static Instant readInstant(ByteBuffer in) {
+        long seconds = in.getLong();
+        return Instant.ofEpochSecond(seconds, in.getInt());
+    }
+
+    // длина в байтах UTF-8, -1 — null
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int operationCode(String operation) {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (OPERATIONS[i].equals(operation)) return i;
+        }
+        throw new IllegalArgumentException("Unknown change operation: " + operation);
+    }
+}
@@ -1,532 +1,173 @@
 package backend.repository;
 
-import backend.entities.Route;
-import backend.entities.Coordinates;
 import backend.entities.Location;
+import backend.entities.Route;
 
-import jakarta.enterprise.context.ApplicationScoped;
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-import javax.sql.DataSource;
-import java.sql.*;
-import java.time.ZoneId;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.YearMonth;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Хранилище маршрутов и журнала изменений. Реализация выбирается по routes.storage
+ * (см. RouteRepositoryProducer): jdbc — Postgres/H2 через DataSource, embedded — файлы на локальном диске.
+ * Поиск по именам — подстрока без учёта регистра с шаблонами LIKE (% и _), как в SQL-реализации.
+ */
+public interface RouteRepository {
+
+    /**
+     * Пул соединений основной БД; null, если хранилище работает без БД (embedded).
+     * Первый вызов, как и любой другой метод, открывает хранилище.
+     */
+    TrackedDataSource getPrimaryPool();
+
+    /**
+     * Сохранить маршрут (без id — вставка, иначе полная замена) и в той же транзакции дописать запись в журнал.
+     * При вставке id и creationDate проставляются в переданный объект. Для отсутствующего id — запись с seq 0.
+     */
+    ChangeLogEntry save(Route route);
+
+    /**
+     * Записать только перечисленные колонки маршрута (остальные не трогаются, даже если их успели изменить
+     * параллельно) и дописать в журнал получившуюся строку целиком. Пустой Optional — маршрута уже нет.
+     */
+    Optional<ChangeLogEntry> updateColumns(Route route, Set<RouteColumn> columns);
+
+    Optional<ChangeLogEntry> delete(Long id);
+
+    Optional<Route> findById(Long id);
+
+    /**
+     * Маршруты с данными id в порядке id; отсутствующих в ответе нет
+     */
+    List<Route> findByIds(Collection<Long> ids);
+
+    List<Route> findAll();
+
+    List<Route> findAll(int page, int size);
+
+    /**
+     * Страница маршрутов, созданных в [createdFrom, createdTo) (null — граница не задана)
+     */
+    List<Route> findAll(int page, int size, ZonedDateTime createdFrom, ZonedDateTime createdTo);
+
+    List<Route> findByNameContaining(String name, ZonedDateTime createdFrom, ZonedDateTime createdTo);
+
+    long countCreatedBetween(ZonedDateTime createdFrom, ZonedDateTime createdTo);
+
+    /**
+     * limit последних созданных маршрутов, от новых к старым
+     */
+    List<Route> findRecent(int limit);
+
+    long count();
+
+    List<Route> findByNameContaining(String name);
+
+    List<Route> findByRatingGreaterThan(Long rating);
+
+    long countByRatingGreaterThan(Long rating);
+
+    List<Long> findDistinctRatings();
+
+    List<Route> findByFromLocation(String fromName);
+
+    List<Route> findByToLocation(String toName);
+
+    /**
+     * Маршруты между локациями, по возрастанию distance
+     */
+    List<Route> findByLocations(String fromName, String toName);
+
+    /**
+     * Все маршруты по возрастанию id, без списка в памяти (фоновые выгрузки).
+     * visitor возвращает false, чтобы остановить чтение; результат — число переданных маршрутов.
+     */
+    long forEachRoute(Predicate<Route> visitor);
+
+    /**
+     * То же, что findByLocations, но через visitor
+     */
+    long forEachByLocations(String fromName, String toName, Predicate<Route> visitor);
+
+    Optional<Route> findShortestRoute(String fromName, String toName);
+
+    Optional<Route> findLongestRoute(String fromName, String toName);
+
+    List<Route> findWithinBox(double minX, double minY, double maxX, double maxY, int limit);
+
+    List<Route> findNearest(double x, double y, int k);
+
+    /**
+     * k ближайших к точке различных локаций (from и to), от ближней к дальней
+     */
+    List<Location> findNearestLocations(double x, double y, int k);
+
+    /**
+     * Удалить один объект с заданным rating
+     */
+    Optional<ChangeLogEntry> deleteByRating(Long rating);
+
+    /**
+     * Перепривязать все маршруты, у которых from или to совпадает с location (name, x, y), на replacement,
+     * одной транзакцией. Возвращает записи журнала по каждому изменённому маршруту в порядке seq.
+     */
+    List<ReassignedRoute> reassignLocation(Location location, Location replacement);
+
+    /**
+     * Изменения журнала с номером больше since, по возрастанию seq
+     */
+    List<ChangeLogEntry> findChangesSince(long since, int limit);
+
+    /**
+     * Наименьший и наибольший seq, оставшиеся в журнале после компактации; {0, 0} для пустого журнала
+     */
+    long[] changeSeqBounds();
+
+    /**
+     * Удалить из журнала записи старше maxAgeHours и всё, что не входит в последние maxRows записей.
+     * Последняя запись сохраняется всегда, чтобы по границам журнала было видно, что часть истории удалена.
+     */
+    int compactChanges(long maxAgeHours, long maxRows);
+
+    boolean isPartitioned();
+
+    /**
+     * Создать помесячные секции routes с текущего месяца на monthsAhead вперёд (существующие не трогаются)
+     */
+    void ensureFuturePartitions(int monthsAhead);
+
+    /**
+     * Помесячные секции, целиком лежащие раньше месяца cutoff, от старых к новым
+     * (включая уже отсоединённые, но не дочищенные прерванным архивированием)
+     */
+    List<String> findPartitionsBefore(YearMonth cutoff);
+
+    /**
+     * Перенести секцию в архив порциями по chunkRows маршрутов и удалить её; маршруты секции попадают
+     * в журнал как deleted. archived получает записи журнала каждой порции после её коммита.
+     * Возвращает число перенесённых маршрутов
+     */
+    int archivePartition(String partition, int chunkRows, Consumer<List<ChangeLogEntry>> archived);
+
+    /**
+     * Соединение для LISTEN изменений других узлов; null, если хранилище их не рассылает (embedded)
+     */
+    Connection openListenConnection() throws SQLException;
+
+    /**
+     * Проверка доступности хранилища для /api/health/ready: null, если оно работает, иначе текст ошибки
+     */
+    String ping(int timeoutSeconds);
 
-@ApplicationScoped
-public class RouteRepository {
-
-    private volatile DataSource dataSource;
-
-    private volatile boolean schemaInitialized = false;
-
-    private static final String[] JNDI_NAMES = new String[] {
-        "java:jboss/datasources/studs",
-        "java:jboss/datasources/PostgresDS",
-        "java:/jdbc/studs",
-        "java:comp/DefaultDataSource"
-    };
-
-    private DataSource getDataSource() {
-        if (dataSource == null) {
-            synchronized (this) {
-                if (dataSource == null) {
-                    NamingException lastEx = null;
-                    for (String name : JNDI_NAMES) {
-                        try {
-                            InitialContext ic = new InitialContext();
-                            Object looked = ic.lookup(name);
-                            if (looked instanceof DataSource) {
-                                dataSource = (DataSource) looked;
-                                try (Connection conn = dataSource.getConnection()) {
-                                    conn.setAutoCommit(true);
-                                    ensureSchemaExists(conn);
-                                } catch (SQLException e) {
-                                    throw new RuntimeException("Failed to initialize DB schema after DataSource lookup", e);
-                                }
-                                break;
-                            } else {
-                                lastEx = new NamingException("JNDI lookup returned non-DataSource object for " + name + ": " + looked);
-                            }
-                        } catch (NamingException e) {
-                            lastEx = e;
-                        }
-                    }
-                    if (dataSource == null) {
-                        throw new RuntimeException("DataSource lookup failed for JNDI names " + String.join(", ", JNDI_NAMES),
-                                lastEx);
-                    }
-                }
-            }
-        }
-        return dataSource;
-    }
-
-    private void ensureSchemaExists(Connection conn) {
-        if (schemaInitialized) return;
-        synchronized (this) {
-            if (schemaInitialized) return;
-            String ddl = "CREATE TABLE IF NOT EXISTS routes (" +
-                    "id SERIAL PRIMARY KEY," +
-                    "creation_date TIMESTAMP WITH TIME ZONE NOT NULL," +
-                    "distance INTEGER NOT NULL," +
-                    "name VARCHAR(255) NOT NULL," +
-                    "rating BIGINT NOT NULL," +
-                    "coordinate_x DOUBLE PRECISION," +
-                    "coordinate_y REAL," +
-                    "from_name VARCHAR(255)," +
-                    "from_x BIGINT," +
-                    "from_y INTEGER," +
-                    "to_name VARCHAR(255)," +
-                    "to_x BIGINT," +
-                    "to_y INTEGER" +
-                    ")";
-            try (Statement st = conn.createStatement()) {
-                st.executeUpdate(ddl);
-                schemaInitialized = true;
-            } catch (SQLException e) {
-                System.err.println("Failed to create or verify routes table: " + e.getMessage());
-                throw new RuntimeException("Failed to create or verify routes table", e);
-            }
-        }
-    }
-
-    public Route save(Route route) {
-        if (route.getId() == null) {
-            if (route.getCreationDate() == null) {
-                route.setCreationDate(ZonedDateTime.now());
-            }
-            String sqlReturning = "INSERT INTO routes (creation_date, distance, name, rating, coordinate_x, coordinate_y, from_name, from_x, from_y, to_name, to_x, to_y) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
-            try (Connection conn = getDataSource().getConnection()) {
-                conn.setAutoCommit(true);
-                try (PreparedStatement ps = conn.prepareStatement(sqlReturning)) {
-                    ps.setTimestamp(1, Timestamp.from(route.getCreationDate().toInstant()));
-                    ps.setInt(2, route.getDistance());
-                    ps.setString(3, route.getName());
-                    ps.setLong(4, route.getRating());
-
-                    if (route.getCoordinates() != null) {
-                        ps.setDouble(5, route.getCoordinates().getX());
-                        ps.setFloat(6, route.getCoordinates().getY());
-                    } else {
-                        ps.setNull(5, Types.DOUBLE);
-                        ps.setNull(6, Types.FLOAT);
-                    }
-
-                    if (route.getFrom() != null) {
-                        ps.setString(7, route.getFrom().getName());
-                        ps.setLong(8, route.getFrom().getX());
-                        if (route.getFrom().getY() != null) ps.setInt(9, route.getFrom().getY());
-                        else ps.setNull(9, Types.INTEGER);
-                    } else {
-                        ps.setNull(7, Types.VARCHAR);
-                        ps.setNull(8, Types.BIGINT);
-                        ps.setNull(9, Types.INTEGER);
-                    }
-
-                    if (route.getTo() != null) {
-                        ps.setString(10, route.getTo().getName());
-                        ps.setLong(11, route.getTo().getX());
-                        if (route.getTo().getY() != null) ps.setInt(12, route.getTo().getY());
-                        else ps.setNull(12, Types.INTEGER);
-                    } else {
-                        ps.setNull(10, Types.VARCHAR);
-                        ps.setNull(11, Types.BIGINT);
-                        ps.setNull(12, Types.INTEGER);
-                    }
-
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            route.setId(rs.getLong(1));
-                            return route;
-                        }
-                    }
-                }
-            } catch (SQLException e) {
-                System.err.println("INSERT ... RETURNING failed: SQLState=" + e.getSQLState() + " ErrorCode=" + e.getErrorCode() + " Message=" + e.getMessage());
-            } catch (RuntimeException e) {
-                System.err.println("DataSource/connection error: " + e.getMessage());
-                throw e;
-            }
-
-            String sqlNoReturning = "INSERT INTO routes (creation_date, distance, name, rating, coordinate_x, coordinate_y, from_name, from_x, from_y, to_name, to_x, to_y) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            try (Connection conn = getDataSource().getConnection()) {
-                conn.setAutoCommit(true);
-                try (PreparedStatement ps = conn.prepareStatement(sqlNoReturning, Statement.RETURN_GENERATED_KEYS)) {
-                    ps.setTimestamp(1, Timestamp.from(route.getCreationDate().toInstant()));
-                    ps.setInt(2, route.getDistance());
-                    ps.setString(3, route.getName());
-                    ps.setLong(4, route.getRating());
-
-                    if (route.getCoordinates() != null) {
-                        ps.setDouble(5, route.getCoordinates().getX());
-                        ps.setFloat(6, route.getCoordinates().getY());
-                    } else {
-                        ps.setNull(5, Types.DOUBLE);
-                        ps.setNull(6, Types.FLOAT);
-                    }
-
-                    if (route.getFrom() != null) {
-                        ps.setString(7, route.getFrom().getName());
-                        ps.setLong(8, route.getFrom().getX());
-                        if (route.getFrom().getY() != null) ps.setInt(9, route.getFrom().getY());
-                        else ps.setNull(9, Types.INTEGER);
-                    } else {
-                        ps.setNull(7, Types.VARCHAR);
-                        ps.setNull(8, Types.BIGINT);
-                        ps.setNull(9, Types.INTEGER);
-                    }
-
-                    if (route.getTo() != null) {
-                        ps.setString(10, route.getTo().getName());
-                        ps.setLong(11, route.getTo().getX());
-                        if (route.getTo().getY() != null) ps.setInt(12, route.getTo().getY());
-                        else ps.setNull(12, Types.INTEGER);
-                    } else {
-                        ps.setNull(10, Types.VARCHAR);
-                        ps.setNull(11, Types.BIGINT);
-                        ps.setNull(12, Types.INTEGER);
-                    }
-
-                    int affected = ps.executeUpdate();
-                    if (affected == 0) {
-                        throw new RuntimeException("Insert returned 0 affected rows");
-                    }
-                    try (ResultSet keys = ps.getGeneratedKeys()) {
-                        if (keys != null && keys.next()) {
-                            route.setId(keys.getLong(1));
-                            return route;
-                        } else {
-                            // нет сгенерированного ключа — всё ещё ошибка
-                            throw new RuntimeException("No generated key returned after insert");
-                        }
-                    }
-                }
-            } catch (SQLException e) {
-                System.err.println("Fallback INSERT failed: SQLState=" + e.getSQLState() + " ErrorCode=" + e.getErrorCode() + " Message=" + e.getMessage());
-                throw new RuntimeException("Failed to insert route via JDBC", e);
-            }
-        } else {
-            String sql = "UPDATE routes SET creation_date = ?, distance = ?, name = ?, rating = ?, coordinate_x = ?, coordinate_y = ?, from_name = ?, from_x = ?, from_y = ?, to_name = ?, to_x = ?, to_y = ? WHERE id = ?";
-            try (Connection conn = getDataSource().getConnection();
-                 PreparedStatement ps = conn.prepareStatement(sql)) {
-                conn.setAutoCommit(true);
-                ps.setTimestamp(1, route.getCreationDate() == null ? null : Timestamp.from(route.getCreationDate().toInstant()));
-                ps.setInt(2, route.getDistance());
-                ps.setString(3, route.getName());
-                ps.setLong(4, route.getRating());
-
-                if (route.getCoordinates() != null) {
-                    ps.setDouble(5, route.getCoordinates().getX());
-                    ps.setFloat(6, route.getCoordinates().getY());
-                } else {
-                    ps.setNull(5, Types.DOUBLE);
-                    ps.setNull(6, Types.FLOAT);
-                }
-
-                if (route.getFrom() != null) {
-                    ps.setString(7, route.getFrom().getName());
-                    ps.setLong(8, route.getFrom().getX());
-                    if (route.getFrom().getY() != null) ps.setInt(9, route.getFrom().getY());
-                    else ps.setNull(9, Types.INTEGER);
-                } else {
-                    ps.setNull(7, Types.VARCHAR);
-                    ps.setNull(8, Types.BIGINT);
-                    ps.setNull(9, Types.INTEGER);
-                }
-
-                if (route.getTo() != null) {
-                    ps.setString(10, route.getTo().getName());
-                    ps.setLong(11, route.getTo().getX());
-                    if (route.getTo().getY() != null) ps.setInt(12, route.getTo().getY());
-                    else ps.setNull(12, Types.INTEGER);
-                } else {
-                    ps.setNull(10, Types.VARCHAR);
-                    ps.setNull(11, Types.BIGINT);
-                    ps.setNull(12, Types.INTEGER);
-                }
-
-                ps.setLong(13, route.getId());
-                ps.executeUpdate();
-                return route;
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed to update route via JDBC", e);
-            }
-        }
-    }
-
-    public void delete(Long id) {
-        String sql = "DELETE FROM routes WHERE id = ?";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setLong(1, id);
-            ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete route via JDBC", e);
-        }
-    }
-
-    public Optional<Route> findById(Long id) {
-        String sql = "SELECT * FROM routes WHERE id = ?";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setLong(1, id);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapRowToRoute(rs));
-                }
-                return Optional.empty();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find route by id via JDBC", e);
-        }
-    }
-
-    public List<Route> findAll() {
-        String sql = "SELECT * FROM routes ORDER BY id";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            List<Route> list = new ArrayList<>();
-            while (rs.next()) list.add(mapRowToRoute(rs));
-            return list;
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find all routes via JDBC", e);
-        }
-    }
-
-    public List<Route> findAll(int page, int size) {
-        String sql = "SELECT * FROM routes ORDER BY id LIMIT ? OFFSET ?";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, size);
-            ps.setInt(2, page * size);
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Route> list = new ArrayList<>();
-                while (rs.next()) list.add(mapRowToRoute(rs));
-                return list;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find paged routes via JDBC", e);
-        }
-    }
-
-    public long count() {
-        String sql = "SELECT COUNT(*) FROM routes";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            rs.next();
-            return rs.getLong(1);
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to count routes via JDBC", e);
-        }
-    }
-
-    public List<Route> findByNameContaining(String name) {
-        String sql = "SELECT * FROM routes WHERE LOWER(name) LIKE LOWER(?) ORDER BY id";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, "%" + name + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Route> list = new ArrayList<>();
-                while (rs.next()) list.add(mapRowToRoute(rs));
-                return list;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to search routes by name via JDBC", e);
-        }
-    }
-
-    public List<Route> findByRatingGreaterThan(Long rating) {
-        String sql = "SELECT * FROM routes WHERE rating > ? ORDER BY id";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setLong(1, rating);
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Route> list = new ArrayList<>();
-                while (rs.next()) list.add(mapRowToRoute(rs));
-                return list;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find routes by rating via JDBC", e);
-        }
-    }
-
-    public long countByRatingGreaterThan(Long rating) {
-        String sql = "SELECT COUNT(*) FROM routes WHERE rating > ?";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setLong(1, rating);
-            try (ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getLong(1);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to count by rating via JDBC", e);
-        }
-    }
-
-    public List<Long> findDistinctRatings() {
-        String sql = "SELECT DISTINCT rating FROM routes ORDER BY rating";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            List<Long> list = new ArrayList<>();
-            while (rs.next()) list.add(rs.getLong("rating"));
-            return list;
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find distinct ratings via JDBC", e);
-        }
-    }
-
-    public List<Route> findByFromLocation(String fromName) {
-        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) ORDER BY id";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, "%" + fromName + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Route> list = new ArrayList<>();
-                while (rs.next()) list.add(mapRowToRoute(rs));
-                return list;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find by from location via JDBC", e);
-        }
-    }
-
-    public List<Route> findByToLocation(String toName) {
-        String sql = "SELECT * FROM routes WHERE LOWER(to_name) LIKE LOWER(?) ORDER BY id";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, "%" + toName + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Route> list = new ArrayList<>();
-                while (rs.next()) list.add(mapRowToRoute(rs));
-                return list;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find by to location via JDBC", e);
-        }
-    }
-
-    public List<Route> findByLocations(String fromName, String toName) {
-        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, "%" + fromName + "%");
-            ps.setString(2, "%" + toName + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Route> list = new ArrayList<>();
-                while (rs.next()) list.add(mapRowToRoute(rs));
-                return list;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find routes by locations via JDBC", e);
-        }
-    }
-
-    public Optional<Route> findShortestRoute(String fromName, String toName) {
-        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance ASC LIMIT 1";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, "%" + fromName + "%");
-            ps.setString(2, "%" + toName + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return Optional.of(mapRowToRoute(rs));
-                return Optional.empty();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find shortest route via JDBC", e);
-        }
-    }
-
-    public Optional<Route> findLongestRoute(String fromName, String toName) {
-        String sql = "SELECT * FROM routes WHERE LOWER(from_name) LIKE LOWER(?) AND LOWER(to_name) LIKE LOWER(?) ORDER BY distance DESC LIMIT 1";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, "%" + fromName + "%");
-            ps.setString(2, "%" + toName + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return Optional.of(mapRowToRoute(rs));
-                return Optional.empty();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find longest route via JDBC", e);
-        }
-    }
-
-    // Удалить один объект с заданным rating
-    public boolean deleteByRating(Long rating) {
-        String select = "SELECT id FROM routes WHERE rating = ? LIMIT 1";
-        String delete = "DELETE FROM routes WHERE id = ?";
-        try (Connection conn = getDataSource().getConnection();
-             PreparedStatement psSel = conn.prepareStatement(select)) {
-            psSel.setLong(1, rating);
-            try (ResultSet rs = psSel.executeQuery()) {
-                if (!rs.next()) return false;
-                long id = rs.getLong(1);
-                try (PreparedStatement psDel = conn.prepareStatement(delete)) {
-                    psDel.setLong(1, id);
-                    int affected = psDel.executeUpdate();
-                    return affected > 0;
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete by rating via JDBC", e);
-        }
-    }
-
-
-    private Route mapRowToRoute(ResultSet rs) throws SQLException {
-        Route r = new Route();
-        r.setId(rs.getObject("id") == null ? null : rs.getLong("id"));
-        r.setName(rs.getString("name"));
-
-        Timestamp t = rs.getTimestamp("creation_date");
-        if (t != null) {
-            r.setCreationDate(ZonedDateTime.ofInstant(t.toInstant(), ZoneId.systemDefault()));
-        }
-
-        double coordX = rs.getDouble("coordinate_x");
-        boolean coordXNull = rs.wasNull();
-        float coordY = rs.getFloat("coordinate_y");
-        boolean coordYNull = rs.wasNull();
-        if (!coordXNull || !coordYNull) {
-            Coordinates c = new Coordinates();
-            if (!coordXNull) c.setX(coordX);
-            if (!coordYNull) c.setY(coordY);
-            r.setCoordinates(c);
-        }
-
-        String fromName = rs.getString("from_name");
-        if (fromName != null) {
-            Location from = new Location();
-            from.setName(fromName);
-            long fromX = rs.getLong("from_x");
-            if (!rs.wasNull()) from.setX(fromX);
-            int fromY = rs.getInt("from_y");
-            if (!rs.wasNull()) from.setY(fromY);
-            r.setFrom(from);
-        }
-
-        String toName = rs.getString("to_name");
-        if (toName != null) {
-            Location to = new Location();
-            to.setName(toName);
-            long toX = rs.getLong("to_x");
-            if (!rs.wasNull()) to.setX(toX);
-            int toY = rs.getInt("to_y");
-            if (!rs.wasNull()) to.setY(toY);
-            r.setTo(to);
-        }
-
-        r.setDistance(rs.getInt("distance"));
-        r.setRating(rs.getObject("rating") == null ? null : rs.getLong("rating"));
-        return r;
-    }
+    /**
+     * Быстрая оценка числа маршрутов; -1, если оценки ещё нет
+     */
+    long estimateCount();
 }
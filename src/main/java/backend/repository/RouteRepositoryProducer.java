@@ -0,0 +1,29 @@
+package backend.repository;
+
+import backend.config.AppSettings;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+
+/**
+ * Выбор реализации RouteRepository по routes.storage (jdbc | embedded) при первом обращении.
+ * Переключение требует перезапуска: данные между хранилищами не переносятся.
+ */
+@ApplicationScoped
+public class RouteRepositoryProducer {
+
+    @Produces
+    @ApplicationScoped
+    RouteRepository routeRepository(AppSettings settings, Instance<JdbcRouteRepository> jdbc,
+                                    Instance<EmbeddedRouteRepository> embedded) {
+        String storage = settings.get("routes.storage", "jdbc").trim();
+        switch (storage) {
+            case "jdbc":
+                return jdbc.get();
+            case "embedded":
+                return embedded.get();
+            default:
+                throw new IllegalStateException("Unknown routes.storage '" + storage + "', expected jdbc or embedded");
+        }
+    }
+}
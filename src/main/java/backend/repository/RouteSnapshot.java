@@ -0,0 +1,113 @@
+package backend.repository;
+
+import backend.entities.Route;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Снимок встроенного хранилища: все маршруты и хвост журнала изменений на момент lastSeq.
+ * Пишется во временный файл и атомарно подменяет прежний; читается через отображение файла в память,
+ * без промежуточного копирования в кучу. Формат: MAGIC, VERSION, lastSeq, nextId, маршруты, записи журнала, CRC32.
+ */
+final class RouteSnapshot {
+
+    private static final int MAGIC = 0x52534e50;
+    private static final int VERSION = 1;
+
+    final long lastSeq;
+    final long nextId;
+    final List<Route> routes;
+    final List<ChangeLogEntry> changes;
+
+    private RouteSnapshot(long lastSeq, long nextId, List<Route> routes, List<ChangeLogEntry> changes) {
+        this.lastSeq = lastSeq;
+        this.nextId = nextId;
+        this.routes = routes;
+        this.changes = changes;
+    }
+
+    /**
+     * Прочитать снимок; null, если его ещё нет
+     */
+    static RouteSnapshot load(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Snapshot " + path + " is larger than 2 GB");
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < 4) throw new IOException("Snapshot " + path + " is truncated");
+            CRC32 crc = new CRC32();
+            crc.update(in.duplicate().limit((int) size - 4));
+            if ((int) crc.getValue() != in.getInt((int) size - 4)) {
+                throw new IOException("Snapshot " + path + " is corrupt (checksum mismatch)");
+            }
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Snapshot " + path + " has unknown format");
+            }
+            long lastSeq = in.getLong();
+            long nextId = in.getLong();
+            int routeCount = in.getInt();
+            List<Route> routes = new ArrayList<>(routeCount);
+            for (int i = 0; i < routeCount; i++) routes.add(RouteRecordCodec.readRoute(in));
+            int changeCount = in.getInt();
+            List<ChangeLogEntry> changes = new ArrayList<>(changeCount);
+            for (int i = 0; i < changeCount; i++) changes.add(RouteRecordCodec.readEntry(in));
+            return new RouteSnapshot(lastSeq, nextId, routes, changes);
+        }
+    }
+
+    static void write(Path path, long lastSeq, long nextId, Collection<Route> routes,
+                      Collection<ChangeLogEntry> changes) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // потоки не закрываются: закрытие Channels.newOutputStream закрыло бы канал до force
+            OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lastSeq);
+            out.writeLong(nextId);
+            out.writeInt(routes.size());
+            for (Route r : routes) RouteRecordCodec.writeRoute(out, r);
+            out.writeInt(changes.size());
+            for (ChangeLogEntry entry : changes) RouteRecordCodec.writeEntry(out, entry);
+            out.flush();
+            DataOutputStream tail = new DataOutputStream(buffered);
+            tail.writeInt((int) checked.getChecksum().getValue());
+            tail.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    // переименование надёжно только после fsync каталога; не на всех ОС каталог открывается как файл
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
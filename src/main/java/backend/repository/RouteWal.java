@@ -0,0 +1,175 @@
+package backend.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Сегмент журнала упреждающей записи встроенного хранилища: только дописывается, в конец файла.
+ * Одна транзакция — один кадр [длина][CRC32][число записей][записи...], поэтому при восстановлении
+ * транзакция либо проигрывается целиком, либо (оборванный или повреждённый хвост) отбрасывается целиком.
+ */
+final class RouteWal implements Closeable {
+
+    /**
+     * Когда запись журнала доходит до диска: always — до возврата из append,
+     * interval — фоновым sync() раз в routes.storage.embedded.fsync-interval-ms, never — когда решит ОС
+     */
+    enum FsyncPolicy {
+        ALWAYS, INTERVAL, NEVER;
+
+        static FsyncPolicy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown fsync policy '" + value + "', expected always, interval or never");
+            }
+        }
+    }
+
+    private static final int HEADER_BYTES = 8;
+
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private long size;
+    private volatile boolean dirty = false;
+    // недописанный кадр не удалось отрезать: следующий кадр лёг бы за мусором и потерялся при восстановлении
+    private volatile boolean broken = false;
+
+    private RouteWal(FileChannel channel, FsyncPolicy policy, long size) {
+        this.channel = channel;
+        this.policy = policy;
+        this.size = size;
+    }
+
+    /**
+     * Открыть журнал, передать replay все целые записи по порядку и отрезать оборванный хвост
+     */
+    static RouteWal open(Path path, FsyncPolicy policy, Consumer<ChangeLogEntry> replay) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long fileSize = channel.size();
+            long good = replay(channel, fileSize, replay);
+            if (good < fileSize) {
+                System.err.println("Route change log " + path + ": dropping " + (fileSize - good) +
+                        " bytes of incomplete or corrupt records at offset " + good);
+                channel.truncate(good);
+                channel.force(true);
+            }
+            channel.position(good);
+            return new RouteWal(channel, policy, good);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long replay(FileChannel channel, long fileSize, Consumer<ChangeLogEntry> replay) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        long position = 0;
+        while (fileSize - position >= HEADER_BYTES) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || length > fileSize - position - HEADER_BYTES) break;
+            ByteBuffer frame = ByteBuffer.allocate(length);
+            readFully(channel, frame, position + HEADER_BYTES);
+            frame.flip();
+            crc.reset();
+            crc.update(frame.duplicate());
+            if ((int) crc.getValue() != checksum) break;
+            List<ChangeLogEntry> entries;
+            try {
+                int count = frame.getInt();
+                entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) entries.add(RouteRecordCodec.readEntry(frame));
+            } catch (RuntimeException e) {
+                break;
+            }
+            for (ChangeLogEntry entry : entries) replay.accept(entry);
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new IOException("Unexpected end of route change log");
+        }
+    }
+
+    /**
+     * Дописать записи одной транзакции одним кадром; при политике always — с fsync до возврата
+     */
+    void append(List<ChangeLogEntry> entries) throws IOException {
+        if (broken) throw new IOException("Route change log is unusable after a failed write");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + entries.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeInt(entries.size());
+        for (ChangeLogEntry entry : entries) RouteRecordCodec.writeEntry(out, entry);
+        out.flush();
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        int length = frame.remaining() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), HEADER_BYTES, length);
+        frame.putInt(0, length);
+        frame.putInt(4, (int) crc.getValue());
+
+        long start = size;
+        try {
+            while (frame.hasRemaining()) channel.write(frame);
+            if (policy == FsyncPolicy.ALWAYS) channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException truncateFailed) {
+                broken = true;
+            }
+            throw e;
+        }
+        size = start + HEADER_BYTES + length;
+        if (policy != FsyncPolicy.ALWAYS) dirty = true;
+    }
+
+    /**
+     * fsync, если с прошлого раза что-то дописано (для политики interval)
+     */
+    void sync() throws IOException {
+        if (!dirty) return;
+        dirty = false;
+        channel.force(false);
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!broken) channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package backend.repository;
+
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Диалект основной БД. Определяется один раз по DatabaseMetaData при первом соединении;
+ * SQL, который от него зависит, собирается в конструкторе и дальше берётся готовым.
+ */
+public enum SqlDialect {
+
+    /**
+     * Маршрут и запись журнала пишутся одним запросом через data-modifying CTE с RETURNING.
+     */
+    POSTGRES(true,
+            "WITH inserted AS (" +
+                    "INSERT INTO routes (" + JdbcRouteRepository.ROUTE_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING *" +
+                    "), logged AS (" +
+                    "INSERT INTO route_changes (" + JdbcRouteRepository.LOG_COLUMNS + ") " +
+                    "SELECT id, 'created', ?, " + JdbcRouteRepository.ROUTE_COLUMNS + " FROM inserted RETURNING seq, changed_at" +
+                    ") SELECT inserted.id, logged.seq, logged.changed_at FROM inserted, logged",
+            "INSERT INTO route_changes (" + JdbcRouteRepository.LOG_COLUMNS + ") " +
+                    "SELECT id, ?, ?, " + JdbcRouteRepository.ROUTE_COLUMNS + " FROM routes WHERE id = ? RETURNING seq, changed_at",
+            " LIMIT ? OFFSET ?",
+            "INSERT INTO routes_archive (partition_name, chunk, row_count, payload) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (partition_name, chunk) DO UPDATE SET row_count = EXCLUDED.row_count, " +
+                    "payload = EXCLUDED.payload, archived_at = now()",
+            "SELECT reltuples::bigint FROM pg_class WHERE oid = 'routes'::regclass",
+            List.of(
+                    "CREATE INDEX IF NOT EXISTS route_changes_changed_at_idx ON route_changes (changed_at)",
+                    "CREATE INDEX IF NOT EXISTS routes_from_location_idx ON routes (from_name, from_x, from_y)",
+                    "CREATE INDEX IF NOT EXISTS routes_to_location_idx ON routes (to_name, to_x, to_y)",
+                    // GiST по точкам для запросов прямоугольника (<@ box) и ближайших соседей (<->)
+                    "CREATE INDEX IF NOT EXISTS routes_coordinates_gist ON routes USING gist (point(coordinate_x, coordinate_y))",
+                    "CREATE INDEX IF NOT EXISTS routes_from_point_gist ON routes USING gist (point(from_x, from_y))",
+                    "CREATE INDEX IF NOT EXISTS routes_to_point_gist ON routes USING gist (point(to_x, to_y))",
+                    // creation_date растёт вместе с физическим порядком вставки, поэтому BRIN на несколько страниц
+                    // отсекает почти всю таблицу в запросах по окну времени
+                    "CREATE INDEX IF NOT EXISTS routes_creation_date_brin ON routes USING brin (creation_date)")) {
+        @Override
+        int bindPage(PreparedStatement ps, int index, int limit, int offset) throws SQLException {
+            ps.setInt(index++, limit);
+            ps.setInt(index++, offset);
+            return index;
+        }
+
+        @Override
+        String reserveIdsSql() {
+            return "SELECT nextval(pg_get_serial_sequence('routes', 'id')) FROM generate_series(1, ?)";
+        }
+
+        @Override
+        String insertManySql(int rows) {
+            return "WITH inserted AS (" +
+                    "INSERT INTO routes (id, " + JdbcRouteRepository.ROUTE_COLUMNS + ") VALUES " + valueRows(rows) + " RETURNING *" +
+                    "), logged AS (" +
+                    "INSERT INTO route_changes (" + JdbcRouteRepository.LOG_COLUMNS + ") " +
+                    "SELECT id, 'created', ?, " + JdbcRouteRepository.ROUTE_COLUMNS + " FROM inserted ORDER BY id " +
+                    "RETURNING seq, route_id, changed_at" +
+                    ") SELECT route_id, seq, changed_at FROM logged";
+        }
+
+        @Override
+        String changeLockSql() {
+            return "SELECT pg_advisory_xact_lock(hashtext('route_changes'))";
+        }
+
+        @Override
+        boolean supportsNotify() {
+            return true;
+        }
+
+        @Override
+        boolean supportsPartitioning() {
+            return true;
+        }
+    },
+
+    /**
+     * Встроенная БД для локального запуска. CTE с INSERT здесь нет, поэтому маршрут и запись журнала —
+     * два запроса в одной транзакции; строки возвращает FINAL TABLE. Точек, GiST, BRIN, секций и NOTIFY тоже нет.
+     */
+    H2(false,
+            "SELECT id FROM FINAL TABLE (" +
+                    "INSERT INTO routes (" + JdbcRouteRepository.ROUTE_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?))",
+            "SELECT seq, changed_at FROM FINAL TABLE (" +
+                    "INSERT INTO route_changes (" + JdbcRouteRepository.LOG_COLUMNS + ") " +
+                    "SELECT id, ?, ?, " + JdbcRouteRepository.ROUTE_COLUMNS + " FROM routes WHERE id = ?)",
+            " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY",
+            "MERGE INTO routes_archive (partition_name, chunk, row_count, payload, archived_at) " +
+                    "KEY (partition_name, chunk) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)",
+            "SELECT COUNT(*) FROM routes",
+            List.of(
+                    "CREATE INDEX IF NOT EXISTS route_changes_changed_at_idx ON route_changes (changed_at)",
+                    "CREATE INDEX IF NOT EXISTS routes_from_location_idx ON routes (from_name, from_x, from_y)",
+                    "CREATE INDEX IF NOT EXISTS routes_to_location_idx ON routes (to_name, to_x, to_y)",
+                    "CREATE INDEX IF NOT EXISTS routes_coordinates_idx ON routes (coordinate_x, coordinate_y)",
+                    "CREATE INDEX IF NOT EXISTS routes_creation_date_idx ON routes (creation_date)")) {
+        @Override
+        int bindPage(PreparedStatement ps, int index, int limit, int offset) throws SQLException {
+            ps.setInt(index++, offset);
+            ps.setInt(index++, limit);
+            return index;
+        }
+
+        @Override
+        String reserveIdsSql() {
+            return null;
+        }
+
+        @Override
+        String insertManySql(int rows) {
+            return null;
+        }
+
+        @Override
+        String changeLockSql() {
+            return null;
+        }
+
+        @Override
+        boolean supportsNotify() {
+            return false;
+        }
+
+        @Override
+        boolean supportsPartitioning() {
+            return false;
+        }
+    };
+
+    private final boolean singleStatementChanges;
+    private final String insertSql;
+    private final String appendLogSql;
+    private final String pageClause;
+    private final String archiveUpsertSql;
+    private final String estimateCountSql;
+    private final List<String> indexDdl;
+
+    SqlDialect(boolean singleStatementChanges, String insertSql, String appendLogSql, String pageClause,
+               String archiveUpsertSql, String estimateCountSql, List<String> indexDdl) {
+        this.singleStatementChanges = singleStatementChanges;
+        this.insertSql = insertSql;
+        this.appendLogSql = appendLogSql;
+        this.pageClause = pageClause;
+        this.archiveUpsertSql = archiveUpsertSql;
+        this.estimateCountSql = estimateCountSql;
+        this.indexDdl = indexDdl;
+    }
+
+    /**
+     * Диалект по имени продукта из метаданных; незнакомая БД считается Postgres, как и раньше
+     */
+    public static SqlDialect detect(DatabaseMetaData meta) throws SQLException {
+        String product = meta.getDatabaseProductName();
+        if ("PostgreSQL".equalsIgnoreCase(product)) return POSTGRES;
+        if ("H2".equalsIgnoreCase(product)) return H2;
+        System.err.println("Unknown database product '" + product + "', using PostgreSQL dialect");
+        return POSTGRES;
+    }
+
+    /**
+     * true — изменение маршрута и запись журнала делаются одним запросом (insertSql возвращает id, seq, changed_at);
+     * false — insertSql возвращает только id, журнал дописывается через appendLogSql
+     */
+    boolean singleStatementChanges() {
+        return singleStatementChanges;
+    }
+
+    String insertSql() {
+        return insertSql;
+    }
+
+    /**
+     * Дописать в журнал текущую строку маршрута: параметры op, node_id, id; возвращает seq, changed_at
+     */
+    String appendLogSql() {
+        return appendLogSql;
+    }
+
+    /**
+     * Выдать заранее id для n новых маршрутов (параметр — n); null — если insertManySql не поддерживается
+     */
+    abstract String reserveIdsSql();
+
+    /**
+     * Вставка rows маршрутов одним запросом с журналом, по 13 параметров на строку: id из reserveIdsSql,
+     * затем ROUTE_COLUMNS; в конце node_id. Возвращает route_id, seq, changed_at записей журнала в любом порядке.
+     * null — диалект вставляет пачку по одной строке в той же транзакции.
+     */
+    abstract String insertManySql(int rows);
+
+    private static String valueRows(int rows) {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) values.append(", ");
+            values.append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        return values.toString();
+    }
+
+    /**
+     * Окончание запроса страницы; параметры привязываются через bindPage
+     */
+    String pageClause() {
+        return pageClause;
+    }
+
+    abstract int bindPage(PreparedStatement ps, int index, int limit, int offset) throws SQLException;
+
+    /**
+     * Запись кусков архива секции: параметры partition_name, chunk, row_count, payload
+     */
+    String archiveUpsertSql() {
+        return archiveUpsertSql;
+    }
+
+    String estimateCountSql() {
+        return estimateCountSql;
+    }
+
+    List<String> indexDdl() {
+        return indexDdl;
+    }
+
+    /**
+     * Блокировка, упорядочивающая seq журнала по коммитам; null — БД встроенная, хватает блокировки в JVM
+     */
+    abstract String changeLockSql();
+
+    abstract boolean supportsNotify();
+
+    abstract boolean supportsPartitioning();
+}
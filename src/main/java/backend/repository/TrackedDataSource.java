@@ -0,0 +1,168 @@
+package backend.repository;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Обёртка над DataSource пула сервера приложений: считает выданные и ещё не закрытые соединения,
+ * время ожидания getConnection() и отказы. Пулы разных серверов не дают это переносимо, а для
+ * нагрузочных прогонов нужно видеть, упирается ли приложение в пул.
+ * Statement, созданные в потоке с QueryContext, получают его таймауты и отменяются вместе с ним.
+ */
+public final class TrackedDataSource implements DataSource {
+
+    private final DataSource delegate;
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong acquireNanos = new AtomicLong();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+    TrackedDataSource(DataSource delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return track(delegate.getConnection(), started);
+        } catch (SQLException | RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long started = System.nanoTime();
+        try {
+            return track(delegate.getConnection(username, password), started);
+        } catch (SQLException | RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private Connection track(Connection conn, long started) {
+        long waited = System.nanoTime() - started;
+        acquired.incrementAndGet();
+        acquireNanos.addAndGet(waited);
+        maxAcquireNanos.accumulateAndGet(waited, Math::max);
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0
+                            && closed.compareAndSet(false, true)) {
+                        inUse.decrementAndGet();
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    QueryContext context = QueryContext.current();
+                    // Statement у Connection возвращают только createStatement, prepareStatement и prepareCall
+                    if (context != null && result instanceof Statement) {
+                        return withContext((Statement) result, method.getReturnType(), context);
+                    }
+                    return result;
+                });
+    }
+
+    // execute* — с таймаутом контекста, close — снимает Statement с отмены
+    private static Statement withContext(Statement st, Class<?> type, QueryContext context) {
+        context.register(st);
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("execute")) context.beforeExecute(st);
+                    else if ("close".equals(name)) context.release(st);
+                    try {
+                        return method.invoke(st, args);
+                    } catch (InvocationTargetException e) {
+                        if (name.startsWith("execute") && e.getCause() instanceof SQLException) {
+                            context.afterFailure((SQLException) e.getCause());
+                        }
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Наибольшее число одновременно занятых соединений с прошлого вызова; счётчик сбрасывается
+     */
+    public int takePeakInUse() {
+        return peakInUse.getAndSet(inUse.get());
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public double getAverageAcquireMs() {
+        long n = acquired.get();
+        return n == 0 ? 0 : acquireNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxAcquireMs() {
+        return maxAcquireNanos.get() / 1e6;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(delegate) ? iface.cast(delegate) : delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+    }
+}
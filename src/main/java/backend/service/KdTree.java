@@ -0,0 +1,306 @@
+package backend.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Двумерное k-d дерево с поштучной вставкой и ленивым удалением.
+ * Значения с одинаковой точкой хранятся в одном узле, а узлы с равным ключом по оси уровня упорядочиваются
+ * по другой оси — так совпадающие координаты не вытягивают дерево в цепочку.
+ * Опустевшие узлы выбрасываются при перестройке, когда их становится больше, чем живых значений.
+ * Если вставка ушла слишком глубоко, перестраивается только несбалансированное поддерево на её пути
+ * (как в scapegoat-дереве), так что упорядоченные вставки не перестраивают всё дерево раз за разом.
+ * Обход без рекурсии. Не потокобезопасно — синхронизацию обеспечивает вызывающий.
+ */
+public class KdTree<T> {
+
+    private static final class Node<T> {
+        final double x;
+        final double y;
+        final List<T> values = new ArrayList<>(1);
+        Node<T> left;
+        Node<T> right;
+
+        Node(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private Node<T> root;
+    private int live;
+    private int dead;
+    private int nodeCount;
+
+    public int size() {
+        return live;
+    }
+
+    public void insert(double x, double y, T value) {
+        live++;
+        if (root == null) {
+            root = new Node<>(x, y);
+            root.values.add(value);
+            nodeCount = 1;
+            return;
+        }
+        List<Node<T>> path = new ArrayList<>();
+        Node<T> cur = root;
+        int depth = 1;
+        while (true) {
+            path.add(cur);
+            if (cur.x == x && cur.y == y) {
+                if (cur.values.isEmpty()) dead--;
+                cur.values.add(value);
+                return;
+            }
+            boolean goLeft = less(x, y, cur, depth);
+            Node<T> next = goLeft ? cur.left : cur.right;
+            depth++;
+            if (next == null) {
+                Node<T> node = new Node<>(x, y);
+                node.values.add(value);
+                if (goLeft) cur.left = node;
+                else cur.right = node;
+                path.add(node);
+                nodeCount++;
+                break;
+            }
+            cur = next;
+        }
+        if (depth > 4 * (32 - Integer.numberOfLeadingZeros(nodeCount)) + 8) rebalance(path);
+    }
+
+    // path — от корня до нового листа. Поднимаемся, пока не найдём узел, у которого поддерево
+    // на пути занимает больше 3/4 его собственного, и перестраиваем его
+    private void rebalance(List<Node<T>> path) {
+        int childSize = 1;
+        for (int i = path.size() - 2; i >= 0; i--) {
+            Node<T> node = path.get(i);
+            Node<T> child = path.get(i + 1);
+            int size = childSize + count(node.left == child ? node.right : node.left) + 1;
+            if (4L * childSize > 3L * size) {
+                Node<T> rebuilt = rebuildSubtree(node, i + 1);
+                if (i == 0) root = rebuilt;
+                else if (path.get(i - 1).left == node) path.get(i - 1).left = rebuilt;
+                else path.get(i - 1).right = rebuilt;
+                return;
+            }
+            childSize = size;
+        }
+        rebuild();
+    }
+
+    /**
+     * Удалить значение value (сравнение по equals) из узла с точкой (x, y)
+     */
+    public boolean remove(double x, double y, T value) {
+        Node<T> cur = root;
+        int depth = 1;
+        while (cur != null) {
+            if (cur.x == x && cur.y == y) {
+                if (!cur.values.remove(value)) return false;
+                live--;
+                if (cur.values.isEmpty()) dead++;
+                if (dead > live) rebuild();
+                return true;
+            }
+            cur = less(x, y, cur, depth) ? cur.left : cur.right;
+            depth++;
+        }
+        return false;
+    }
+
+    public void clear() {
+        root = null;
+        live = 0;
+        dead = 0;
+        nodeCount = 0;
+    }
+
+    /**
+     * Все значения в прямоугольнике [minX, maxX] x [minY, maxY], но не больше limit.
+     */
+    public List<T> range(double minX, double minY, double maxX, double maxY, int limit) {
+        List<T> out = new ArrayList<>();
+        if (root == null || limit <= 0) return out;
+        Deque<Node<T>> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        nodes.push(root);
+        depths.push(1);
+        while (!nodes.isEmpty()) {
+            Node<T> node = nodes.pop();
+            int depth = depths.pop();
+            if (node.x >= minX && node.x <= maxX && node.y >= minY && node.y <= maxY) {
+                for (T value : node.values) {
+                    if (out.size() >= limit) return out;
+                    out.add(value);
+                }
+            }
+            // правое поддерево кладётся первым, чтобы левое обходилось раньше, как при рекурсии
+            if (!less(maxX, maxY, node, depth) && node.right != null) {
+                nodes.push(node.right);
+                depths.push(depth + 1);
+            }
+            if (less(minX, minY, node, depth) && node.left != null) {
+                nodes.push(node.left);
+                depths.push(depth + 1);
+            }
+        }
+        return out;
+    }
+
+    // поддерево, которое нужно обойти, если до его разделяющей прямой ближе bound (квадрат расстояния)
+    private static final class Pending<T> {
+        final Node<T> node;
+        final int depth;
+        final double bound;
+
+        Pending(Node<T> node, int depth, double bound) {
+            this.node = node;
+            this.depth = depth;
+            this.bound = bound;
+        }
+    }
+
+    /**
+     * k ближайших к (x, y) значений по евклидову расстоянию, от ближнего к дальнему.
+     */
+    public List<T> nearest(double x, double y, int k) {
+        if (k <= 0) return new ArrayList<>();
+        // max-куча по расстоянию: в вершине худший из найденных
+        PriorityQueue<Object[]> best = new PriorityQueue<>(k + 1,
+                Comparator.comparingDouble((Object[] e) -> (Double) e[0]).reversed());
+        Deque<Pending<T>> stack = new ArrayDeque<>();
+        if (root != null) stack.push(new Pending<>(root, 1, 0));
+        while (!stack.isEmpty()) {
+            Pending<T> p = stack.pop();
+            if (best.size() >= k && p.bound >= (Double) best.peek()[0]) continue;
+            Node<T> node = p.node;
+            double dx = node.x - x;
+            double dy = node.y - y;
+            double d = dx * dx + dy * dy;
+            for (T value : node.values) {
+                if (best.size() < k) {
+                    best.add(new Object[] {d, value});
+                } else if (d < (Double) best.peek()[0]) {
+                    best.poll();
+                    best.add(new Object[] {d, value});
+                }
+            }
+            double diff = p.depth % 2 == 1 ? x - node.x : y - node.y;
+            boolean left = less(x, y, node, p.depth);
+            Node<T> near = left ? node.left : node.right;
+            Node<T> far = left ? node.right : node.left;
+            // дальнее поддерево проверяется после ближнего, когда найденные уже сузили радиус
+            if (far != null) stack.push(new Pending<>(far, p.depth + 1, Math.max(p.bound, diff * diff)));
+            if (near != null) stack.push(new Pending<>(near, p.depth + 1, p.bound));
+        }
+        List<Object[]> sorted = new ArrayList<>(best);
+        sorted.sort(Comparator.comparingDouble(e -> (Double) e[0]));
+        List<T> out = new ArrayList<>(sorted.size());
+        for (Object[] e : sorted) {
+            @SuppressWarnings("unchecked")
+            T value = (T) e[1];
+            out.add(value);
+        }
+        return out;
+    }
+
+    /**
+     * Заменить содержимое дерева на values одним построением по медиане, без поштучной вставки
+     * (insert на упорядоченных или скученных точках многократно перестраивал бы дерево).
+     */
+    public void load(List<T> values, ToDoubleFunction<? super T> xOf, ToDoubleFunction<? super T> yOf) {
+        List<Node<T>> points = new ArrayList<>(values.size());
+        for (T value : values) {
+            Node<T> node = new Node<>(xOf.applyAsDouble(value), yOf.applyAsDouble(value));
+            node.values.add(value);
+            points.add(node);
+        }
+        points.sort(Comparator.comparingDouble((Node<T> n) -> n.x).thenComparingDouble(n -> n.y));
+        // значения с одной точкой — в один узел
+        List<Node<T>> nodes = new ArrayList<>(points.size());
+        for (Node<T> node : points) {
+            Node<T> last = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+            if (last != null && last.x == node.x && last.y == node.y) last.values.addAll(node.values);
+            else nodes.add(node);
+        }
+        root = build(nodes, 0, nodes.size(), 1);
+        live = values.size();
+        dead = 0;
+        nodeCount = nodes.size();
+    }
+
+    /**
+     * Перестроить сбалансированное дерево из непустых узлов (медиана по чередующимся осям).
+     */
+    public void rebuild() {
+        root = rebuildSubtree(root, 1);
+    }
+
+    // непустые узлы поддерева заново по медиане; depth — глубина его корня, от неё зависит ось.
+    // Рекурсия build не глубже log n
+    private Node<T> rebuildSubtree(Node<T> top, int depth) {
+        List<Node<T>> nodes = new ArrayList<>();
+        int removed = 0;
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        if (top != null) stack.push(top);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            if (node.values.isEmpty()) {
+                removed++;
+            } else {
+                Node<T> copy = new Node<>(node.x, node.y);
+                copy.values.addAll(node.values);
+                nodes.add(copy);
+            }
+            if (node.left != null) stack.push(node.left);
+            if (node.right != null) stack.push(node.right);
+        }
+        dead -= removed;
+        nodeCount -= removed;
+        return build(nodes, 0, nodes.size(), depth);
+    }
+
+    private static <T> int count(Node<T> top) {
+        int n = 0;
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        if (top != null) stack.push(top);
+        while (!stack.isEmpty()) {
+            Node<T> node = stack.pop();
+            n++;
+            if (node.left != null) stack.push(node.left);
+            if (node.right != null) stack.push(node.right);
+        }
+        return n;
+    }
+
+    /**
+     * Точка (x, y) левее узла на уровне depth: сравнение по оси уровня, при равенстве — по другой оси
+     */
+    private static boolean less(double x, double y, Node<?> node, int depth) {
+        return depth % 2 == 1
+                ? x < node.x || (x == node.x && y < node.y)
+                : y < node.y || (y == node.y && x < node.x);
+    }
+
+    private Node<T> build(List<Node<T>> nodes, int from, int to, int depth) {
+        if (from >= to) return null;
+        // тот же порядок, что в less: точки узлов различны, поэтому медиана делит поровну
+        Comparator<Node<T>> cmp = depth % 2 == 1
+                ? Comparator.comparingDouble((Node<T> n) -> n.x).thenComparingDouble(n -> n.y)
+                : Comparator.comparingDouble((Node<T> n) -> n.y).thenComparingDouble(n -> n.x);
+        nodes.subList(from, to).sort(cmp);
+        int mid = (from + to) >>> 1;
+        Node<T> node = nodes.get(mid);
+        node.left = build(nodes, from, mid, depth + 1);
+        node.right = build(nodes, mid + 1, to, depth + 1);
+        return node;
+    }
+}
@@ -0,0 +1,96 @@
+package backend.service;
+
+import backend.config.AppSettings;
+import backend.repository.ChangeLogEntry;
+import backend.repository.RouteRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обслуживание секционированной таблицы routes (routes.partitioning.enabled): заранее создаёт
+ * помесячные секции и переносит секции старше routes.partitioning.retention-months в routes_archive.
+ * Перенесённые маршруты рассылаются как удалённые, поэтому счётчики, индексы и клиенты остаются согласованными.
+ */
+@ApplicationScoped
+public class PartitionMaintenance {
+
+    // столько удалений уходит в одном RouteChangeEvent, чтобы не собирать одно огромное сообщение
+    private static final int EVENT_CHUNK = 1000;
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private RouteCountTracker countTracker;
+
+    @Inject
+    private Event<RouteChangeEvent> routeChanged;
+
+    @Inject
+    private AppSettings settings;
+
+    private ScheduledExecutorService scheduler;
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object ignored) {
+        if (!settings.getBoolean("routes.partitioning.enabled", false)) return;
+        long interval = Math.max(1, settings.getLong("routes.partitioning.maintenance-interval-hours", 24));
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-partition-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintain, 1, TimeUnit.HOURS.toMinutes(interval), TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    public void maintain() {
+        try {
+            if (!routeRepository.isPartitioned()) return;
+            routeRepository.ensureFuturePartitions(settings.getInt("routes.partitioning.months-ahead", 3));
+            int retention = settings.getInt("routes.partitioning.retention-months", 12);
+            if (retention <= 0) return;
+            YearMonth cutoff = YearMonth.now(ZoneOffset.UTC).minusMonths(retention);
+            for (String partition : routeRepository.findPartitionsBefore(cutoff)) {
+                archive(partition);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Route partition maintenance failed: " + e.getMessage());
+        }
+    }
+
+    private void archive(String partition) {
+        countTracker.writeStarted();
+        try {
+            int archived = routeRepository.archivePartition(partition,
+                    settings.getInt("routes.partitioning.archive-chunk-rows", 10_000), this::fireDeleted);
+            System.out.println("Archived partition " + partition + ": " + archived + " routes");
+        } finally {
+            countTracker.writeFinished();
+        }
+    }
+
+    private void fireDeleted(List<ChangeLogEntry> archived) {
+        for (int from = 0; from < archived.size(); from += EVENT_CHUNK) {
+            List<ChangeLogEntry> part = archived.subList(from, Math.min(archived.size(), from + EVENT_CHUNK));
+            List<RouteChange> changes = new ArrayList<>(part.size());
+            for (ChangeLogEntry entry : part) changes.add(RouteChange.fromLog(entry, null));
+            routeChanged.fire(new RouteChangeEvent(changes, false));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package backend.service;
+
+import backend.entities.Route;
+
+import java.util.List;
+
+/**
+ * Ответ /routes/alternatives: до k путей между локациями, от лучшего к худшему.
+ * Путь может состоять из нескольких маршрутов через промежуточные локации.
+ */
+public class RouteAlternatives {
+
+    public static class Alternative {
+        private final double cost;
+        private final long distance;
+        private final long minRating;
+        private final List<Route> legs;
+
+        Alternative(double cost, long distance, long minRating, List<Route> legs) {
+            this.cost = cost;
+            this.distance = distance;
+            this.minRating = minRating;
+            this.legs = legs;
+        }
+
+        /**
+         * Сумма весов по выбранному критерию: distance или 1/rating
+         */
+        public double getCost() {
+            return cost;
+        }
+
+        public long getDistance() {
+            return distance;
+        }
+
+        public long getMinRating() {
+            return minRating;
+        }
+
+        /**
+         * Маршруты пути по порядку: to каждого совпадает по имени с from следующего
+         */
+        public List<Route> getLegs() {
+            return legs;
+        }
+    }
+
+    private final String from;
+    private final String to;
+    private final String by;
+    private final boolean complete;
+    private final boolean cached;
+    private final long computeMillis;
+    private final List<Alternative> paths;
+
+    RouteAlternatives(String from, String to, String by, boolean complete, boolean cached, long computeMillis,
+                      List<Alternative> paths) {
+        this.from = from;
+        this.to = to;
+        this.by = by;
+        this.complete = complete;
+        this.cached = cached;
+        this.computeMillis = computeMillis;
+        this.paths = paths;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getBy() {
+        return by;
+    }
+
+    /**
+     * false — поиск остановлен по routes.alternatives.budget-ms, путей может быть меньше k
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public long getComputeMillis() {
+        return computeMillis;
+    }
+
+    public List<Alternative> getPaths() {
+        return paths;
+    }
+}
@@ -0,0 +1,454 @@
+package backend.service;
+
+import backend.entities.Location;
+import backend.entities.Route;
+import backend.repository.RouteRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Колоночный снимок маршрутов для агрегатов: distance и rating в примитивных массивах,
+ * from/to — номера в словаре локаций (-1 — нет локации). Удаление переносит последнюю строку на место удалённой.
+ * Загружается из БД при первом запросе и дальше поддерживается по RouteChangeEvent, как RouteSpatialIndex.
+ * Агрегаты считаются за один параллельный проход fork-join по диапазонам строк.
+ */
+@ApplicationScoped
+public class RouteAnalytics {
+
+    private static final int MAX_BUCKETS = 1000;
+    // частичные агрегаты по локациям занимают ~24 байта на локацию в каждой задаче
+    private static final long MAX_PARTIAL_BYTES = 256L * 1024 * 1024;
+    // рейтинги по модулю меньше RATING_EXACT считаются поштучно, дальше — корзинами по степеням двойки;
+    // так частичный агрегат фиксированного размера, сколько бы разных рейтингов ни было
+    private static final int RATING_EXACT = 16;
+    private static final int RATING_HALF = RATING_EXACT + 63 - Long.numberOfTrailingZeros(RATING_EXACT);
+    private static final int RATING_BUCKETS = 2 * RATING_HALF;
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int size = 0;
+    private long[] ids = new long[1024];
+    private int[] distance = new int[1024];
+    private long[] rating = new long[1024];
+    private int[] from = new int[1024];
+    private int[] to = new int[1024];
+    private final Map<Long, Integer> rowById = new HashMap<>();
+
+    private final Map<LocationKey, Integer> locationIds = new HashMap<>();
+    private final List<Location> locations = new ArrayList<>();
+
+    private volatile boolean loaded = false;
+    private List<RouteChange> pendingWhileLoading = null;
+    // растёт при каждом изменении снимка; по нему RoutePlanner понимает, что граф устарел
+    private volatile long modCount = 0;
+
+    private static final class LocationKey {
+        final String name;
+        final long x;
+        final Integer y;
+
+        LocationKey(Location l) {
+            this.name = l.getName();
+            this.x = l.getX();
+            this.y = l.getY();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LocationKey)) return false;
+            LocationKey k = (LocationKey) o;
+            return x == k.x && Objects.equals(name, k.name) && Objects.equals(y, k.y);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, x, y);
+        }
+    }
+
+    public RouteAnalyticsReport report(int bucketWidth, int top) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            long started = System.nanoTime();
+            int n = size;
+            if (n == 0) {
+                return new RouteAnalyticsReport(0, 0, 0, 0, List.of(), List.of(), List.of(), List.of(), 0);
+            }
+            int parallelism = ForkJoinPool.commonPool().getParallelism();
+            int chunks = Math.max(1, Math.min(parallelism * 2, n / 16_384));
+            long perChunk = 24L * Math.max(1, locations.size());
+            chunks = (int) Math.max(1, Math.min(chunks, MAX_PARTIAL_BYTES / perChunk));
+
+            // первый проход — границы distance, чтобы выбрать ширину корзин
+            Bounds bounds = ForkJoinPool.commonPool().invoke(new BoundsTask(0, n, Math.max(1, n / chunks)));
+            int width = Math.max(1, bucketWidth);
+            long span = Math.floorDiv(bounds.max, width) - (long) Math.floorDiv(bounds.min, width) + 1;
+            if (span > MAX_BUCKETS) {
+                width = (int) Math.min(Integer.MAX_VALUE, ((long) bounds.max - bounds.min) / (MAX_BUCKETS - 2) + 1);
+            }
+            int firstBucket = Math.floorDiv(bounds.min, width);
+            int buckets = Math.floorDiv(bounds.max, width) - firstBucket + 1;
+
+            Partial total = ForkJoinPool.commonPool().invoke(
+                    new AggregateTask(0, n, Math.max(1, n / chunks), width, firstBucket, buckets, locations.size()));
+
+            List<RouteAnalyticsReport.DistanceBucket> histogram = new ArrayList<>(buckets);
+            for (int b = 0; b < buckets; b++) {
+                if (total.histogram[b] == 0) continue;
+                int lo = (int) Math.min(Integer.MAX_VALUE, (long) (firstBucket + b) * width);
+                histogram.add(new RouteAnalyticsReport.DistanceBucket(lo, lo + width, total.histogram[b]));
+            }
+            List<RouteAnalyticsReport.RatingCount> ratings = new ArrayList<>();
+            for (int b = 0; b < RATING_BUCKETS; b++) {
+                if (total.ratings[b] == 0) continue;
+                ratings.add(new RouteAnalyticsReport.RatingCount(ratingLow(b), ratingHigh(b), total.ratings[b]));
+            }
+
+            return new RouteAnalyticsReport(n, bounds.min, bounds.max, (double) bounds.sum / n, histogram, ratings,
+                    topLocations(total.fromCount, total.fromDistance, top),
+                    topLocations(total.toCount, total.toDistance, top),
+                    (System.nanoTime() - started) / 1_000_000);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // корзина рейтинга: отрицательные зеркально положительным, -(v + 1) не переполняется на Long.MIN_VALUE
+    private static int ratingBucket(long v) {
+        return v >= 0 ? RATING_HALF + ratingMagnitude(v) : RATING_HALF - 1 - ratingMagnitude(-(v + 1));
+    }
+
+    private static int ratingMagnitude(long m) {
+        if (m < RATING_EXACT) return (int) m;
+        return RATING_EXACT + 63 - Long.numberOfLeadingZeros(m) - Long.numberOfTrailingZeros(RATING_EXACT);
+    }
+
+    private static long magnitudeLow(int k) {
+        return k < RATING_EXACT ? k : 1L << (k - RATING_EXACT + Long.numberOfTrailingZeros(RATING_EXACT));
+    }
+
+    private static long magnitudeHigh(int k) {
+        // для последней корзины 1L << 63 - 1 даёт как раз Long.MAX_VALUE
+        return k < RATING_EXACT ? k : (1L << (k - RATING_EXACT + Long.numberOfTrailingZeros(RATING_EXACT) + 1)) - 1;
+    }
+
+    private static long ratingLow(int b) {
+        return b >= RATING_HALF ? magnitudeLow(b - RATING_HALF) : -(magnitudeHigh(RATING_HALF - 1 - b) + 1);
+    }
+
+    private static long ratingHigh(int b) {
+        return b >= RATING_HALF ? magnitudeHigh(b - RATING_HALF) : -(magnitudeLow(RATING_HALF - 1 - b) + 1);
+    }
+
+    private List<RouteAnalyticsReport.LocationStat> topLocations(int[] count, long[] distanceSum, int top) {
+        // частичная сортировка: индексы с наибольшим count, при равенстве — меньший id словаря
+        Integer[] order = new Integer[count.length];
+        int used = 0;
+        for (int i = 0; i < count.length; i++) {
+            if (count[i] > 0) order[used++] = i;
+        }
+        Integer[] present = Arrays.copyOf(order, used);
+        Arrays.sort(present, (a, b) -> count[a] != count[b] ? Integer.compare(count[b], count[a]) : Integer.compare(a, b));
+        List<RouteAnalyticsReport.LocationStat> out = new ArrayList<>(Math.min(top, used));
+        for (int i = 0; i < Math.min(top, used); i++) {
+            int id = present[i];
+            out.add(new RouteAnalyticsReport.LocationStat(locations.get(id), count[id], (double) distanceSum[id] / count[id]));
+        }
+        return out;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Граф маршрутов по текущему снимку: узел — имя локации, маршрут без from или to в граф не входит
+     */
+    public RouteGraph buildGraph() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> nodeByName = new HashMap<>();
+            int[] nodeOfLocation = new int[locations.size()];
+            for (int i = 0; i < nodeOfLocation.length; i++) {
+                String name = locations.get(i).getName();
+                Integer node = nodeByName.get(name);
+                if (node == null) {
+                    node = nodeByName.size();
+                    nodeByName.put(name, node);
+                }
+                nodeOfLocation[i] = node;
+            }
+            int[] fromNode = new int[size];
+            int[] toNode = new int[size];
+            for (int row = 0; row < size; row++) {
+                fromNode[row] = from[row] < 0 ? -1 : nodeOfLocation[from[row]];
+                toNode[row] = to[row] < 0 ? -1 : nodeOfLocation[to[row]];
+            }
+            return RouteGraph.build(modCount, nodeByName, size, fromNode, toNode, ids, distance, rating);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            lock.writeLock().lock();
+            try {
+                pendingWhileLoading = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            List<Route> all;
+            try {
+                all = routeRepository.findAll();
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    pendingWhileLoading = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+            lock.writeLock().lock();
+            try {
+                size = 0;
+                rowById.clear();
+                ensureCapacity(all.size());
+                for (Route r : all) put(r);
+                for (RouteChange change : pendingWhileLoading) apply(change);
+                pendingWhileLoading = null;
+                modCount++;
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            System.out.println("Analytics snapshot loaded: " + all.size() + " routes, " + locations.size() + " locations");
+        }
+    }
+
+    void onRouteChanged(@Observes RouteChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (pendingWhileLoading != null) {
+                pendingWhileLoading.addAll(event.getChanges());
+                return;
+            }
+            if (!loaded) return;
+            for (RouteChange change : event.getChanges()) apply(change);
+            modCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // применение идемпотентно, как в RouteSpatialIndex
+    private void apply(RouteChange change) {
+        if (change.getOperation() == RouteChange.Operation.DELETED) {
+            remove(change.getRouteId());
+        } else {
+            put(change.getRoute());
+        }
+    }
+
+    private void put(Route r) {
+        if (r == null || r.getId() == null) return;
+        Integer row = rowById.get(r.getId());
+        if (row == null) {
+            ensureCapacity(size + 1);
+            row = size++;
+            rowById.put(r.getId(), row);
+        }
+        ids[row] = r.getId();
+        distance[row] = r.getDistance();
+        rating[row] = r.getRating() == null ? 0 : r.getRating();
+        from[row] = locationId(r.getFrom());
+        to[row] = locationId(r.getTo());
+    }
+
+    private void remove(Long id) {
+        Integer row = rowById.remove(id);
+        if (row == null) return;
+        int last = --size;
+        if (row != last) {
+            ids[row] = ids[last];
+            distance[row] = distance[last];
+            rating[row] = rating[last];
+            from[row] = from[last];
+            to[row] = to[last];
+            rowById.put(ids[row], row);
+        }
+    }
+
+    // словарь только растёт: локации, на которые больше никто не ссылается, дают нулевые счётчики
+    private int locationId(Location l) {
+        if (l == null) return -1;
+        LocationKey key = new LocationKey(l);
+        Integer id = locationIds.get(key);
+        if (id == null) {
+            id = locations.size();
+            locations.add(new Location(l.getX(), l.getY(), l.getName()));
+            locationIds.put(key, id);
+        }
+        return id;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ids.length) return;
+        int capacity = Math.max(needed, ids.length * 2);
+        ids = Arrays.copyOf(ids, capacity);
+        distance = Arrays.copyOf(distance, capacity);
+        rating = Arrays.copyOf(rating, capacity);
+        from = Arrays.copyOf(from, capacity);
+        to = Arrays.copyOf(to, capacity);
+    }
+
+    private static final class Bounds {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum;
+    }
+
+    private final class BoundsTask extends RecursiveTask<Bounds> {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+
+        BoundsTask(int lo, int hi, int grain) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Bounds compute() {
+            if (hi - lo <= grain) {
+                Bounds b = new Bounds();
+                int[] d = distance;
+                for (int i = lo; i < hi; i++) {
+                    int v = d[i];
+                    if (v < b.min) b.min = v;
+                    if (v > b.max) b.max = v;
+                    b.sum += v;
+                }
+                return b;
+            }
+            int mid = (lo + hi) >>> 1;
+            BoundsTask left = new BoundsTask(lo, mid, grain);
+            left.fork();
+            Bounds r = new BoundsTask(mid, hi, grain).compute();
+            Bounds l = left.join();
+            l.min = Math.min(l.min, r.min);
+            l.max = Math.max(l.max, r.max);
+            l.sum += r.sum;
+            return l;
+        }
+    }
+
+    private static final class Partial {
+        final long[] histogram;
+        final long[] ratings = new long[RATING_BUCKETS];
+        final int[] fromCount;
+        final long[] fromDistance;
+        final int[] toCount;
+        final long[] toDistance;
+
+        Partial(int buckets, int locationCount) {
+            histogram = new long[buckets];
+            fromCount = new int[locationCount];
+            fromDistance = new long[locationCount];
+            toCount = new int[locationCount];
+            toDistance = new long[locationCount];
+        }
+
+        void merge(Partial other) {
+            for (int i = 0; i < histogram.length; i++) histogram[i] += other.histogram[i];
+            for (int i = 0; i < RATING_BUCKETS; i++) ratings[i] += other.ratings[i];
+            for (int i = 0; i < fromCount.length; i++) {
+                fromCount[i] += other.fromCount[i];
+                fromDistance[i] += other.fromDistance[i];
+                toCount[i] += other.toCount[i];
+                toDistance[i] += other.toDistance[i];
+            }
+        }
+    }
+
+    private final class AggregateTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final int width;
+        private final int firstBucket;
+        private final int buckets;
+        private final int locationCount;
+
+        AggregateTask(int lo, int hi, int grain, int width, int firstBucket, int buckets, int locationCount) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.width = width;
+            this.firstBucket = firstBucket;
+            this.buckets = buckets;
+            this.locationCount = locationCount;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (hi - lo <= grain) {
+                Partial p = new Partial(buckets, locationCount);
+                int[] d = distance;
+                long[] rt = rating;
+                int[] f = from;
+                int[] t = to;
+                for (int i = lo; i < hi; i++) {
+                    int dist = d[i];
+                    p.histogram[Math.floorDiv(dist, width) - firstBucket]++;
+                    p.ratings[ratingBucket(rt[i])]++;
+                    if (f[i] >= 0) {
+                        p.fromCount[f[i]]++;
+                        p.fromDistance[f[i]] += dist;
+                    }
+                    if (t[i] >= 0) {
+                        p.toCount[t[i]]++;
+                        p.toDistance[t[i]] += dist;
+                    }
+                }
+                return p;
+            }
+            int mid = (lo + hi) >>> 1;
+            AggregateTask left = new AggregateTask(lo, mid, grain, width, firstBucket, buckets, locationCount);
+            left.fork();
+            Partial r = new AggregateTask(mid, hi, grain, width, firstBucket, buckets, locationCount).compute();
+            Partial l = left.join();
+            l.merge(r);
+            return l;
+        }
+    }
+}
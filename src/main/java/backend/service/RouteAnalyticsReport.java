@@ -0,0 +1,152 @@
+package backend.service;
+
+import backend.entities.Location;
+
+import java.util.List;
+
+/**
+ * Ответ /routes/analytics: распределения по distance и rating и самые частые локации.
+ */
+public class RouteAnalyticsReport {
+
+    public static class DistanceBucket {
+        private final int from;
+        private final int to;
+        private final long count;
+
+        DistanceBucket(int from, int to, long count) {
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        /**
+         * Верхняя граница корзины, не включительно
+         */
+        public int getTo() {
+            return to;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Корзина рейтингов: малые по модулю рейтинги — по одному значению, большие — по степеням двойки
+     */
+    public static class RatingCount {
+        private final long rating;
+        private final long ratingTo;
+        private final long count;
+
+        RatingCount(long rating, long ratingTo, long count) {
+            this.rating = rating;
+            this.ratingTo = ratingTo;
+            this.count = count;
+        }
+
+        public long getRating() {
+            return rating;
+        }
+
+        /**
+         * Верхняя граница корзины, включительно
+         */
+        public long getRatingTo() {
+            return ratingTo;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    public static class LocationStat {
+        private final Location location;
+        private final long routes;
+        private final double averageDistance;
+
+        LocationStat(Location location, long routes, double averageDistance) {
+            this.location = location;
+            this.routes = routes;
+            this.averageDistance = averageDistance;
+        }
+
+        public Location getLocation() {
+            return location;
+        }
+
+        public long getRoutes() {
+            return routes;
+        }
+
+        public double getAverageDistance() {
+            return averageDistance;
+        }
+    }
+
+    private final long routes;
+    private final int minDistance;
+    private final int maxDistance;
+    private final double averageDistance;
+    private final List<DistanceBucket> distanceHistogram;
+    private final List<RatingCount> ratings;
+    private final List<LocationStat> topFrom;
+    private final List<LocationStat> topTo;
+    private final long computeMillis;
+
+    RouteAnalyticsReport(long routes, int minDistance, int maxDistance, double averageDistance,
+                         List<DistanceBucket> distanceHistogram, List<RatingCount> ratings,
+                         List<LocationStat> topFrom, List<LocationStat> topTo, long computeMillis) {
+        this.routes = routes;
+        this.minDistance = minDistance;
+        this.maxDistance = maxDistance;
+        this.averageDistance = averageDistance;
+        this.distanceHistogram = distanceHistogram;
+        this.ratings = ratings;
+        this.topFrom = topFrom;
+        this.topTo = topTo;
+        this.computeMillis = computeMillis;
+    }
+
+    public long getRoutes() {
+        return routes;
+    }
+
+    public int getMinDistance() {
+        return minDistance;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    public double getAverageDistance() {
+        return averageDistance;
+    }
+
+    public List<DistanceBucket> getDistanceHistogram() {
+        return distanceHistogram;
+    }
+
+    public List<RatingCount> getRatings() {
+        return ratings;
+    }
+
+    public List<LocationStat> getTopFrom() {
+        return topFrom;
+    }
+
+    public List<LocationStat> getTopTo() {
+        return topTo;
+    }
+
+    public long getComputeMillis() {
+        return computeMillis;
+    }
+}
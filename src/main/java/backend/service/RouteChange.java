@@ -0,0 +1,100 @@
+package backend.service;
+
+import backend.entities.Route;
+import backend.repository.ChangeLogEntry;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Одно изменение маршрута: операция, id, номер в журнале route_changes и состояние маршрута после неё
+ * (для удаления — последнее состояние перед удалением). previous известен только для локальных обновлений,
+ * changedFields — только для частичных (PATCH); null означает «могло измениться что угодно».
+ */
+public class RouteChange {
+
+    public enum Operation {
+        CREATED, UPDATED, DELETED;
+
+        public String wireName() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Operation operation;
+    private final Long routeId;
+    private final long seq;
+    private final Route route;
+    private final Route previous;
+    private final Set<String> changedFields;
+
+    public RouteChange(Operation operation, Long routeId, long seq, Route route, Route previous) {
+        this(operation, routeId, seq, route, previous, null);
+    }
+
+    public RouteChange(Operation operation, Long routeId, long seq, Route route, Route previous,
+                       Set<String> changedFields) {
+        this.operation = operation;
+        this.routeId = routeId;
+        this.seq = seq;
+        this.route = route;
+        this.previous = previous;
+        this.changedFields = changedFields;
+    }
+
+    public static RouteChange fromLog(ChangeLogEntry entry, Route previous) {
+        return new RouteChange(Operation.valueOf(entry.getOperation().toUpperCase()), entry.getRouteId(),
+                entry.getSeq(), entry.getRoute(), previous);
+    }
+
+    /**
+     * Склеить с более поздним изменением того же маршрута.
+     * Возвращает null, если изменения взаимно уничтожаются (создан и удалён в одном окне).
+     */
+    public RouteChange mergeWith(RouteChange later) {
+        switch (operation) {
+            case CREATED:
+                if (later.operation == Operation.DELETED) return null;
+                return new RouteChange(Operation.CREATED, routeId, later.seq, later.route, null);
+            case UPDATED:
+                if (later.operation == Operation.DELETED) {
+                    return new RouteChange(Operation.DELETED, routeId, later.seq, later.route, previous);
+                }
+                return new RouteChange(Operation.UPDATED, routeId, later.seq, later.route, previous,
+                        unionFields(changedFields, later.changedFields));
+            default:
+                return later;
+        }
+    }
+
+    private static Set<String> unionFields(Set<String> a, Set<String> b) {
+        if (a == null || b == null) return null;
+        Set<String> union = new TreeSet<>(a);
+        union.addAll(b);
+        return union;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Long getRouteId() {
+        return routeId;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public Route getPrevious() {
+        return previous;
+    }
+
+    public Set<String> getChangedFields() {
+        return changedFields;
+    }
+}
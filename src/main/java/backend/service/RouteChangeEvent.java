@@ -0,0 +1,30 @@
+package backend.service;
+
+import java.util.List;
+
+/**
+ * CDI-событие об изменении маршрутов. Изменения одного события доставляются клиентам одним сообщением.
+ * remote — изменение сделано на другом узле и пришло через LISTEN/NOTIFY.
+ */
+public class RouteChangeEvent {
+
+    private final List<RouteChange> changes;
+    private final boolean remote;
+
+    public RouteChangeEvent(List<RouteChange> changes, boolean remote) {
+        this.changes = List.copyOf(changes);
+        this.remote = remote;
+    }
+
+    public static RouteChangeEvent of(RouteChange change) {
+        return new RouteChangeEvent(List.of(change), false);
+    }
+
+    public List<RouteChange> getChanges() {
+        return changes;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+}
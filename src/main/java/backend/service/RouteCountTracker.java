@@ -0,0 +1,186 @@
+package backend.service;
+
+import backend.config.AppSettings;
+import backend.repository.RouteRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики маршрутов в памяти: общее количество и количество с rating больше порога.
+ * Обновляются атомарно на каждой записи через RouteService и периодически сверяются с БД.
+ */
+@ApplicationScoped
+public class RouteCountTracker {
+
+    public enum Mode {
+        EXACT, ESTIMATED;
+
+        public String headerValue() {
+            return name().toLowerCase();
+        }
+    }
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private AppSettings settings;
+
+    private final AtomicLong total = new AtomicLong();
+    private volatile boolean totalLoaded = false;
+    private volatile Mode mode = Mode.EXACT;
+
+    // порог rating -> количество маршрутов с rating > порога
+    private final Map<Long, AtomicLong> ratingCounts = new ConcurrentHashMap<>();
+
+    // записи, начатые, но ещё не учтённые в счётчиках, и номер последней учтённой записи;
+    // сверка с БД применяется, только если за время запроса не было ни одной записи
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+    private final AtomicLong writeEpoch = new AtomicLong();
+
+    private String configuredMode;
+    private long estimateThreshold;
+    private int maxCachedFilters;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void start() {
+        configuredMode = settings.get("routes.count.mode", "exact").toLowerCase();
+        estimateThreshold = settings.getLong("routes.count.estimate-threshold", 1_000_000L);
+        maxCachedFilters = settings.getInt("routes.count.max-cached-filters", 256);
+        long interval = settings.getLong("routes.count.reconcile-interval-seconds", 60);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-count-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                System.err.println("Route count reconciliation failed: " + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    public long getTotal() {
+        if (!totalLoaded) {
+            reconcile();
+        }
+        return total.get();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long countByRatingGreaterThan(Long rating) {
+        AtomicLong cached = ratingCounts.get(rating);
+        if (cached != null) return cached.get();
+
+        long epoch = writeEpoch.get();
+        boolean quiet = writesInFlight.get() == 0;
+        long count = routeRepository.countByRatingGreaterThan(rating);
+        if (quiet && writesInFlight.get() == 0 && writeEpoch.get() == epoch
+                && ratingCounts.size() < maxCachedFilters) {
+            ratingCounts.putIfAbsent(rating, new AtomicLong(count));
+        }
+        return count;
+    }
+
+    /**
+     * Пересчитать общее количество (COUNT(*) или оценку из pg_class) и сбросить счётчики фильтров.
+     * Результат отбрасывается, если во время запроса шли записи — они будут учтены следующей сверкой.
+     */
+    public void reconcile() {
+        if (writesInFlight.get() != 0 && totalLoaded) return;
+        long epoch = writeEpoch.get();
+
+        Mode newMode = Mode.EXACT;
+        long count = -1;
+        if (!"exact".equals(configuredMode)) {
+            long estimate = routeRepository.estimateCount();
+            if (estimate >= 0 && ("estimated".equals(configuredMode) || estimate > estimateThreshold)) {
+                newMode = Mode.ESTIMATED;
+                count = estimate;
+            }
+        }
+        if (count < 0) {
+            count = routeRepository.count();
+        }
+
+        if (writesInFlight.get() == 0 && writeEpoch.get() == epoch) {
+            total.set(count);
+            mode = newMode;
+            totalLoaded = true;
+            ratingCounts.clear();
+        } else if (!totalLoaded) {
+            // первая загрузка: лучше приблизительное значение, чем повторный полный скан
+            total.set(count);
+            mode = newMode;
+            totalLoaded = true;
+        }
+    }
+
+    public void writeStarted() {
+        writesInFlight.incrementAndGet();
+    }
+
+    public void writeFinished() {
+        writeEpoch.incrementAndGet();
+        writesInFlight.decrementAndGet();
+    }
+
+    void onRouteChanged(@Observes RouteChangeEvent event) {
+        // изменения с других узлов тоже должны отменять идущую сверку
+        if (event.isRemote()) writeEpoch.incrementAndGet();
+        for (RouteChange change : event.getChanges()) {
+            switch (change.getOperation()) {
+                case CREATED:
+                    total.incrementAndGet();
+                    adjustRatingCounts(change.getRoute().getRating(), 1);
+                    break;
+                case UPDATED:
+                    if (change.getPrevious() == null) {
+                        // прежний rating неизвестен — счётчики фильтров перечитаются из БД
+                        ratingCounts.clear();
+                        break;
+                    }
+                    Long before = change.getPrevious().getRating();
+                    Long after = change.getRoute().getRating();
+                    if (before != null && before.equals(after)) break;
+                    adjustRatingCounts(before, -1);
+                    adjustRatingCounts(after, 1);
+                    break;
+                case DELETED:
+                    total.decrementAndGet();
+                    adjustRatingCounts(change.getRoute().getRating(), -1);
+                    break;
+            }
+        }
+    }
+
+    private void adjustRatingCounts(Long rating, int delta) {
+        if (rating == null) return;
+        ratingCounts.forEach((threshold, counter) -> {
+            if (rating > threshold) counter.addAndGet(delta);
+        });
+    }
+}
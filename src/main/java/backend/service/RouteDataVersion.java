@@ -0,0 +1,75 @@
+package backend.service;
+
+import backend.repository.RouteRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Глобальная версия данных маршрутов — наибольший seq журнала route_changes, известный узлу.
+ * Растёт на каждом RouteChangeEvent (локальном и с других узлов), поэтому одинакова на всех узлах
+ * кластера и годится как ETag для списков и агрегатов.
+ */
+@ApplicationScoped
+public class RouteDataVersion {
+
+    /**
+     * Версия и момент, когда она появилась на этом узле (для Last-Modified)
+     */
+    public static final class Stamp {
+        private final long version;
+        private final long lastModifiedMillis;
+
+        Stamp(long version, long lastModifiedMillis) {
+            this.version = version;
+            this.lastModifiedMillis = lastModifiedMillis;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getLastModifiedMillis() {
+            return lastModifiedMillis;
+        }
+    }
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    private final AtomicReference<Stamp> current = new AtomicReference<>();
+
+    /**
+     * Текущая версия; при первом обращении читается из журнала. null — версию узнать не удалось.
+     * Снимать версию нужно до чтения данных: тогда ответ может оказаться только новее своего ETag, но не старше.
+     */
+    public Stamp current() {
+        Stamp stamp = current.get();
+        if (stamp != null) return stamp;
+        try {
+            advanceTo(routeRepository.changeSeqBounds()[1]);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to read route data version: " + e.getMessage());
+        }
+        return current.get();
+    }
+
+    /**
+     * Поднять версию до seq (версия никогда не уменьшается)
+     */
+    public void advanceTo(long seq) {
+        while (true) {
+            Stamp stamp = current.get();
+            if (stamp != null && stamp.version >= seq) return;
+            if (current.compareAndSet(stamp, new Stamp(seq, System.currentTimeMillis()))) return;
+        }
+    }
+
+    void onRouteChanged(@Observes RouteChangeEvent event) {
+        long max = 0;
+        for (RouteChange change : event.getChanges()) max = Math.max(max, change.getSeq());
+        if (max > 0) advanceTo(max);
+    }
+}
@@ -0,0 +1,407 @@
+package backend.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Неизменяемый граф маршрутов в виде CSR: узел — имя локации, ребро — маршрут from → to.
+ * Рёбра узла v — индексы offsets[v]..offsets[v + 1] в source/target/routeId/distance/rating.
+ * Строится RouteAnalytics.buildGraph() из колоночного снимка; version — его номер изменения.
+ */
+public final class RouteGraph {
+
+    /**
+     * Вес ребра: distance — длина маршрута, rating — 1/rating (меньше переходов с высокой оценкой — лучше)
+     */
+    public enum Weight {
+        DISTANCE, RATING
+    }
+
+    /**
+     * Путь — последовательность рёбер; cost — сумма весов
+     */
+    public static final class Path {
+        private final int[] edges;
+        private final double cost;
+        // индекс узла, в котором путь отклонился от пути-родителя
+        private final int deviation;
+
+        Path(int[] edges, double cost, int deviation) {
+            this.edges = edges;
+            this.cost = cost;
+            this.deviation = deviation;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+
+        int[] edges() {
+            return edges;
+        }
+    }
+
+    /**
+     * Найденные пути от лучшего к худшему; complete = false — поиск остановлен по времени
+     */
+    public static final class Result {
+        private final List<Path> paths;
+        private final boolean complete;
+
+        Result(List<Path> paths, boolean complete) {
+            this.paths = paths;
+            this.complete = complete;
+        }
+
+        public List<Path> getPaths() {
+            return paths;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    final long version;
+    private final Map<String, Integer> nodeByName;
+    private final int[] offsets;
+    // входящие рёбра узла v — inEdges[inOffsets[v]..inOffsets[v + 1]]
+    private final int[] inOffsets;
+    private final int[] inEdges;
+    private final int[] source;
+    private final int[] target;
+    private final long[] routeId;
+    private final int[] distance;
+    private final long[] rating;
+    private final double[][] weights = new double[Weight.values().length][];
+
+    RouteGraph(long version, Map<String, Integer> nodeByName, int[] offsets, int[] source, int[] target,
+               long[] routeId, int[] distance, long[] rating) {
+        this.version = version;
+        this.nodeByName = nodeByName;
+        this.offsets = offsets;
+        this.source = source;
+        int n = offsets.length - 1;
+        inOffsets = new int[n + 1];
+        for (int v : target) inOffsets[v + 1]++;
+        for (int v = 0; v < n; v++) inOffsets[v + 1] += inOffsets[v];
+        inEdges = new int[target.length];
+        int[] next = Arrays.copyOf(inOffsets, n);
+        for (int e = 0; e < target.length; e++) inEdges[next[target[e]]++] = e;
+        this.target = target;
+        this.routeId = routeId;
+        this.distance = distance;
+        this.rating = rating;
+        double[] byDistance = new double[target.length];
+        double[] byRating = new double[target.length];
+        for (int e = 0; e < target.length; e++) {
+            byDistance[e] = distance[e];
+            byRating[e] = 1.0 / Math.max(1, rating[e]);
+        }
+        weights[Weight.DISTANCE.ordinal()] = byDistance;
+        weights[Weight.RATING.ordinal()] = byRating;
+    }
+
+    public int nodeCount() {
+        return offsets.length - 1;
+    }
+
+    public int edgeCount() {
+        return target.length;
+    }
+
+    public long routeId(int edge) {
+        return routeId[edge];
+    }
+
+    public int distance(int edge) {
+        return distance[edge];
+    }
+
+    public long rating(int edge) {
+        return rating[edge];
+    }
+
+    /**
+     * До k путей без повторения узлов из from в to (алгоритм Йена): каждый следующий путь — лучший из
+     * отклонений от предыдущего в одном из его узлов. Отклонения раньше точки, где сам предыдущий путь
+     * отошёл от родителя, уже были рассмотрены для родителя и пропускаются (модификация Лоулера).
+     * Маршруты с одинаковыми концами — разные рёбра, поэтому и пути через них разные. deadline — System.nanoTime(), после которого поиск останавливается.
+     */
+    public Result kShortestPaths(String from, String to, int k, Weight by, long deadline) {
+        Integer start = nodeByName.get(from);
+        Integer sink = nodeByName.get(to);
+        if (start == null || sink == null || start.equals(sink) || k <= 0) return new Result(List.of(), true);
+
+        Search search = new Search(weights[by.ordinal()], sink);
+        Path first = search.shortest(start);
+        if (first == null) return new Result(List.of(), true);
+
+        List<Path> found = new ArrayList<>();
+        found.add(first);
+        PriorityQueue<Path> candidates = new PriorityQueue<>(RouteGraph::compare);
+        Set<EdgeKey> seen = new HashSet<>();
+        seen.add(new EdgeKey(first.edges));
+
+        while (found.size() < k) {
+            Path previous = found.get(found.size() - 1);
+            int[] nodes = nodesOf(start, previous.edges);
+            double rootCost = 0;
+            for (int i = 0; i < previous.deviation; i++) rootCost += search.weight[previous.edges[i]];
+            for (int i = previous.deviation; i < previous.edges.length; i++) {
+                if (System.nanoTime() > deadline) return new Result(found, false);
+                int spur = nodes[i];
+                search.nextRun();
+                // рёбра, которыми уже найденные пути с тем же началом уходят из узла отклонения
+                for (Path p : found) {
+                    if (p.edges.length > i && samePrefix(p.edges, previous.edges, i)) search.blockEdge(p.edges[i]);
+                }
+                // узлы начала пути, кроме узла отклонения, — чтобы путь остался без циклов
+                for (int j = 0; j < i; j++) search.blockNode(nodes[j]);
+
+                Path spurPath = search.shortest(spur);
+                if (spurPath != null) {
+                    int[] edges = Arrays.copyOf(previous.edges, i + spurPath.edges.length);
+                    System.arraycopy(spurPath.edges, 0, edges, i, spurPath.edges.length);
+                    if (seen.add(new EdgeKey(edges))) candidates.add(new Path(edges, rootCost + spurPath.cost, i));
+                }
+                rootCost += search.weight[previous.edges[i]];
+            }
+            Path next = candidates.poll();
+            if (next == null) break;
+            found.add(next);
+        }
+        return new Result(found, true);
+    }
+
+    private int[] nodesOf(int start, int[] edges) {
+        int[] nodes = new int[edges.length + 1];
+        nodes[0] = start;
+        for (int i = 0; i < edges.length; i++) nodes[i + 1] = target[edges[i]];
+        return nodes;
+    }
+
+    private static boolean samePrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    // по стоимости, затем по числу рёбер и самим рёбрам — порядок не зависит от порядка вставки
+    private static int compare(Path a, Path b) {
+        int c = Double.compare(a.cost, b.cost);
+        if (c != 0) return c;
+        c = Integer.compare(a.edges.length, b.edges.length);
+        return c != 0 ? c : Arrays.compare(a.edges, b.edges);
+    }
+
+    private static final class EdgeKey {
+        private final int[] edges;
+
+        EdgeKey(int[] edges) {
+            this.edges = edges;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EdgeKey && Arrays.equals(edges, ((EdgeKey) o).edges);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(edges);
+        }
+    }
+
+    /**
+     * Поиск кратчайшего пути к одному стоку с запретом узлов и рёбер. Сначала обратной Дейкстрой по всему графу
+     * считается расстояние каждого узла до стока; запреты его только увеличивают, поэтому это допустимая
+     * оценка для A*, и поиски отклонений идут прямо к стоку, а не обходят граф. Массивы выделяются один раз
+     * на запрос; вместо очистки между запусками сравнивается номер запуска (stamp).
+     */
+    private final class Search {
+        final double[] weight;
+        private final int sink;
+        private final double[] toSink;
+        private final double[] dist;
+        private final int[] via;
+        private final int[] reached;
+        private final int[] settled;
+        private final int[] blockedNode;
+        private final int[] blockedEdge;
+
+        // двоичная куча пар (расстояние, узел) с ленивым удалением устаревших записей
+        private double[] heapKey = new double[64];
+        private int[] heapNode = new int[64];
+        private int heapSize;
+        // 0 — значение новых массивов, поэтому номера запусков начинаются с 1
+        private int run = 1;
+
+        Search(double[] weight, int sink) {
+            int n = nodeCount();
+            this.weight = weight;
+            this.sink = sink;
+            toSink = new double[n];
+            dist = new double[n];
+            via = new int[n];
+            reached = new int[n];
+            settled = new int[n];
+            blockedNode = new int[n];
+            blockedEdge = new int[target.length];
+            distancesToSink();
+        }
+
+        boolean reachable(int node) {
+            return toSink[node] != Double.POSITIVE_INFINITY;
+        }
+
+        private void distancesToSink() {
+            Arrays.fill(toSink, Double.POSITIVE_INFINITY);
+            toSink[sink] = 0;
+            heapSize = 0;
+            push(0, sink);
+            while (heapSize > 0) {
+                double d = heapKey[0];
+                int v = pop();
+                if (d > toSink[v]) continue;
+                for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++) {
+                    int e = inEdges[i];
+                    int u = source[e];
+                    double nd = d + weight[e];
+                    if (nd < toSink[u]) {
+                        toSink[u] = nd;
+                        push(nd, u);
+                    }
+                }
+            }
+        }
+
+        void nextRun() {
+            run++;
+        }
+
+        void blockNode(int node) {
+            blockedNode[node] = run;
+        }
+
+        void blockEdge(int edge) {
+            blockedEdge[edge] = run;
+        }
+
+        Path shortest(int from) {
+            if (!reachable(from)) return null;
+            int stamp = run;
+            heapSize = 0;
+            dist[from] = 0;
+            via[from] = -1;
+            reached[from] = stamp;
+            push(toSink[from], from);
+            while (heapSize > 0) {
+                double key = heapKey[0];
+                int v = pop();
+                if (settled[v] == stamp || key > dist[v] + toSink[v]) continue;
+                settled[v] = stamp;
+                if (v == sink) return path(from, sink);
+                double d = dist[v];
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int u = target[e];
+                    if (blockedEdge[e] == stamp || blockedNode[u] == stamp || settled[u] == stamp || !reachable(u)) {
+                        continue;
+                    }
+                    double nd = d + weight[e];
+                    if (reached[u] != stamp || nd < dist[u]) {
+                        reached[u] = stamp;
+                        dist[u] = nd;
+                        via[u] = e;
+                        push(nd + toSink[u], u);
+                    }
+                }
+            }
+            return null;
+        }
+
+        private Path path(int from, int to) {
+            int length = 0;
+            for (int v = to; v != from; v = source[via[v]]) length++;
+            int[] edges = new int[length];
+            for (int v = to; v != from; v = source[via[v]]) edges[--length] = via[v];
+            return new Path(edges, dist[to], 0);
+        }
+
+        private void push(double key, int node) {
+            if (heapSize == heapKey.length) {
+                heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+                heapNode = Arrays.copyOf(heapNode, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapKey[parent] <= key) break;
+                heapKey[i] = heapKey[parent];
+                heapNode[i] = heapNode[parent];
+                i = parent;
+            }
+            heapKey[i] = key;
+            heapNode[i] = node;
+        }
+
+        private int pop() {
+            int top = heapNode[0];
+            double key = heapKey[--heapSize];
+            int node = heapNode[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) child++;
+                if (key <= heapKey[child]) break;
+                heapKey[i] = heapKey[child];
+                heapNode[i] = heapNode[child];
+                i = child;
+            }
+            heapKey[i] = key;
+            heapNode[i] = node;
+            return top;
+        }
+    }
+
+    /**
+     * Сборка CSR из списка рёбер (from[i] → to[i]); петли отбрасываются
+     */
+    static RouteGraph build(long version, Map<String, Integer> nodeByName, int edges, int[] from, int[] to,
+                            long[] routeIds, int[] distances, long[] ratings) {
+        int n = nodeByName.size();
+        int[] offsets = new int[n + 1];
+        int kept = 0;
+        for (int i = 0; i < edges; i++) {
+            if (from[i] >= 0 && to[i] >= 0 && from[i] != to[i]) {
+                offsets[from[i] + 1]++;
+                kept++;
+            }
+        }
+        for (int v = 0; v < n; v++) offsets[v + 1] += offsets[v];
+        int[] next = Arrays.copyOf(offsets, n);
+        int[] source = new int[kept];
+        int[] target = new int[kept];
+        long[] routeId = new long[kept];
+        int[] distance = new int[kept];
+        long[] rating = new long[kept];
+        for (int i = 0; i < edges; i++) {
+            if (from[i] < 0 || to[i] < 0 || from[i] == to[i]) continue;
+            int e = next[from[i]]++;
+            source[e] = from[i];
+            target[e] = to[i];
+            routeId[e] = routeIds[i];
+            distance[e] = distances[i];
+            rating[e] = ratings[i];
+        }
+        return new RouteGraph(version, new HashMap<>(nodeByName), offsets, source, target, routeId, distance, rating);
+    }
+}
@@ -0,0 +1,148 @@
+package backend.service;
+
+import backend.entities.Coordinates;
+import backend.entities.Location;
+import backend.entities.Route;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import jakarta.validation.ValidationException;
+
+import java.util.Map;
+
+/**
+ * Применение JSON Merge Patch (RFC 7396) к маршруту: null удаляет значение, объект сливается рекурсивно,
+ * остальное заменяется. Исходный маршрут не меняется — возвращается глубокая копия.
+ * Нарушения аннотаций Route (например, name = null) здесь не проверяются, это делает валидатор.
+ */
+final class RouteMergePatch {
+
+    private RouteMergePatch() {
+    }
+
+    static Route apply(Route target, JsonObject patch) {
+        Route r = new Route(target.getName(), copy(target.getCoordinates()), copy(target.getFrom()),
+                copy(target.getTo()), target.getDistance(), target.getRating());
+        r.setId(target.getId());
+        r.setCreationDate(target.getCreationDate());
+
+        for (Map.Entry<String, JsonValue> e : patch.entrySet()) {
+            String field = e.getKey();
+            JsonValue v = e.getValue();
+            boolean remove = v.getValueType() == JsonValue.ValueType.NULL;
+            switch (field) {
+                case "name":
+                    r.setName(remove ? null : string(field, v));
+                    break;
+                case "coordinates":
+                    r.setCoordinates(remove ? null : mergeCoordinates(r.getCoordinates(), object(field, v)));
+                    break;
+                case "from":
+                    r.setFrom(remove ? null : mergeLocation(field, r.getFrom(), object(field, v)));
+                    break;
+                case "to":
+                    r.setTo(remove ? null : mergeLocation(field, r.getTo(), object(field, v)));
+                    break;
+                case "distance":
+                    r.setDistance((int) integer(field, v, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                    break;
+                case "rating":
+                    r.setRating(remove ? null : integer(field, v, Long.MIN_VALUE, Long.MAX_VALUE));
+                    break;
+                case "id":
+                case "creationDate":
+                    throw new ValidationException(field + " is read-only");
+                default:
+                    throw new ValidationException("Unknown field: " + field);
+            }
+        }
+        return r;
+    }
+
+    private static Coordinates mergeCoordinates(Coordinates current, JsonObject patch) {
+        Coordinates c = current != null ? current : new Coordinates();
+        for (Map.Entry<String, JsonValue> e : patch.entrySet()) {
+            String field = "coordinates." + e.getKey();
+            switch (e.getKey()) {
+                case "x":
+                    c.setX(number(field, e.getValue()));
+                    break;
+                case "y":
+                    c.setY((float) number(field, e.getValue()));
+                    break;
+                default:
+                    throw new ValidationException("Unknown field: " + field);
+            }
+        }
+        return c;
+    }
+
+    private static Location mergeLocation(String name, Location current, JsonObject patch) {
+        Location l = current != null ? current : new Location();
+        for (Map.Entry<String, JsonValue> e : patch.entrySet()) {
+            String field = name + "." + e.getKey();
+            JsonValue v = e.getValue();
+            boolean remove = v.getValueType() == JsonValue.ValueType.NULL;
+            switch (e.getKey()) {
+                case "x":
+                    l.setX(integer(field, v, Long.MIN_VALUE, Long.MAX_VALUE));
+                    break;
+                case "y":
+                    l.setY(remove ? null : (int) integer(field, v, Integer.MIN_VALUE, Integer.MAX_VALUE));
+                    break;
+                case "name":
+                    l.setName(remove ? null : string(field, v));
+                    break;
+                default:
+                    throw new ValidationException("Unknown field: " + field);
+            }
+        }
+        return l;
+    }
+
+    private static Coordinates copy(Coordinates c) {
+        return c == null ? null : new Coordinates(c.getX(), c.getY());
+    }
+
+    private static Location copy(Location l) {
+        return l == null ? null : new Location(l.getX(), l.getY(), l.getName());
+    }
+
+    private static String string(String field, JsonValue v) {
+        if (v.getValueType() != JsonValue.ValueType.STRING) {
+            throw new ValidationException(field + " must be a string");
+        }
+        return ((JsonString) v).getString();
+    }
+
+    private static JsonObject object(String field, JsonValue v) {
+        if (v.getValueType() != JsonValue.ValueType.OBJECT) {
+            throw new ValidationException(field + " must be an object or null");
+        }
+        return v.asJsonObject();
+    }
+
+    private static double number(String field, JsonValue v) {
+        if (v.getValueType() != JsonValue.ValueType.NUMBER) {
+            throw new ValidationException(field + " must be a number");
+        }
+        return ((JsonNumber) v).doubleValue();
+    }
+
+    private static long integer(String field, JsonValue v, long min, long max) {
+        if (v.getValueType() != JsonValue.ValueType.NUMBER) {
+            throw new ValidationException(field + " must be an integer");
+        }
+        long value;
+        try {
+            value = ((JsonNumber) v).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ValidationException(field + " must be an integer");
+        }
+        if (value < min || value > max) {
+            throw new ValidationException(field + " is out of range");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,147 @@
+package backend.service;
+
+import backend.config.AppSettings;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поиск альтернативных путей по RouteGraph. Граф перестраивается из RouteAnalytics не на каждое изменение
+ * маршрутов, а когда с прошлой сборки прошло routes.alternatives.rebuild-interval-ms или накопилось
+ * routes.alternatives.rebuild-changes изменений; до того и пока один поток строит новый граф, запросы
+ * идут по прежнему. Вместе с графом сбрасывается кэш результатов по (from, to, k, by) на
+ * routes.alternatives.cache-size записей. Результат, прерванный по времени, не кэшируется.
+ */
+@ApplicationScoped
+public class RoutePlanner {
+
+    @Inject
+    private RouteAnalytics analytics;
+
+    @Inject
+    private AppSettings settings;
+
+    private volatile Snapshot snapshot;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /**
+     * Найденные пути вместе с графом, по которому их номера рёбер переводятся в маршруты
+     */
+    public static final class Plan {
+        private final RouteGraph graph;
+        private final RouteGraph.Result result;
+        private final boolean cached;
+        private final long computeMillis;
+
+        Plan(RouteGraph graph, RouteGraph.Result result, boolean cached, long computeMillis) {
+            this.graph = graph;
+            this.result = result;
+            this.cached = cached;
+            this.computeMillis = computeMillis;
+        }
+
+        public RouteGraph getGraph() {
+            return graph;
+        }
+
+        public RouteGraph.Result getResult() {
+            return result;
+        }
+
+        public boolean isCached() {
+            return cached;
+        }
+
+        public long getComputeMillis() {
+            return computeMillis;
+        }
+    }
+
+    private static final class Snapshot {
+        final RouteGraph graph;
+        final long builtAtNanos = System.nanoTime();
+        final Map<List<Object>, RouteGraph.Result> cache;
+
+        Snapshot(RouteGraph graph, int cacheSize) {
+            this.graph = graph;
+            this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, RouteGraph.Result> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+    }
+
+    public int getMaxK() {
+        return Math.max(1, settings.getInt("routes.alternatives.max-k", 10));
+    }
+
+    public Plan plan(String from, String to, int k, RouteGraph.Weight by) {
+        Snapshot s = current();
+        List<Object> key = List.of(from, to, k, by);
+        RouteGraph.Result result;
+        synchronized (s.cache) {
+            result = s.cache.get(key);
+        }
+        if (result != null) return new Plan(s.graph, result, true, 0);
+
+        long started = System.nanoTime();
+        long budget = TimeUnit.MILLISECONDS.toNanos(settings.getLong("routes.alternatives.budget-ms", 200));
+        result = s.graph.kShortestPaths(from, to, k, by, started + budget);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        if (result.isComplete()) {
+            synchronized (s.cache) {
+                s.cache.put(key, result);
+            }
+        }
+        return new Plan(s.graph, result, false, millis);
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                if (snapshot == null) snapshot = build();
+                return snapshot;
+            }
+        }
+        if (!isDue(s) || !rebuilding.compareAndSet(false, true)) return s;
+        // строит один поток; остальные тем временем отвечают по прежнему графу
+        try {
+            s = snapshot;
+            if (isDue(s)) {
+                s = build();
+                snapshot = s;
+            }
+            return s;
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    private boolean isDue(Snapshot s) {
+        long changes = analytics.getModCount() - s.graph.version;
+        if (changes == 0) return false;
+        if (changes >= Math.max(1, settings.getLong("routes.alternatives.rebuild-changes", 1000))) return true;
+        long interval = TimeUnit.MILLISECONDS.toNanos(settings.getLong("routes.alternatives.rebuild-interval-ms", 5000));
+        return System.nanoTime() - s.builtAtNanos >= interval;
+    }
+
+    private Snapshot build() {
+        long started = System.nanoTime();
+        RouteGraph graph = analytics.buildGraph();
+        Snapshot s = new Snapshot(graph, Math.max(1, settings.getInt("routes.alternatives.cache-size", 256)));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        if (millis > 100) {
+            System.out.println("Route graph rebuilt in " + millis + " ms: " + graph.nodeCount() + " locations, "
+                    + graph.edgeCount() + " routes");
+        }
+        return s;
+    }
+}
@@ -1,15 +1,36 @@
 package backend.service;
 
+import backend.config.AppSettings;
+import backend.entities.Location;
 import backend.entities.Route;
+import backend.repository.ChangeLogEntry;
+import backend.repository.ReassignedRoute;
+import backend.repository.RouteColumn;
 import backend.repository.RouteRepository;
-import backend.websocket.RouteWebSocket;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
+import jakarta.json.JsonObject;
 import jakarta.transaction.Transactional;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ConstraintViolationException;
+import jakarta.validation.Validator;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.time.ZonedDateTime;
 
 @ApplicationScoped
@@ -18,6 +39,33 @@ public class RouteService {
     @Inject
     private RouteRepository routeRepository;
 
+    @Inject
+    private RouteCountTracker countTracker;
+
+    @Inject
+    private Event<RouteChangeEvent> routeChanged;
+
+    @Inject
+    private RouteSpatialIndex spatialIndex;
+
+    @Inject
+    private AppSettings settings;
+
+    @Inject
+    private Validator validator;
+
+    @Inject
+    private RouteDataVersion dataVersion;
+
+    @Inject
+    private RouteAnalytics analytics;
+
+    @Inject
+    private SingleFlight singleFlight;
+
+    @Inject
+    private RoutePlanner routePlanner;
+
     public Route createRoute(Route route) {
 
 		System.out.println("started creating route in route service");
@@ -25,10 +73,17 @@ public class RouteService {
             route.setCreationDate(ZonedDateTime.now());
         }
 		System.out.println(route);
-        Route saved = routeRepository.save(route);
+        Route saved;
+        countTracker.writeStarted();
+        try {
+            ChangeLogEntry entry = routeRepository.save(route);
+            saved = entry.getRoute();
+            routeChanged.fire(RouteChangeEvent.of(RouteChange.fromLog(entry, null)));
+        } finally {
+            countTracker.writeFinished();
+        }
 		System.out.println(saved);
 		System.out.println(route);
-        RouteWebSocket.notifyRouteCreated();
         return saved;
     }
 
@@ -36,83 +91,365 @@ public class RouteService {
         Optional<Route> existingRoute = routeRepository.findById(id);
         if (existingRoute.isPresent()) {
             Route route = existingRoute.get();
+            Route previous = copyOf(route);
             route.setName(updatedRoute.getName());
             route.setCoordinates(updatedRoute.getCoordinates());
             route.setFrom(updatedRoute.getFrom());
             route.setTo(updatedRoute.getTo());
             route.setDistance(updatedRoute.getDistance());
             route.setRating(updatedRoute.getRating());
-            Route savedRoute = routeRepository.save(route);
-            RouteWebSocket.notifyRouteUpdated();
+            Route savedRoute;
+            countTracker.writeStarted();
+            try {
+                ChangeLogEntry entry = routeRepository.save(route);
+                // seq 0 — строку удалили между findById и UPDATE
+                if (entry.getSeq() == 0) throw new IllegalArgumentException("Route with id " + id + " not found");
+                savedRoute = entry.getRoute();
+                routeChanged.fire(RouteChangeEvent.of(RouteChange.fromLog(entry, previous)));
+            } finally {
+                countTracker.writeFinished();
+            }
             return savedRoute;
         }
         throw new IllegalArgumentException("Route with id " + id + " not found");
     }
 
+    /**
+     * Частичное обновление по JSON Merge Patch. Проверяются только затронутые патчем поля,
+     * в UPDATE попадают только колонки, значение которых действительно изменилось.
+     */
+    public Route patchRoute(Long id, JsonObject patch) {
+        Route existing = routeRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Route with id " + id + " not found"));
+        Route patched = RouteMergePatch.apply(existing, patch);
+        validateTouched(patched, patch.keySet());
+
+        Set<RouteColumn> columns = EnumSet.noneOf(RouteColumn.class);
+        Set<String> fields = new TreeSet<>();
+        for (RouteColumn c : RouteColumn.values()) {
+            if (!Objects.equals(c.valueOf(existing), c.valueOf(patched))) {
+                columns.add(c);
+                fields.add(c.field());
+            }
+        }
+        if (columns.isEmpty()) {
+            return existing;
+        }
+
+        countTracker.writeStarted();
+        try {
+            ChangeLogEntry entry = routeRepository.updateColumns(patched, columns)
+                    .orElseThrow(() -> new IllegalArgumentException("Route with id " + id + " not found"));
+            routeChanged.fire(RouteChangeEvent.of(new RouteChange(RouteChange.Operation.UPDATED, id,
+                    entry.getSeq(), entry.getRoute(), existing, fields)));
+            return entry.getRoute();
+        } finally {
+            countTracker.writeFinished();
+        }
+    }
+
+    private void validateTouched(Route patched, Set<String> touched) {
+        Set<ConstraintViolation<?>> violations = new HashSet<>();
+        for (String field : touched) {
+            violations.addAll(validator.validateProperty(patched, field));
+        }
+        // у вложенных объектов свои ограничения (Location.name, Location.y)
+        if (touched.contains("from") && patched.getFrom() != null) violations.addAll(validator.validate(patched.getFrom()));
+        if (touched.contains("to") && patched.getTo() != null) violations.addAll(validator.validate(patched.getTo()));
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+    }
+
     public void deleteRoute(Long id) {
-        routeRepository.delete(id);
-        RouteWebSocket.notifyRouteDeleted();
+        countTracker.writeStarted();
+        try {
+            routeRepository.delete(id)
+                    .ifPresent(entry -> routeChanged.fire(RouteChangeEvent.of(RouteChange.fromLog(entry, null))));
+        } finally {
+            countTracker.writeFinished();
+        }
+    }
+
+    /**
+     * Удалить локацию: все маршруты, связанные с ней через from или to, перепривязываются на replacement.
+     * Возвращает id изменённых маршрутов; клиенты получают одно общее уведомление.
+     */
+    public List<Long> reassignLocation(Location location, Location replacement) {
+        if (sameLocation(location, replacement)) {
+            throw new IllegalArgumentException("Replacement location must differ from the deleted one");
+        }
+        List<ReassignedRoute> reassigned;
+        countTracker.writeStarted();
+        try {
+            reassigned = routeRepository.reassignLocation(location, replacement);
+            if (!reassigned.isEmpty()) {
+                List<RouteChange> changes = new ArrayList<>(reassigned.size());
+                for (ReassignedRoute r : reassigned) {
+                    Route previous = copyOf(r.getEntry().getRoute());
+                    if (r.isFromReplaced()) previous.setFrom(location);
+                    if (r.isToReplaced()) previous.setTo(location);
+                    changes.add(RouteChange.fromLog(r.getEntry(), previous));
+                }
+                routeChanged.fire(new RouteChangeEvent(changes, false));
+            }
+        } finally {
+            countTracker.writeFinished();
+        }
+        List<Long> ids = new ArrayList<>(reassigned.size());
+        for (ReassignedRoute r : reassigned) ids.add(r.getEntry().getRouteId());
+        return ids;
+    }
+
+    /**
+     * Версия данных для ETag/Last-Modified; null, если неизвестна
+     */
+    public RouteDataVersion.Stamp getDataStamp() {
+        return dataVersion.current();
     }
 
     public Optional<Route> getRouteById(Long id) {
         return routeRepository.findById(id);
     }
 
+    /**
+     * Маршруты по списку id в порядке запроса; повторы убираются, отсутствующие пропускаются.
+     * Найденные в индексе в памяти отдаются из него, остальные читаются одним запросом к БД.
+     */
+    public List<Route> getRoutesByIds(List<Long> ids) {
+        Set<Long> distinct = new LinkedHashSet<>(ids);
+        Map<Long, Route> found = settings.getBoolean("routes.spatial.in-memory", true)
+                ? spatialIndex.find(distinct) : new HashMap<>();
+        if (found.size() < distinct.size()) {
+            List<Long> rest = new ArrayList<>(distinct.size() - found.size());
+            for (Long id : distinct) {
+                if (!found.containsKey(id)) rest.add(id);
+            }
+            for (Route r : shared("findByIds", () -> routeRepository.findByIds(rest), rest)) found.put(r.getId(), r);
+        }
+        List<Route> routes = new ArrayList<>(found.size());
+        for (Long id : distinct) {
+            Route r = found.get(id);
+            if (r != null) routes.add(r);
+        }
+        return routes;
+    }
+
     public List<Route> getAllRoutes() {
         return routeRepository.findAll();
     }
 
     public List<Route> getRoutes(int page, int size) {
-        return routeRepository.findAll(page, size);
+        return shared("findAll", () -> routeRepository.findAll(page, size), page, size);
+    }
+
+    /**
+     * Страница маршрутов, созданных в [createdFrom, createdTo); null — граница не задана
+     */
+    public List<Route> getRoutes(int page, int size, ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        if (createdFrom == null && createdTo == null) return getRoutes(page, size);
+        return shared("findAllCreated", () -> routeRepository.findAll(page, size, createdFrom, createdTo),
+                page, size, createdFrom, createdTo);
+    }
+
+    public long countRoutesCreatedBetween(ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        if (createdFrom == null && createdTo == null) return countTracker.getTotal();
+        return singleFlight.execute("countCreatedBetween",
+                () -> routeRepository.countCreatedBetween(createdFrom, createdTo), createdFrom, createdTo);
+    }
+
+    /**
+     * limit последних созданных маршрутов, от новых к старым
+     */
+    public List<Route> getRecentRoutes(int limit) {
+        return shared("findRecent", () -> routeRepository.findRecent(limit), limit);
+    }
+
+    public RouteAnalyticsReport getAnalytics(int bucketWidth, int top) {
+        return analytics.report(bucketWidth, top);
     }
 
     public long getTotalRoutesCount() {
-        return routeRepository.count();
+        return countTracker.getTotal();
+    }
+
+    /**
+     * Режим, в котором получено общее количество: exact или estimated
+     */
+    public RouteCountTracker.Mode getTotalRoutesCountMode() {
+        return countTracker.getMode();
+    }
+
+    /**
+     * Изменения после seq since для догоняющих клиентов. Пустой Optional — нужные записи уже удалены
+     * компактацией журнала, клиенту следует перечитать данные целиком.
+     */
+    public Optional<List<ChangeLogEntry>> getChangesSince(long since, int limit) {
+        long[] bounds = routeRepository.changeSeqBounds();
+        if (since < bounds[0] - 1) {
+            return Optional.empty();
+        }
+        return Optional.of(routeRepository.findChangesSince(since, limit));
     }
 
     public List<Route> searchRoutesByName(String name) {
-        return routeRepository.findByNameContaining(name);
+        return shared("findByNameContaining", () -> routeRepository.findByNameContaining(name), name);
+    }
+
+    public List<Route> searchRoutesByName(String name, ZonedDateTime createdFrom, ZonedDateTime createdTo) {
+        if (createdFrom == null && createdTo == null) return searchRoutesByName(name);
+        return shared("findByNameContainingCreated",
+                () -> routeRepository.findByNameContaining(name, createdFrom, createdTo), name, createdFrom, createdTo);
+    }
+
+    /**
+     * Маршруты, чьи координаты попадают в прямоугольник области визуализации
+     */
+    public List<Route> findRoutesWithin(double minX, double minY, double maxX, double maxY, int limit) {
+        if (settings.getBoolean("routes.spatial.in-memory", true)) {
+            return spatialIndex.within(minX, minY, maxX, maxY, limit);
+        }
+        return routeRepository.findWithinBox(minX, minY, maxX, maxY, limit);
+    }
+
+    /**
+     * k маршрутов, ближайших к точке по координатам
+     */
+    public List<Route> findNearestRoutes(double x, double y, int k) {
+        if (settings.getBoolean("routes.spatial.in-memory", true)) {
+            return spatialIndex.nearest(x, y, k);
+        }
+        return routeRepository.findNearest(x, y, k);
+    }
+
+    /**
+     * k различных локаций (from/to), ближайших к точке
+     */
+    public List<Location> findNearestLocations(double x, double y, int k) {
+        return routeRepository.findNearestLocations(x, y, k);
     }
 
     /**
      * Удалить один (любой) объект, значение поля rating которого эквивалентно заданному
      */
     public boolean deleteRouteByRating(Long rating) {
-        return routeRepository.deleteByRating(rating);
+        Optional<ChangeLogEntry> deleted;
+        countTracker.writeStarted();
+        try {
+            deleted = routeRepository.deleteByRating(rating);
+            deleted.ifPresent(entry -> routeChanged.fire(RouteChangeEvent.of(RouteChange.fromLog(entry, null))));
+        } finally {
+            countTracker.writeFinished();
+        }
+        return deleted.isPresent();
     }
 
     /**
      * Вернуть количество объектов, значение поля rating которых больше заданного
      */
     public long countRoutesByRatingGreaterThan(Long rating) {
-        return routeRepository.countByRatingGreaterThan(rating);
+        return countTracker.countByRatingGreaterThan(rating);
     }
 
     /**
      * Вернуть массив уникальных значений поля rating по всем объектам
      */
     public List<Long> getDistinctRatings() {
-        return routeRepository.findDistinctRatings();
+        return shared("findDistinctRatings", routeRepository::findDistinctRatings);
     }
 
     /**
      * Найти самый короткий маршрут между указанными пользователем локациями
      */
     public Optional<Route> findShortestRoute(String fromLocation, String toLocation) {
-        return routeRepository.findShortestRoute(fromLocation, toLocation);
+        return singleFlight.execute("findShortestRoute",
+                () -> routeRepository.findShortestRoute(fromLocation, toLocation), fromLocation, toLocation);
     }
 
     /**
      * Найти самый длинный маршрут между указанными пользователем локациями
      */
     public Optional<Route> findLongestRoute(String fromLocation, String toLocation) {
-        return routeRepository.findLongestRoute(fromLocation, toLocation);
+        return singleFlight.execute("findLongestRoute",
+                () -> routeRepository.findLongestRoute(fromLocation, toLocation), fromLocation, toLocation);
     }
 
     /**
      * Найти все маршруты между указанными пользователем локациями, отсортировать список по заданному параметру
      */
     public List<Route> findRoutesBetweenLocations(String fromLocation, String toLocation) {
-        return routeRepository.findByLocations(fromLocation, toLocation);
+        return shared("findByLocations", () -> routeRepository.findByLocations(fromLocation, toLocation),
+                fromLocation, toLocation);
+    }
+
+    /**
+     * До k путей без циклов из локации from в to (имена точные), в том числе через промежуточные локации.
+     * Пути, чей маршрут успели удалить после построения графа, отбрасываются.
+     */
+    public RouteAlternatives findAlternatives(String fromLocation, String toLocation, int k, RouteGraph.Weight by) {
+        RoutePlanner.Plan plan = routePlanner.plan(fromLocation, toLocation, Math.min(k, routePlanner.getMaxK()), by);
+        RouteGraph graph = plan.getGraph();
+        List<RouteGraph.Path> paths = plan.getResult().getPaths();
+
+        Set<Long> ids = new LinkedHashSet<>();
+        for (RouteGraph.Path path : paths) {
+            for (int edge : path.edges()) ids.add(graph.routeId(edge));
+        }
+        Map<Long, Route> routes = new HashMap<>();
+        for (Route r : getRoutesByIds(new ArrayList<>(ids))) routes.put(r.getId(), r);
+
+        List<RouteAlternatives.Alternative> alternatives = new ArrayList<>(paths.size());
+        for (RouteGraph.Path path : paths) {
+            List<Route> legs = new ArrayList<>(path.edges().length);
+            long distance = 0;
+            long minRating = Long.MAX_VALUE;
+            for (int edge : path.edges()) {
+                Route leg = routes.get(graph.routeId(edge));
+                if (leg == null) break;
+                legs.add(leg);
+                distance += graph.distance(edge);
+                minRating = Math.min(minRating, graph.rating(edge));
+            }
+            if (legs.size() == path.edges().length) {
+                alternatives.add(new RouteAlternatives.Alternative(path.getCost(), distance, minRating, legs));
+            }
+        }
+        return new RouteAlternatives(fromLocation, toLocation, by.name().toLowerCase(), plan.getResult().isComplete(),
+                plan.isCached(), plan.getComputeMillis(), alternatives);
+    }
+
+    /**
+     * Все маршруты по возрастанию id без загрузки в память; visitor возвращает false, чтобы остановиться
+     */
+    public long forEachRoute(Predicate<Route> visitor) {
+        return routeRepository.forEachRoute(visitor);
+    }
+
+    /**
+     * Маршруты между локациями, как findRoutesBetweenLocations, но по одному
+     */
+    public long forEachRouteBetweenLocations(String fromLocation, String toLocation, Predicate<Route> visitor) {
+        return routeRepository.forEachByLocations(fromLocation, toLocation, visitor);
+    }
+
+    /**
+     * Чтение через SingleFlight; список неизменяемый, потому что его могут получить сразу несколько запросов
+     */
+    private <T> List<T> shared(String operation, Supplier<List<T>> query, Object... args) {
+        return singleFlight.execute(operation, () -> Collections.unmodifiableList(query.get()), args);
+    }
+
+    private static Route copyOf(Route route) {
+        Route copy = new Route(route.getName(), route.getCoordinates(), route.getFrom(), route.getTo(),
+                route.getDistance(), route.getRating());
+        copy.setId(route.getId());
+        copy.setCreationDate(route.getCreationDate());
+        return copy;
+    }
+
+    private static boolean sameLocation(Location a, Location b) {
+        return a.getX() == b.getX()
+                && Objects.equals(a.getY(), b.getY())
+                && Objects.equals(a.getName(), b.getName());
     }
 }
@@ -0,0 +1,175 @@
+package backend.service;
+
+import backend.entities.Route;
+import backend.repository.RouteRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * k-d дерево по Coordinates маршрутов для запросов области видимости и ближайших соседей без обращения к БД.
+ * Загружается из БД при первом запросе и дальше поддерживается по RouteChangeEvent (в том числе с других узлов).
+ */
+@ApplicationScoped
+public class RouteSpatialIndex {
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final KdTree<Entry> tree = new KdTree<>();
+    private final Map<Long, Entry> byId = new HashMap<>();
+
+    // точка запоминается при вставке, чтобы удаление не зависело от того, что потом стало с объектом Route
+    private static final class Entry {
+        final double x;
+        final double y;
+        final Route route;
+
+        Entry(double x, double y, Route route) {
+            this.x = x;
+            this.y = y;
+            this.route = route;
+        }
+    }
+
+    private volatile boolean loaded = false;
+    // изменения, пришедшие во время загрузки; применяются поверх загруженного снимка
+    private List<RouteChange> pendingWhileLoading = null;
+
+    public List<Route> within(double minX, double minY, double maxX, double maxY, int limit) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return routes(tree.range(minX, minY, maxX, maxY, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Route> nearest(double x, double y, int k) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return routes(tree.nearest(x, y, k));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Маршруты с данными id, которые есть в индексе; индекс не загружается ради этого вызова.
+     * Индекс обновляется тем же RouteChangeEvent, что рассылается клиентам, поэтому клиент,
+     * перечитывающий маршруты по уведомлению, находит здесь уже новую версию.
+     */
+    public Map<Long, Route> find(Collection<Long> ids) {
+        Map<Long, Route> found = new HashMap<>();
+        if (!loaded) return found;
+        lock.readLock().lock();
+        try {
+            for (Long id : ids) {
+                Entry e = byId.get(id);
+                if (e != null) found.put(id, e.route);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            lock.writeLock().lock();
+            try {
+                pendingWhileLoading = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            List<Route> all = null;
+            try {
+                all = routeRepository.findAll();
+            } finally {
+                if (all == null) {
+                    lock.writeLock().lock();
+                    try {
+                        pendingWhileLoading = null;
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                byId.clear();
+                List<Entry> entries = new ArrayList<>(all.size());
+                for (Route r : all) {
+                    if (r.getId() == null || r.getCoordinates() == null) continue;
+                    Entry entry = new Entry(r.getCoordinates().getX(), r.getCoordinates().getY(), r);
+                    byId.put(r.getId(), entry);
+                    entries.add(entry);
+                }
+                // поштучная вставка только для живых изменений; начальная загрузка — одно построение по медиане
+                tree.load(entries, e -> e.x, e -> e.y);
+                for (RouteChange change : pendingWhileLoading) apply(change);
+                loaded = true;
+            } finally {
+                // и при ошибке построения: иначе onRouteChanged копил бы изменения в этот список вечно
+                pendingWhileLoading = null;
+                if (!loaded) {
+                    byId.clear();
+                    tree.clear();
+                }
+                lock.writeLock().unlock();
+            }
+            System.out.println("Spatial index loaded: " + all.size() + " routes");
+        }
+    }
+
+    void onRouteChanged(@Observes RouteChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (pendingWhileLoading != null) {
+                pendingWhileLoading.addAll(event.getChanges());
+                return;
+            }
+            if (!loaded) return;
+            for (RouteChange change : event.getChanges()) apply(change);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // применение идемпотентно: повтор изменения, уже вошедшего в снимок, ничего не портит
+    private void apply(RouteChange change) {
+        Entry old = byId.remove(change.getRouteId());
+        if (old != null) tree.remove(old.x, old.y, old);
+        if (change.getOperation() != RouteChange.Operation.DELETED) put(change.getRoute());
+    }
+
+    private void put(Route r) {
+        if (r.getId() == null || r.getCoordinates() == null) return;
+        Entry entry = new Entry(r.getCoordinates().getX(), r.getCoordinates().getY(), r);
+        byId.put(r.getId(), entry);
+        tree.insert(entry.x, entry.y, entry);
+    }
+
+    private static List<Route> routes(List<Entry> entries) {
+        List<Route> out = new ArrayList<>(entries.size());
+        for (Entry e : entries) out.add(e.route);
+        return out;
+    }
+}
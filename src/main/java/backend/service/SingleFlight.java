@@ -0,0 +1,138 @@
+package backend.service;
+
+import backend.config.AppSettings;
+import backend.repository.QueryContext;
+import backend.repository.ReplicaRouter;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одинаковых одновременных чтений: первый вызов с данным ключом выполняет запрос,
+ * остальные, пришедшие до его окончания, ждут и получают тот же результат (или то же исключение).
+ * После окончания ключ удаляется — это не кэш, поздний вызов всегда идёт в БД.
+ * <p>
+ * В ключ входят версия данных, закрепление за основной БД и требуемая свежесть реплики: вызов после записи
+ * не присоединяется к запросу, начатому до неё, read-your-writes не получает ответ, прочитанный с реплики,
+ * а ответ с ETag — прочитанный с реплики, которая старше этого ETag.
+ * Если ожидание дольше routes.single-flight.timeout-ms или в полёте уже max-in-flight ключей, вызов выполняет
+ * запрос сам. Если общий запрос отменён потому, что клиент выполнявшего его вызова ушёл, ждущие заново
+ * входят в single-flight и один из них повторяет запрос; таймаут же общего запроса получают все.
+ */
+@ApplicationScoped
+public class SingleFlight {
+
+    @Inject
+    private AppSettings settings;
+
+    @Inject
+    private RouteDataVersion dataVersion;
+
+    // результат общего запроса, отменённого из-за ушедшего клиента выполнявшего его вызова
+    private static final Object ABANDONED = new Object();
+
+    private final ConcurrentHashMap<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String operation, Supplier<T> query, Object... args) {
+        if (!settings.getBoolean("routes.single-flight.enabled", true)) {
+            return query.get();
+        }
+        // без версии данных нельзя отличить запрос до записи от запроса после неё
+        RouteDataVersion.Stamp stamp = dataVersion.current();
+        if (stamp == null || inFlight.size() >= settings.getInt("routes.single-flight.max-in-flight", 1024)) {
+            bypassed.incrementAndGet();
+            return query.get();
+        }
+
+        List<Object> key = new ArrayList<>(args.length + 4);
+        key.add(operation);
+        key.add(stamp.getVersion());
+        key.add(ReplicaRouter.isPinnedToPrimary());
+        key.add(ReplicaRouter.getRequiredSeq());
+        key.addAll(Arrays.asList(args));
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running == null) {
+            executed.incrementAndGet();
+            try {
+                T result = query.get();
+                mine.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                // ключ снимается до завершения, чтобы ждущие при повторе не получили этот же future
+                inFlight.remove(key, mine);
+                QueryContext context = QueryContext.current();
+                if (context != null && context.isAbandoned() && QueryContext.isCancelledQuery(e)) {
+                    mine.complete(ABANDONED);
+                } else {
+                    mine.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        }
+
+        try {
+            Object result = running.get(settings.getLong("routes.single-flight.timeout-ms", 5000), TimeUnit.MILLISECONDS);
+            if (result == ABANDONED) return execute(operation, query, args);
+            coalesced.incrementAndGet();
+            return (T) result;
+        } catch (TimeoutException e) {
+            timedOut.incrementAndGet();
+            return query.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            coalesced.incrementAndGet();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + operation, e);
+        }
+    }
+
+    /**
+     * Запросы, выполненные в БД через этот слой
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * Вызовы, получившие результат чужого запроса
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    public long getBypassed() {
+        return bypassed.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
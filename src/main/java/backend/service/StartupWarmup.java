@@ -0,0 +1,236 @@
+package backend.service;
+
+import backend.api.RouteJsonEncoder;
+import backend.config.AppSettings;
+import backend.entities.Route;
+import backend.repository.RouteRepository;
+import backend.websocket.RouteWebSocket;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Прогрев после деплоя, до которого /api/health/ready отвечает 503: поиск DataSource и проверка схемы,
+ * открытие соединений пула, загрузка счётчиков и индексов в памяти, затем несколько сотен прогонов
+ * горячих запросов с сериализацией ответа, чтобы JIT скомпилировал маппинг строк и JSON до первых клиентов.
+ * Идёт в отдельном потоке: liveness доступна сразу, трафик балансировщик пускает после готовности.
+ * Неудачный прогрев повторяется с растущей паузой; когда попытки кончились, узел всё равно становится
+ * готовым (SKIPPED) — дальше его готовность определяет проверка БД, а не прогрев.
+ */
+@ApplicationScoped
+public class StartupWarmup {
+
+    public enum Phase {
+        STARTING, WARMING, READY, SKIPPED
+    }
+
+    @Inject
+    private RouteRepository routeRepository;
+
+    @Inject
+    private RouteService routeService;
+
+    @Inject
+    private RouteCountTracker countTracker;
+
+    @Inject
+    private RouteSpatialIndex spatialIndex;
+
+    @Inject
+    private RouteAnalytics analytics;
+
+    @Inject
+    private AppSettings settings;
+
+    private volatile Phase phase = Phase.STARTING;
+    private volatile long warmupMillis = -1;
+    private volatile String failure;
+    private Thread worker;
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object ignored) {
+        if (!settings.getBoolean("routes.warmup.enabled", true)) {
+            phase = Phase.READY;
+            warmupMillis = 0;
+            return;
+        }
+        worker = new Thread(this::warmUp, "startup-warmup");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (worker != null) worker.interrupt();
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public boolean isReady() {
+        return phase == Phase.READY || phase == Phase.SKIPPED;
+    }
+
+    /**
+     * Длительность прогрева; -1, пока он не закончился
+     */
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    /**
+     * Ошибка последней неудачной попытки прогрева или null
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    private void warmUp() {
+        long started = System.nanoTime();
+        phase = Phase.WARMING;
+        int attempts = Math.max(1, settings.getInt("routes.warmup.max-attempts", 5));
+        long backoff = Math.max(1, settings.getLong("routes.warmup.retry-initial-ms", 1000));
+        long maxBackoff = Math.max(backoff, settings.getLong("routes.warmup.retry-max-ms", 30000));
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    int iterations = warmUpOnce(started);
+                    warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    failure = null;
+                    phase = Phase.READY;
+                    System.out.println("Warm-up finished in " + warmupMillis + " ms (" + iterations + " iterations)");
+                    return;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failure = e.getMessage();
+                    if (attempt >= attempts) {
+                        warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                        phase = Phase.SKIPPED;
+                        System.err.println("Warm-up skipped after " + attempt + " attempts: " + e.getMessage());
+                        return;
+                    }
+                    System.err.println("Warm-up attempt " + attempt + " failed, retrying in " + backoff + " ms: "
+                            + e.getMessage());
+                    Thread.sleep(backoff);
+                    backoff = Math.min(maxBackoff, backoff * 2);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int warmUpOnce(long started) throws Exception {
+        // JNDI и ensureSchemaExists (или восстановление встроенного хранилища): первый вызов берёт монитор репозитория
+        if (routeRepository.getPrimaryPool() != null) {
+            primePool(settings.getInt("routes.warmup.pool-connections", 8));
+        }
+
+        countTracker.getTotal();
+        routeService.getDataStamp();
+        if (settings.getBoolean("routes.spatial.in-memory", true)) spatialIndex.ensureLoaded();
+        analytics.ensureLoaded();
+
+        return exerciseHotPaths(settings.getInt("routes.warmup.iterations", 200),
+                TimeUnit.SECONDS.toNanos(settings.getLong("routes.warmup.max-seconds", 60)) + started);
+    }
+
+    /**
+     * Открыть одновременно n соединений, чтобы пул создал их сейчас, а не на первых запросах
+     */
+    private void primePool(int n) throws Exception {
+        if (n <= 0) return;
+        ExecutorService pool = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "startup-warmup-pool");
+            t.setDaemon(true);
+            return t;
+        });
+        CountDownLatch opened = new CountDownLatch(n);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                futures.add(pool.submit(() -> {
+                    try (Connection conn = routeRepository.getPrimaryPool().getConnection();
+                         Statement st = conn.createStatement()) {
+                        st.execute("SELECT 1");
+                        opened.countDown();
+                        release.await(30, TimeUnit.SECONDS);
+                    } catch (SQLException e) {
+                        opened.countDown();
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            opened.await(30, TimeUnit.SECONDS);
+            release.countDown();
+            for (Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    private int exerciseHotPaths(int iterations, long deadline) throws Exception {
+        int done = 0;
+        // маршруты отдаёт RouteJsonWriter через RouteJsonEncoder — прогреваем его же; JSON-B остаётся только для аналитики.
+        // Не try-with-resources: Jsonb.close() объявлен с throws Exception, а не только IOException
+        OutputStream sink = OutputStream.nullOutputStream();
+        Jsonb jsonb = JsonbBuilder.create();
+        try {
+            for (; done < iterations && System.nanoTime() < deadline; done++) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                List<Route> page = routeService.getRoutes(0, 20);
+                writeRoutes(sink, page);
+                writeRoutes(sink, routeService.getRecentRoutes(20));
+                // поиск по подстроке без границ дат читает всю таблицу — ограничиваем последним часом
+                writeRoutes(sink, routeService.searchRoutesByName("a", ZonedDateTime.now().minusHours(1), null));
+                writeRoutes(sink, routeService.findNearestRoutes(0, 0, 10));
+                writeRoutes(sink, routeService.findRoutesWithin(-100, -100, 100, 100, 100));
+                jsonb.toJson(routeService.getAnalytics(100, 10));
+                if (!page.isEmpty()) {
+                    Route r = page.get(0);
+                    RouteJsonEncoder encoder = new RouteJsonEncoder(sink);
+                    encoder.writeRoute(routeService.getRouteById(r.getId()).orElse(r));
+                    encoder.flush();
+                    List<RouteChange> changes = new ArrayList<>(page.size());
+                    for (Route p : page) {
+                        changes.add(new RouteChange(RouteChange.Operation.UPDATED, p.getId(), 0, p, null,
+                                Set.of("rating", "distance")));
+                    }
+                    RouteWebSocket.changesMessage(changes);
+                }
+            }
+        } finally {
+            jsonb.close();
+        }
+        return done;
+    }
+
+    private static void writeRoutes(OutputStream out, List<Route> routes) throws IOException {
+        RouteJsonEncoder encoder = new RouteJsonEncoder(out);
+        encoder.writeRoutes(routes);
+        encoder.flush();
+    }
+}
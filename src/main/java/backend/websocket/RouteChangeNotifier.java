@@ -0,0 +1,89 @@
+package backend.websocket;
+
+import backend.config.AppSettings;
+import backend.service.RouteChange;
+import backend.service.RouteChangeEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Копит изменения маршрутов в течение окна (routes.notify.window-ms) или до routes.notify.max-batch штук
+ * и рассылает их одним сообщением. Повторные изменения одного маршрута склеиваются, порядок по маршруту сохраняется.
+ */
+@ApplicationScoped
+public class RouteChangeNotifier {
+
+    @Inject
+    private AppSettings settings;
+
+    private final Object lock = new Object();
+    private LinkedHashMap<Long, RouteChange> pending = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private long windowMillis;
+    private int maxBatch;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void start() {
+        windowMillis = settings.getLong("routes.notify.window-ms", 50);
+        maxBatch = settings.getInt("routes.notify.max-batch", 500);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "route-change-notifier");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    void onRouteChanged(@Observes RouteChangeEvent event) {
+        synchronized (lock) {
+            for (RouteChange change : event.getChanges()) {
+                RouteChange earlier = pending.get(change.getRouteId());
+                if (earlier == null) {
+                    pending.put(change.getRouteId(), change);
+                } else {
+                    RouteChange merged = earlier.mergeWith(change);
+                    if (merged == null) pending.remove(change.getRouteId());
+                    else pending.put(change.getRouteId(), merged);
+                }
+            }
+            if (pending.size() >= maxBatch) {
+                scheduler.execute(this::flush);
+                flushScheduled = true;
+            } else if (!flushScheduled && !pending.isEmpty()) {
+                scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
+            }
+        }
+    }
+
+    private void flush() {
+        List<RouteChange> batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+        }
+        try {
+            RouteWebSocket.publish(batch);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to broadcast route changes: " + e.getMessage());
+        }
+    }
+}
@@ -1,29 +1,55 @@
 package backend.websocket;
 
+import backend.entities.Location;
+import backend.entities.Route;
+import backend.service.RouteChange;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
 import jakarta.websocket.*;
 import jakarta.websocket.server.ServerEndpoint;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @ApplicationScoped
 @ServerEndpoint("/ws/routes")
 public class RouteWebSocket {
 
+    private static final String SUBSCRIPTION = "subscription";
+
     private static final Set<Session> sessions = Collections.synchronizedSet(new HashSet<>());
 
+    private static final SubscriptionIndex subscriptions = new SubscriptionIndex();
+
+    private static final String WATCHED_JOBS = "watchedJobs";
+
+    // id задачи -> сессии, ждущие её прогресса
+    private static final Map<String, Set<Session>> jobWatchers = new ConcurrentHashMap<>();
+
     @OnOpen
     public void onOpen(Session session) {
         sessions.add(session);
+        subscribe(session, Subscription.everything(session));
         System.out.println("WebSocket connection opened: " + session.getId());
     }
 
     @OnClose
     public void onClose(Session session) {
         sessions.remove(session);
+        subscriptions.remove((Subscription) session.getUserProperties().remove(SUBSCRIPTION));
+        unwatchAll(session);
         System.out.println("WebSocket connection closed: " + session.getId());
     }
 
@@ -31,38 +57,200 @@ public class RouteWebSocket {
     public void onError(Session session, Throwable throwable) {
         System.err.println("WebSocket error for session " + session.getId() + ": " + throwable.getMessage());
         sessions.remove(session);
+        subscriptions.remove((Subscription) session.getUserProperties().remove(SUBSCRIPTION));
+        unwatchAll(session);
     }
 
+    /**
+     * {"type":"subscribe", ...} — заменить подписку сессии (см. Subscription), {"type":"unsubscribe"} — получать всё.
+     * {"type":"watch_job","id":"..."} / {"type":"unwatch_job","id":"..."} — прогресс фоновой задачи (см. JobManager).
+     */
     @OnMessage
     public void onMessage(String message, Session session) {
-        System.out.println("Received message: " + message);
+        JsonObject json;
+        try (JsonReader reader = Json.createReader(new StringReader(message))) {
+            json = reader.readObject();
+        } catch (JsonException | IllegalStateException e) {
+            System.err.println("Ignoring malformed WebSocket message from " + session.getId() + ": " + message);
+            return;
+        }
+        String type = json.getString("type", "");
+        if ("subscribe".equals(type)) {
+            subscribe(session, Subscription.fromJson(session, json));
+        } else if ("unsubscribe".equals(type)) {
+            subscribe(session, Subscription.everything(session));
+        } else if ("watch_job".equals(type) && json.containsKey("id")) {
+            watchJob(session, json.getString("id", ""));
+        } else if ("unwatch_job".equals(type) && json.containsKey("id")) {
+            unwatchJob(session, json.getString("id", ""));
+        } else {
+            System.out.println("Received message: " + message);
+        }
+    }
+
+    private static void subscribe(Session session, Subscription subscription) {
+        Subscription previous = (Subscription) session.getUserProperties().put(SUBSCRIPTION, subscription);
+        subscriptions.remove(previous);
+        subscriptions.add(subscription);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void watchJob(Session session, String jobId) {
+        ((Set<String>) session.getUserProperties().computeIfAbsent(WATCHED_JOBS, k -> ConcurrentHashMap.newKeySet()))
+                .add(jobId);
+        jobWatchers.computeIfAbsent(jobId, k -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void unwatchJob(Session session, String jobId) {
+        Set<String> watched = (Set<String>) session.getUserProperties().get(WATCHED_JOBS);
+        if (watched != null) watched.remove(jobId);
+        jobWatchers.computeIfPresent(jobId, (k, set) -> {
+            set.remove(session);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void unwatchAll(Session session) {
+        Set<String> watched = (Set<String>) session.getUserProperties().remove(WATCHED_JOBS);
+        if (watched == null) return;
+        for (String jobId : watched) unwatchJob(session, jobId);
+    }
+
+    /**
+     * Отправить сообщение о задаче сессиям, которые за ней следят
+     */
+    public static void publishJob(String jobId, String message) {
+        Set<Session> watchers = jobWatchers.get(jobId);
+        if (watchers == null) return;
+        for (Session session : watchers) send(session, message);
+    }
+
+    /**
+     * Задача удалена — подписки на неё больше не нужны
+     */
+    public static void forgetJob(String jobId) {
+        jobWatchers.remove(jobId);
+    }
+
+    public static int getSessionCount() {
+        return sessions.size();
     }
 
     public static void broadcast(String message) {
+        List<Session> snapshot;
         synchronized (sessions) {
-            sessions.removeIf(session -> {
-                try {
-                    if (session.isOpen()) {
-                        session.getBasicRemote().sendText(message);
-                        return false;
-                    }
-                } catch (IOException e) {
-                    System.err.println("Error sending message to session " + session.getId() + ": " + e.getMessage());
+            snapshot = new ArrayList<>(sessions);
+        }
+        for (Session session : snapshot) {
+            send(session, message);
+        }
+    }
+
+    /**
+     * Разослать пачку изменений: подписчики «на всё» получают её целиком,
+     * остальные — только изменения, подходящие под их подписку.
+     */
+    public static void publish(List<RouteChange> changes) {
+        List<Subscription> all = subscriptions.everything();
+        if (!all.isEmpty()) {
+            String message = changesMessage(changes);
+            for (Subscription s : all) {
+                send(s.getSession(), message);
+            }
+        }
+
+        Map<Session, List<RouteChange>> perSession = new LinkedHashMap<>();
+        for (RouteChange change : changes) {
+            for (Subscription s : subscriptions.matching(change.getRoute(), change.getPrevious())) {
+                perSession.computeIfAbsent(s.getSession(), k -> new ArrayList<>()).add(change);
+            }
+        }
+        perSession.forEach((session, list) -> send(session, changesMessage(list)));
+    }
+
+    private static void send(Session session, String message) {
+        try {
+            if (session.isOpen()) {
+                synchronized (session) {
+                    session.getBasicRemote().sendText(message);
                 }
-                return true;
-            });
+                return;
+            }
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Error sending message to session " + session.getId() + ": " + e.getMessage());
         }
+        sessions.remove(session);
+        subscriptions.remove((Subscription) session.getUserProperties().remove(SUBSCRIPTION));
+        unwatchAll(session);
     }
 
-    public static void notifyRouteCreated() {
-        broadcast("{\"type\":\"route_created\",\"message\":\"Новый маршрут добавлен\"}");
+    /**
+     * Сообщение вида {"type":"routes_changed","seq":12,"changes":[{"id":1,"op":"created","seq":12},...]},
+     * где seq верхнего уровня — наибольший номер журнала в пачке. Для частичных обновлений к изменению
+     * добавляется "fields" с новыми значениями изменившихся полей, чтобы клиент мог не перечитывать маршрут.
+     */
+    public static String changesMessage(List<RouteChange> changes) {
+        StringBuilder sb = new StringBuilder(48 + changes.size() * 48);
+        long maxSeq = 0;
+        for (RouteChange change : changes) maxSeq = Math.max(maxSeq, change.getSeq());
+        sb.append("{\"type\":\"routes_changed\",\"seq\":").append(maxSeq).append(",\"changes\":[");
+        for (int i = 0; i < changes.size(); i++) {
+            RouteChange change = changes.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(change.getRouteId())
+                    .append(",\"op\":\"").append(change.getOperation().wireName())
+                    .append("\",\"seq\":").append(change.getSeq());
+            if (change.getOperation() == RouteChange.Operation.UPDATED && change.getChangedFields() != null
+                    && change.getRoute() != null) {
+                sb.append(",\"fields\":").append(fieldsJson(change.getRoute(), change.getChangedFields()));
+            }
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
     }
 
-    public static void notifyRouteUpdated() {
-        broadcast("{\"type\":\"route_updated\",\"message\":\"Маршрут обновлен\"}");
+    private static JsonObject fieldsJson(Route r, Set<String> fields) {
+        JsonObjectBuilder b = Json.createObjectBuilder();
+        for (String field : fields) {
+            switch (field) {
+                case "name":
+                    b.add(field, r.getName());
+                    break;
+                case "coordinates":
+                    if (r.getCoordinates() == null) b.addNull(field);
+                    else b.add(field, Json.createObjectBuilder()
+                            .add("x", r.getCoordinates().getX())
+                            .add("y", r.getCoordinates().getY()));
+                    break;
+                case "from":
+                    addLocation(b, field, r.getFrom());
+                    break;
+                case "to":
+                    addLocation(b, field, r.getTo());
+                    break;
+                case "distance":
+                    b.add(field, r.getDistance());
+                    break;
+                case "rating":
+                    b.add(field, r.getRating());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return b.build();
     }
 
-    public static void notifyRouteDeleted() {
-        broadcast("{\"type\":\"route_deleted\",\"message\":\"Маршрут удален\"}");
+    private static void addLocation(JsonObjectBuilder b, String field, Location l) {
+        if (l == null) {
+            b.addNull(field);
+            return;
+        }
+        JsonObjectBuilder lb = Json.createObjectBuilder().add("x", l.getX()).add("name", l.getName());
+        if (l.getY() == null) lb.addNull("y");
+        else lb.add("y", l.getY());
+        b.add(field, lb);
     }
 }
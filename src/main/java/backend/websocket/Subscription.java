@@ -0,0 +1,125 @@
+package backend.websocket;
+
+import backend.entities.Route;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+import jakarta.websocket.Session;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Подписка WebSocket-сессии на изменения маршрутов.
+ * Маршрут подходит, если его id есть в ids, или если он удовлетворяет всем заданным условиям фильтра
+ * (подстрока имени, подстроки локаций from/to, диапазон rating). Пустая подписка получает всё.
+ */
+public class Subscription {
+
+    private final Session session;
+    private final String name;
+    private final String from;
+    private final String to;
+    private final Long ratingMin;
+    private final Long ratingMax;
+    private final Set<Long> ids;
+
+    public Subscription(Session session, String name, String from, String to,
+                        Long ratingMin, Long ratingMax, Set<Long> ids) {
+        this.session = session;
+        this.name = normalize(name);
+        this.from = normalize(from);
+        this.to = normalize(to);
+        this.ratingMin = ratingMin;
+        this.ratingMax = ratingMax;
+        this.ids = ids == null ? Collections.emptySet() : ids;
+    }
+
+    public static Subscription everything(Session session) {
+        return new Subscription(session, null, null, null, null, null, null);
+    }
+
+    /**
+     * Разбор сообщения {"type":"subscribe","name":..,"from":..,"to":..,"ratingMin":..,"ratingMax":..,"ids":[..]}
+     */
+    public static Subscription fromJson(Session session, JsonObject json) {
+        Set<Long> ids = new HashSet<>();
+        if (json.containsKey("ids") && json.get("ids").getValueType() == JsonValue.ValueType.ARRAY) {
+            for (JsonValue v : json.getJsonArray("ids")) {
+                if (v instanceof JsonNumber) ids.add(((JsonNumber) v).longValue());
+            }
+        }
+        return new Subscription(session,
+                stringOrNull(json, "name"),
+                stringOrNull(json, "from"),
+                stringOrNull(json, "to"),
+                longOrNull(json, "ratingMin"),
+                longOrNull(json, "ratingMax"),
+                ids);
+    }
+
+    public boolean hasFilter() {
+        return name != null || from != null || to != null || ratingMin != null || ratingMax != null;
+    }
+
+    public boolean isEverything() {
+        return !hasFilter() && ids.isEmpty();
+    }
+
+    public boolean matches(Route route) {
+        if (route == null) return false;
+        if (route.getId() != null && ids.contains(route.getId())) return true;
+        if (!hasFilter()) return ids.isEmpty();
+        if (name != null && !contains(route.getName(), name)) return false;
+        if (from != null && (route.getFrom() == null || !contains(route.getFrom().getName(), from))) return false;
+        if (to != null && (route.getTo() == null || !contains(route.getTo().getName(), to))) return false;
+        Long rating = route.getRating();
+        if (ratingMin != null && (rating == null || rating < ratingMin)) return false;
+        if (ratingMax != null && (rating == null || rating > ratingMax)) return false;
+        return true;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public Long getRatingMin() {
+        return ratingMin;
+    }
+
+    public Set<Long> getIds() {
+        return ids;
+    }
+
+    private static boolean contains(String value, String needle) {
+        return value != null && value.toLowerCase(Locale.ROOT).contains(needle);
+    }
+
+    private static String normalize(String s) {
+        return s == null || s.isEmpty() ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    private static String stringOrNull(JsonObject json, String key) {
+        return json.containsKey(key) && json.get(key).getValueType() == JsonValue.ValueType.STRING
+                ? json.getString(key) : null;
+    }
+
+    private static Long longOrNull(JsonObject json, String key) {
+        return json.containsKey(key) && json.get(key).getValueType() == JsonValue.ValueType.NUMBER
+                ? json.getJsonNumber(key).longValue() : null;
+    }
+}
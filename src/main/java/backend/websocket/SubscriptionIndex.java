@@ -0,0 +1,146 @@
+package backend.websocket;
+
+import backend.entities.Route;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Индекс подписок: по изменённому маршруту находит кандидатов, не перебирая все сессии.
+ * Подписка с фильтром индексируется по одному условию (name, затем from, to, rating);
+ * подстроки индексируются по первой триграмме, поэтому поиск стоит O(длина строки), а не O(число сессий).
+ * Кандидаты затем проверяются полным предикатом.
+ */
+public class SubscriptionIndex {
+
+    private static final int GRAM = 3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Set<Subscription> everything = new HashSet<>();
+    private final Map<Long, Set<Subscription>> byId = new HashMap<>();
+    private final Map<String, Set<Subscription>> byName = new HashMap<>();
+    private final Map<String, Set<Subscription>> byFrom = new HashMap<>();
+    private final Map<String, Set<Subscription>> byTo = new HashMap<>();
+    private final TreeMap<Long, Set<Subscription>> byRatingMin = new TreeMap<>();
+    // фильтр только по ratingMax
+    private final Set<Subscription> ratingMaxOnly = new HashSet<>();
+
+    public void add(Subscription s) {
+        lock.writeLock().lock();
+        try {
+            if (s.isEverything()) {
+                everything.add(s);
+                return;
+            }
+            for (Long id : s.getIds()) put(byId, id, s);
+            if (s.getName() != null) put(byName, gramKey(s.getName()), s);
+            else if (s.getFrom() != null) put(byFrom, gramKey(s.getFrom()), s);
+            else if (s.getTo() != null) put(byTo, gramKey(s.getTo()), s);
+            else if (s.getRatingMin() != null) put(byRatingMin, s.getRatingMin(), s);
+            else if (s.hasFilter()) ratingMaxOnly.add(s);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Subscription s) {
+        if (s == null) return;
+        lock.writeLock().lock();
+        try {
+            everything.remove(s);
+            for (Long id : s.getIds()) drop(byId, id, s);
+            if (s.getName() != null) drop(byName, gramKey(s.getName()), s);
+            else if (s.getFrom() != null) drop(byFrom, gramKey(s.getFrom()), s);
+            else if (s.getTo() != null) drop(byTo, gramKey(s.getTo()), s);
+            else if (s.getRatingMin() != null) drop(byRatingMin, s.getRatingMin(), s);
+            else ratingMaxOnly.remove(s);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Subscription> everything() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(everything);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Подписки с фильтром или списком id, которым интересен маршрут в любом из переданных состояний.
+     * Подписки «на всё» сюда не входят.
+     */
+    public Set<Subscription> matching(Route... states) {
+        Set<Subscription> candidates = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            for (Route r : states) {
+                if (r == null) continue;
+                if (r.getId() != null) addAll(candidates, byId.get(r.getId()));
+                collectGrams(candidates, byName, r.getName());
+                if (r.getFrom() != null) collectGrams(candidates, byFrom, r.getFrom().getName());
+                if (r.getTo() != null) collectGrams(candidates, byTo, r.getTo().getName());
+                if (r.getRating() != null) {
+                    for (Set<Subscription> set : byRatingMin.headMap(r.getRating(), true).values()) {
+                        candidates.addAll(set);
+                    }
+                }
+                candidates.addAll(ratingMaxOnly);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        candidates.removeIf(s -> !anyMatch(s, states));
+        return candidates;
+    }
+
+    private static boolean anyMatch(Subscription s, Route[] states) {
+        for (Route r : states) {
+            if (s.matches(r)) return true;
+        }
+        return false;
+    }
+
+    private static void collectGrams(Set<Subscription> out, Map<String, Set<Subscription>> index, String value) {
+        if (value == null || index.isEmpty()) return;
+        String v = value.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < v.length(); i++) {
+            for (int len = 1; len <= GRAM && i + len <= v.length(); len++) {
+                addAll(out, index.get(v.substring(i, i + len)));
+            }
+        }
+    }
+
+    // подстрока фильтра длиной >= 3 обязательно содержит свою первую триграмму
+    private static String gramKey(String filter) {
+        return filter.length() <= GRAM ? filter : filter.substring(0, GRAM);
+    }
+
+    private static void addAll(Set<Subscription> out, Collection<Subscription> from) {
+        if (from != null) out.addAll(from);
+    }
+
+    private static <K> void put(Map<K, Set<Subscription>> index, K key, Subscription s) {
+        index.computeIfAbsent(key, k -> new HashSet<>()).add(s);
+    }
+
+    private static <K> void drop(Map<K, Set<Subscription>> index, K key, Subscription s) {
+        Set<Subscription> set = index.get(key);
+        if (set == null) return;
+        set.remove(s);
+        if (set.isEmpty()) index.remove(key);
+    }
+}
@@ -54,6 +54,8 @@
 			}
 
 			renderTable(list);
+			shownList = list;
+			subscribeChanges(list);
 		} catch (e) {
 			console.error(e);
 			tableBody.innerHTML = `<tr><td colspan="9">Ошибка загрузки данных</td></tr>`;
@@ -260,6 +262,83 @@
 		await loadRoutes();
 	}, 5000);
 
+	let changesSocket = null;
+	let lastSeq = 0;
+	let shownList = [];
+
+	// на последней странице нужны и новые маршруты, на остальных — только изменения показанных строк
+	function subscribeChanges(list) {
+		if (!changesSocket || changesSocket.readyState !== WebSocket.OPEN) return;
+		const msg = {type: 'subscribe'};
+		if (currentFilter) msg.name = currentFilter;
+		if (list.length >= size) msg.ids = list.map(r => r.id);
+		changesSocket.send(JSON.stringify(msg));
+	}
+
+	// после переподключения дочитываем пропущенное из журнала изменений вместо полной перезагрузки
+	async function catchUp() {
+		try {
+			const resp = await fetch(apiUrl(`/routes/changes?since=${lastSeq}`));
+			if (resp.status === 410) {
+				await loadRoutes();
+				return;
+			}
+			if (!resp.ok) throw new Error('Ошибка загрузки изменений: ' + resp.status);
+			const changes = await resp.json();
+			if (changes.length > 0) {
+				lastSeq = changes[changes.length - 1].seq;
+				await loadRoutes();
+			} else {
+				subscribeChanges(shownList);
+			}
+		} catch (e) {
+			console.error(e);
+			await loadRoutes();
+		}
+	}
+
+	// если изменились только показанные строки, дочитываем их одним GET /routes?ids=... вместо всей страницы;
+	// false — нужна полная перезагрузка (создание, удаление, фильтр по имени или часть строк не найдена)
+	async function refreshRows(changes) {
+		if (currentFilter) return false;
+		const shown = new Set(shownList.map(r => r.id));
+		if (!changes.every(c => c.op === 'updated' && shown.has(c.id))) return false;
+		const ids = [...new Set(changes.map(c => c.id))];
+		try {
+			const resp = await fetch(apiUrl(`/routes?ids=${ids.join(',')}`));
+			if (!resp.ok || resp.headers.get('X-Missing-Ids')) return false;
+			const fresh = new Map((await resp.json()).map(r => [r.id, r]));
+			shownList = shownList.map(r => fresh.get(r.id) || r);
+			renderTable(shownList);
+			return true;
+		} catch (e) {
+			console.error(e);
+			return false;
+		}
+	}
+
+	// изменения приходят пачками: {"type":"routes_changed","changes":[{"id":1,"op":"created"},...]}
+	function connectChanges() {
+		const ws = new WebSocket('ws://localhost:25501/IS-lab1/ws/routes');
+		changesSocket = ws;
+		ws.onopen = () => (lastSeq > 0 ? catchUp() : loadRoutes());
+		ws.onmessage = async (ev) => {
+			let msg;
+			try {
+				msg = JSON.parse(ev.data);
+			} catch (e) {
+				return;
+			}
+			if (msg.type === 'routes_changed' && Array.isArray(msg.changes) && msg.changes.length > 0) {
+				lastSeq = Math.max(lastSeq, msg.seq || 0);
+				if (!(await refreshRows(msg.changes))) await loadRoutes();
+			} else if (msg.type === 'resync') {
+				await loadRoutes();
+			}
+		};
+		ws.onclose = () => setTimeout(connectChanges, 3000);
+	}
+
 	function escapeHtml(s) {
 		if (s == null) return '';
 		return String(s).replace(/[&<>"']/g, c => ({
@@ -290,4 +369,5 @@
     }
 
 	loadRoutes();
+	connectChanges();
 })();